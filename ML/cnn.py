@@ -12,7 +12,8 @@ from data_loader import get_face_data_as_object
 
 
 fileLocation ='/fer2013/fer2013.csv'
-face = get_face_data_as_object(fileLocation,output_column_index=0)
+# loaded in main(), so the export scripts can import the model without the dataset
+face = None
 
 MODEL_NAME = 'em_convnet_6000'
 
@@ -122,6 +123,9 @@ def export_model(input_node_names, output_node_name, input_arrays, output_arrays
     print("graph saved!")
 
 def main():
+    global face
+    face = get_face_data_as_object(fileLocation,output_column_index=0)
+
     if not path.exists('out'):
         os.mkdir('out')
 
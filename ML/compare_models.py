@@ -0,0 +1,89 @@
+# Python 3.6.0
+# tensorflow 1.15.0
+#
+# Accuracy versus latency of the float and the int8 TF Lite emotion models on
+# the FER2013 PublicTest split, to decide which one to ship.
+#
+# Each model is fed the way the app feeds it: the float model gets pixels / 255
+# as float32 (EmotionDetector's INPUT_SCALE), the quantized model gets the raw
+# uint8 pixels, and neither is histogram equalized, as LumaNormalizer.NONE is
+# the app's default.  Latency is the
+# mean and 95th percentile wall time of single-face invocations on this
+# machine, single threaded; absolute numbers differ on a phone, the ratio is
+# what matters.
+#
+# usage: python compare_models.py [float.tflite] [int8.tflite]
+
+import os.path as path
+import sys
+import time
+
+import numpy as np
+import tensorflow as tf
+
+from cnn import fileLocation
+from data_loader import get_face_data
+
+FLOAT_MODEL = 'out/em_convnet.tflite'
+INT8_MODEL = 'out/em_convnet_int8.tflite'
+WARMUP_RUNS = 20
+
+
+def evaluate(model_file, faces, labels):
+    interpreter = tf.lite.Interpreter(model_path=model_file)
+    interpreter.allocate_tensors()
+    input_detail = interpreter.get_input_details()[0]
+    output_index = interpreter.get_output_details()[0]['index']
+    quantized = input_detail['dtype'] == np.uint8
+
+    if quantized:
+        inputs = np.round(faces * 255.0).astype(np.uint8)
+    else:
+        inputs = faces.astype(np.float32)
+
+    for i in range(WARMUP_RUNS):
+        interpreter.set_tensor(input_detail['index'], inputs[i:i + 1])
+        interpreter.invoke()
+
+    correct = 0
+    timings = []
+    for i in range(len(inputs)):
+        interpreter.set_tensor(input_detail['index'], inputs[i:i + 1])
+        start = time.perf_counter()
+        interpreter.invoke()
+        timings.append(time.perf_counter() - start)
+        scores = interpreter.get_tensor(output_index)[0]
+        if np.argmax(scores) == labels[i]:
+            correct += 1
+
+    timings_ms = np.array(timings) * 1000.0
+    return {
+        'size_kb': path.getsize(model_file) / 1024.0,
+        'accuracy': correct / float(len(inputs)),
+        'mean_ms': float(np.mean(timings_ms)),
+        'p95_ms': float(np.percentile(timings_ms, 95)),
+    }
+
+
+def main():
+    float_model = sys.argv[1] if len(sys.argv) > 1 else FLOAT_MODEL
+    int8_model = sys.argv[2] if len(sys.argv) > 2 else INT8_MODEL
+
+    _, test_data, _, test_labels = get_face_data(fileLocation)
+
+    print('%-28s %10s %10s %10s %10s' % ('model', 'size KB', 'accuracy', 'mean ms', 'p95 ms'))
+    results = {}
+    for model_file in (float_model, int8_model):
+        r = evaluate(model_file, test_data, test_labels)
+        results[model_file] = r
+        print('%-28s %10.1f %10.4f %10.3f %10.3f' % (path.basename(model_file),
+              r['size_kb'], r['accuracy'], r['mean_ms'], r['p95_ms']))
+
+    f, q = results[float_model], results[int8_model]
+    print('int8 vs float: %.2fx faster, %.2fx smaller, accuracy %+.4f'
+          % (f['mean_ms'] / q['mean_ms'], f['size_kb'] / q['size_kb'],
+             q['accuracy'] - f['accuracy']))
+
+
+if __name__ == '__main__':
+    main()
@@ -0,0 +1,52 @@
+# Python 3.6.0
+# tensorflow 1.13.1
+#
+# Converts the trained emotion CNN to TF Lite for the app's TfLiteClassifier.
+#
+# The graph is rebuilt for inference with keep_prob fixed to 1.0, so dropout
+# folds away and the model has a single input: [batch, 48*48] float32 pixels.
+# The result is written to out/em_convnet.tflite; copy it to
+# app/src/main/assets/ to ship it.
+
+import os.path as path
+import sys
+
+import tensorflow as tf
+
+from cnn import MODEL_NAME, build_model
+
+OUTPUT_FILE = 'out/em_convnet.tflite'
+
+
+def build_inference_graph():
+    x = tf.placeholder(tf.float32, shape=[1, 48*48], name='input')
+    # a constant 1.0 keep_prob makes tf.nn.dropout return its input unchanged
+    keep_prob = tf.constant(1.0, name='keep_prob')
+    y_ = tf.placeholder(tf.float32, shape=[None, 7])
+    build_model(x, keep_prob, y_, 'output')
+    return x, tf.get_default_graph().get_tensor_by_name('output:0')
+
+
+def convert(checkpoint, output_file):
+    with tf.Graph().as_default():
+        x, outputs = build_inference_graph()
+        saver = tf.train.Saver()
+        with tf.Session() as sess:
+            saver.restore(sess, checkpoint)
+            converter = tf.lite.TFLiteConverter.from_session(sess, [x], [outputs])
+            tflite_model = converter.convert()
+
+    with open(output_file, 'wb') as f:
+        f.write(tflite_model)
+    print('%s: %d bytes' % (output_file, len(tflite_model)))
+
+
+def main():
+    checkpoint = sys.argv[1] if len(sys.argv) > 1 else 'out/' + MODEL_NAME + '.chkp'
+    if not path.exists(checkpoint + '.index'):
+        sys.exit('checkpoint not found: ' + checkpoint)
+    convert(checkpoint, OUTPUT_FILE)
+
+
+if __name__ == '__main__':
+    main()
@@ -0,0 +1,84 @@
+# Python 3.6.0
+# tensorflow 1.13.1
+#
+# Writes the trained emotion CNN's weights to the flat file read by the app's
+# JavaCnnClassifier, the plain Java engine used on the JVM and as a fallback
+# when the TensorFlow native library doesn't load.
+#
+# Layout, little endian:
+#   b'EMCN', int32 version, int32 dtype (0 float32, 1 float16),
+#   int32 input size, int32 layer count,
+#   then per layer: int32 kind, int32 in channels, int32 out channels,
+#   int32 kernel size, the kernel as TF stores it ([kh, kw, in, out] for
+#   convolutions, [in, out] for dense layers), then the bias.
+#
+# float16 halves the file (the first dense layer alone is 14M weights) and is
+# the default; pass --float32 for an exact copy.  The result is written to
+# out/em_convnet.weights; copy it to app/src/main/assets/ to ship it.
+
+import struct
+import sys
+import os.path as path
+
+import numpy as np
+import tensorflow as tf
+
+from cnn import MODEL_NAME, model_input, build_model
+
+OUTPUT_FILE = 'out/em_convnet.weights'
+
+VERSION = 1
+DTYPE_FLOAT32 = 0
+DTYPE_FLOAT16 = 1
+
+CONV_RELU_POOL = 1
+DENSE_RELU = 2
+DENSE = 3
+
+# tf.layers scope names in build_model order, with the layer kind each one is
+LAYERS = [
+    ('conv2d', CONV_RELU_POOL),
+    ('conv2d_1', CONV_RELU_POOL),
+    ('conv2d_2', CONV_RELU_POOL),
+    ('dense', DENSE_RELU),
+    ('dense_1', DENSE),
+]
+
+
+def export(checkpoint, output_file, dtype):
+    with tf.Graph().as_default():
+        x, keep_prob, y_ = model_input('input', 'keep_prob')
+        build_model(x, keep_prob, y_, 'output')
+        saver = tf.train.Saver()
+        with tf.Session() as sess:
+            saver.restore(sess, checkpoint)
+            weights = [sess.run([scope + '/kernel:0', scope + '/bias:0'])
+                       for scope, _ in LAYERS]
+
+    np_dtype = '<f2' if dtype == DTYPE_FLOAT16 else '<f4'
+    with open(output_file, 'wb') as f:
+        f.write(b'EMCN')
+        f.write(struct.pack('<4i', VERSION, dtype, 48, len(LAYERS)))
+        for (scope, kind), (kernel, bias) in zip(LAYERS, weights):
+            if kernel.ndim == 4:
+                size, in_channels, out_channels = kernel.shape[0], kernel.shape[2], kernel.shape[3]
+            else:
+                size, (in_channels, out_channels) = 0, kernel.shape
+            f.write(struct.pack('<4i', kind, in_channels, out_channels, size))
+            f.write(kernel.astype(np_dtype).tobytes())
+            f.write(bias.astype(np_dtype).tobytes())
+            print('%s: %s' % (scope, kernel.shape))
+    print('%s: %d bytes' % (output_file, path.getsize(output_file)))
+
+
+def main():
+    args = [a for a in sys.argv[1:] if not a.startswith('--')]
+    dtype = DTYPE_FLOAT32 if '--float32' in sys.argv else DTYPE_FLOAT16
+    checkpoint = args[0] if args else 'out/' + MODEL_NAME + '.chkp'
+    if not path.exists(checkpoint + '.index'):
+        sys.exit('checkpoint not found: ' + checkpoint)
+    export(checkpoint, OUTPUT_FILE, dtype)
+
+
+if __name__ == '__main__':
+    main()
@@ -0,0 +1,66 @@
+# Python 3.6.0
+# tensorflow 1.15.0 (post-training integer quantization needs >= 1.15)
+#
+# Post-training int8 quantization of the emotion CNN.
+#
+# Weights and activations are quantized to int8, calibrated on a sample of
+# FER2013 training faces.  Input and output are uint8: the model was trained on
+# pixels / 255, so the calibrated input scale comes out as 1/255 and the app can
+# feed raw 0-255 luma bytes without converting them to floats first.
+#
+# The result is written to out/em_convnet_int8.tflite; copy it to
+# app/src/main/assets/ to ship it and start EmotionsActivity with the
+# "tflite_int8" backend.
+
+import os.path as path
+import sys
+
+import numpy as np
+import tensorflow as tf
+
+from cnn import MODEL_NAME, fileLocation
+from data_loader import get_face_data
+from export_tflite import build_inference_graph
+
+OUTPUT_FILE = 'out/em_convnet_int8.tflite'
+CALIBRATION_SAMPLES = 500
+
+
+def representative_dataset(faces):
+    def generator():
+        for face in faces:
+            yield [face.reshape(1, 48*48).astype(np.float32)]
+    return generator
+
+
+def quantize(checkpoint, calibration_faces, output_file):
+    with tf.Graph().as_default():
+        x, outputs = build_inference_graph()
+        saver = tf.train.Saver()
+        with tf.Session() as sess:
+            saver.restore(sess, checkpoint)
+            converter = tf.lite.TFLiteConverter.from_session(sess, [x], [outputs])
+            converter.optimizations = [tf.lite.Optimize.DEFAULT]
+            converter.representative_dataset = representative_dataset(calibration_faces)
+            converter.target_spec.supported_ops = [tf.lite.OpsSet.TFLITE_BUILTINS_INT8]
+            converter.inference_input_type = tf.uint8
+            converter.inference_output_type = tf.uint8
+            tflite_model = converter.convert()
+
+    with open(output_file, 'wb') as f:
+        f.write(tflite_model)
+    print('%s: %d bytes' % (output_file, len(tflite_model)))
+
+
+def main():
+    checkpoint = sys.argv[1] if len(sys.argv) > 1 else 'out/' + MODEL_NAME + '.chkp'
+    if not path.exists(checkpoint + '.index'):
+        sys.exit('checkpoint not found: ' + checkpoint)
+
+    # the training split, already shuffled and scaled to [0, 1] by the loader
+    train_data, _, _, _ = get_face_data(fileLocation)
+    quantize(checkpoint, train_data[:CALIBRATION_SAMPLES], OUTPUT_FILE)
+
+
+if __name__ == '__main__':
+    main()
@@ -19,3 +19,10 @@
 # If you keep the line number information, uncomment this to
 # hide the original source file name.
 #-renamesourcefileattribute SourceFile
+
+# TF Lite calls back into these from native code.
+-keep class org.tensorflow.lite.** { *; }
+
+# icam-core's JvmRuntimeStats is only used off the device, where these exist.
+-dontwarn java.lang.management.**
+-dontwarn com.sun.management.**
@@ -10,6 +10,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.os.Process;
 import android.util.Log;
 import android.view.View;
 import android.widget.ImageButton;
@@ -22,6 +23,7 @@ import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 import com.google.android.gms.vision.CameraSource;
 import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
 import com.google.android.gms.vision.MultiProcessor;
 import com.google.android.gms.vision.Tracker;
 import com.google.android.gms.vision.face.Face;
@@ -29,12 +31,21 @@ import com.google.android.gms.vision.face.FaceDetector;
 import com.google.android.material.snackbar.Snackbar;
 import com.icam.customUI.CameraSourcePreview;
 import com.icam.customUI.GraphicOverlay;
+import com.icam.customUI.PerfHudGraphic;
 import com.icam.helpers.EmotionDetector;
 import com.icam.helpers.EmotionTracker;
 import com.icam.helpers.FaceTracker;
-import com.icam.helpers.TensorFlowClassifier;
+import com.icam.interfaces.Classifier;
 import com.icam.models.FaceEmotions;
-
+import com.icam.perf.FrameTrace;
+import com.icam.perf.PerfRegistry;
+import com.icam.pipeline.DetectStage;
+import com.icam.pipeline.FrameDetections;
+import com.icam.pipeline.Pipeline;
+import com.icam.pipeline.PipelineDetector;
+import com.icam.pipeline.TrackStage;
+
+import java.io.File;
 import java.io.IOException;
 
 public abstract class BaseActivity extends AppCompatActivity {
@@ -42,7 +53,7 @@ public abstract class BaseActivity extends AppCompatActivity {
     protected static final int EMOTION_VIEW = 1;
     protected static final int ART_VIEW = 2;
     protected int viewType = ART_VIEW;
-    protected TensorFlowClassifier classifier;
+    protected Classifier classifier;
     protected ImageButton emrButton;
     protected ImageButton artButton;
 
@@ -51,15 +62,46 @@ public abstract class BaseActivity extends AppCompatActivity {
     // permission request codes need to be < 256
     private static final int RC_HANDLE_CAMERA_PERM = 255;
 
+    // Pipeline stage names, for the stats
+    private static final String STAGE_DETECT = "detect";
+    private static final String STAGE_EMOTIONS = "emotions";
+    private static final String STAGE_TRACK = "track";
+
+    // In the app's files, pulled with: adb exec-out run-as com.icam cat files/frames.trace
+    private static final String FRAME_TRACE_FILE = "frames.trace";
+
     private CameraSource mCameraSource = null;
+    private Pipeline<Frame, ?> mPipeline;
+    private EmotionDetector mEmotionDetector;
     private CameraSourcePreview mPreview;
     private GraphicOverlay mGraphicOverlay;
     private boolean mIsFrontFacing = true;
+    // Long pressing the overlay shows or hides the performance HUD, on both screens.
+    private static boolean sShowHud;
+    private PerfHudGraphic mHud;
 
     protected void setViewType(int type){
         viewType = type;
     }
 
+    /**
+     * The emotion pipeline's detector, or null on the art screen and before the camera starts.
+     */
+    protected EmotionDetector getEmotionDetector() {
+        return mEmotionDetector;
+    }
+
+    /**
+     * Switch emotion output on, or off again with null.  Until this is called the camera runs
+     * with face tracking only.
+     */
+    protected void setClassifier(Classifier classifier){
+        this.classifier = classifier;
+        if (mEmotionDetector != null) {
+            mEmotionDetector.setClassifier(classifier);
+        }
+    }
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -76,6 +118,11 @@ public abstract class BaseActivity extends AppCompatActivity {
         mGraphicOverlay = findViewById(R.id.faceOverlay);
         final ImageButton button = findViewById(R.id.flipButton);
         button.setOnClickListener(mSwitchCameraButtonListener);
+        mHud = new PerfHudGraphic(mGraphicOverlay, getResources(), PerfRegistry.getDefault(),
+                STAGE_DETECT, STAGE_EMOTIONS, EmotionDetector.STAGE_CROP,
+                EmotionDetector.STAGE_INFER, PerfRegistry.LATENCY_INFERENCE, STAGE_TRACK,
+                PerfRegistry.LATENCY_TRACKER, PerfRegistry.LATENCY_DRAW);
+        mGraphicOverlay.setOnLongClickListener(mToggleHudListener);
 
         if (savedInstanceState != null) {
             mIsFrontFacing = savedInstanceState.getBoolean("IsFrontFacing");
@@ -106,6 +153,7 @@ public abstract class BaseActivity extends AppCompatActivity {
         super.onPause();
 
         mPreview.stop();
+        dumpFrameTrace();
     }
 
     @Override
@@ -121,6 +169,23 @@ public abstract class BaseActivity extends AppCompatActivity {
         if (mCameraSource != null) {
             mCameraSource.release();
         }
+        if (mPipeline != null) {
+            Log.i(TAG, "Pipeline: " + mPipeline);
+        }
+        Log.i(TAG, "Performance: " + PerfRegistry.getDefault().snapshot());
+        if (mEmotionDetector != null) {
+            Log.i(TAG, "Emotion inference: " + mEmotionDetector.getInferencePipeline());
+            Log.i(TAG, "Face snapshots: " + mEmotionDetector.getSnapshotPool());
+            Log.i(TAG, "Emotion fingerprint cache: " + mEmotionDetector.getFingerprintCache());
+            Log.i(TAG, "Emotion cascade: " + mEmotionDetector.getCascade());
+            Log.i(TAG, "Emotion quality gate: " + mEmotionDetector.getQualityGate());
+            Log.i(TAG, "Emotion scheduler: " + mEmotionDetector.getScheduler());
+            Log.i(TAG, "Stale emotion results dropped: " + mEmotionDetector.getStaleResultCount());
+            Log.i(TAG, "Frames dropped before detection: " + mEmotionDetector.getDroppedFrameCount()
+                    + ", before inference: " + mEmotionDetector.getDroppedInferenceCount()
+                    + ", faces still busy: " + mEmotionDetector.getBusyFaceCount()
+                    + ", faces without room: " + mEmotionDetector.getUntrackedFaceCount());
+        }
     }
 
     private View.OnClickListener mSwitchCameraButtonListener = new View.OnClickListener() {
@@ -137,6 +202,19 @@ public abstract class BaseActivity extends AppCompatActivity {
         }
     };
 
+    private View.OnLongClickListener mToggleHudListener = new View.OnLongClickListener() {
+        @Override
+        public boolean onLongClick(View v) {
+            sShowHud = !sShowHud;
+            if (sShowHud) {
+                mGraphicOverlay.add(mHud);
+            } else {
+                mGraphicOverlay.remove(mHud);
+            }
+            return true;
+        }
+    };
+
     // Handle camera permission requests
     // =================================
 
@@ -209,6 +287,10 @@ public abstract class BaseActivity extends AppCompatActivity {
         if (mCameraSource != null) {
             try {
                 mPreview.start(mCameraSource, mGraphicOverlay);
+                // starting the preview clears the overlay
+                if (sShowHud) {
+                    mGraphicOverlay.add(mHud);
+                }
             } catch (IOException e) {
                 Log.e(TAG, "Unable to start camera source.", e);
                 mCameraSource.release();
@@ -217,6 +299,26 @@ public abstract class BaseActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Write what happened to the last frames to files/frames.trace, so that lag can be looked
+     * into after the fact.  Every pause overwrites it.
+     */
+    private void dumpFrameTrace() {
+        final File file = new File(getFilesDir(), FRAME_TRACE_FILE);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    FrameTrace.getDefault().dump(file);
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not write the frame trace", e);
+                }
+            }
+        }, "FrameTraceDump");
+        thread.start();
+    }
+
     // Face detector
     // =============
     /**
@@ -235,16 +337,6 @@ public abstract class BaseActivity extends AppCompatActivity {
                 .setMinFaceSize(mIsFrontFacing ? 0.35f : 0.15f)
                 .build();
 
-        MultiProcessor.Factory<Face> factory = new MultiProcessor.Factory<Face>() {
-            @Override
-            public Tracker<Face> create(Face face) {
-                return new FaceTracker(mGraphicOverlay, context, mIsFrontFacing);
-            }
-        };
-
-        Detector.Processor<Face> processor = new MultiProcessor.Builder<>(factory).build();
-        detector.setProcessor(processor);
-
         if (!detector.isOperational()) {
             Log.w(TAG, "Face detector dependencies are not yet available.");
 
@@ -272,60 +364,53 @@ public abstract class BaseActivity extends AppCompatActivity {
         return detector;
     }
 
-    // Emotion detector
-    // =============
+    // Pipelines
+    // =========
     /**
-     * Create the emotion detector, and check if it's ready for use.
+     * Face detection, which both screens start with.  It reads the frame's pixels, so it runs on
+     * the camera thread.
      */
-    @NonNull
-    private EmotionDetector createEmotionDetector(final Context context) {
-        Log.d(TAG, "createFaceDetector called.");
+    private Pipeline<Frame, FrameDetections<Face>> createDetectPipeline(FaceDetector detector) {
+        return Pipeline.of(STAGE_DETECT, new DetectStage<>(detector), 0, 0);
+    }
 
-        FaceDetector detector = new FaceDetector.Builder(context)
-                .setLandmarkType(FaceDetector.ALL_LANDMARKS)
-                .setClassificationType(FaceDetector.ALL_CLASSIFICATIONS)
-                .setTrackingEnabled(true)
-                .setMode(FaceDetector.FAST_MODE)
-                .setProminentFaceOnly(mIsFrontFacing)
-                .setMinFaceSize(mIsFrontFacing ? 0.35f : 0.15f)
-                .build();
-        EmotionDetector emotionDetector = new EmotionDetector(context, detector, classifier);
+    /**
+     * Art: detect faces and draw on them.
+     */
+    private Pipeline<Frame, ?> createArtPipeline(final Context context, FaceDetector detector) {
+        MultiProcessor.Factory<Face> factory = new MultiProcessor.Factory<Face>() {
+            @Override
+            public Tracker<Face> create(Face face) {
+                return new FaceTracker(mGraphicOverlay, context, mIsFrontFacing);
+            }
+        };
+        Detector.Processor<Face> processor = new MultiProcessor.Builder<>(factory).build();
+
+        return createDetectPipeline(detector)
+                .then(STAGE_TRACK, new TrackStage<>(processor, detector.isOperational()), 0, 0);
+    }
+
+    /**
+     * Emotions: detect faces, look up their emotions and start classifications, which run on the
+     * emotion detector's own crop and infer stages, and draw the faces with what they have so far.
+     * Detecting the next frame overlaps with classifying this one.
+     */
+    private Pipeline<Frame, ?> createEmotionPipeline(final Context context, FaceDetector detector) {
+        final EmotionDetector emotionDetector = new EmotionDetector(context, classifier);
+        mEmotionDetector = emotionDetector;
 
         MultiProcessor.Factory<FaceEmotions> factory = new MultiProcessor.Factory<FaceEmotions>() {
             @Override
             public Tracker<FaceEmotions> create(FaceEmotions obj) {
-                return new EmotionTracker(mGraphicOverlay, context, mIsFrontFacing);
+                return new EmotionTracker(mGraphicOverlay, context, mIsFrontFacing,
+                        emotionDetector);
             }
         };
-
         Detector.Processor<FaceEmotions> processor = new MultiProcessor.Builder<>(factory).build();
-        emotionDetector.setProcessor(processor);
-
-        if (!detector.isOperational()) {
-            Log.w(TAG, "Face detector dependencies are not yet available.");
 
-            // Check the device's storage.  If there's little available storage, the native
-            // face detection library will not be downloaded, and the app won't work,
-            // so notify the user.
-            IntentFilter lowStorageFilter = new IntentFilter(Intent.ACTION_DEVICE_STORAGE_LOW);
-            boolean hasLowStorage = registerReceiver(null, lowStorageFilter) != null;
-
-            if (hasLowStorage) {
-                Log.w(TAG, getString(R.string.low_storage_error));
-                DialogInterface.OnClickListener listener = new DialogInterface.OnClickListener() {
-                    public void onClick(DialogInterface dialog, int id) {
-                        finish();
-                    }
-                };
-                AlertDialog.Builder builder = new AlertDialog.Builder(this);
-                builder.setTitle(R.string.app_name)
-                        .setMessage(R.string.low_storage_error)
-                        .setPositiveButton(R.string.close, listener)
-                        .show();
-            }
-            Log.e(TAG, "dependencies are not yet available");
-        }
-        return emotionDetector;
+        return createDetectPipeline(detector)
+                .then(STAGE_EMOTIONS, emotionDetector, 0, 0)
+                .then(STAGE_TRACK, new TrackStage<>(processor, detector.isOperational()), 0, 0);
     }
 
     // Camera source
@@ -335,11 +420,15 @@ public abstract class BaseActivity extends AppCompatActivity {
 
         // 1
         Context context = getApplicationContext();
-        Detector detector;
+        FaceDetector faceDetector = createFaceDetector(context);
+        Pipeline<Frame, ?> pipeline;
         if (viewType == ART_VIEW)
-            detector = createFaceDetector(context);
+            pipeline = createArtPipeline(context, faceDetector);
         else
-            detector = createEmotionDetector(context);
+            pipeline = createEmotionPipeline(context, faceDetector);
+        mPipeline = pipeline;
+        // Releasing the camera shuts the pipeline down.
+        Detector<?> detector = new PipelineDetector(pipeline, faceDetector.isOperational());
 
         // 2
         int facing = CameraSource.CAMERA_FACING_FRONT;
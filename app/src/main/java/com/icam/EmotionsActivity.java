@@ -6,31 +6,48 @@ import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
 
-import com.icam.helpers.TensorFlowClassifier;
+import com.icam.helpers.EmotionDetector;
+import com.icam.helpers.ModelRegistry;
+import com.icam.interfaces.Classifier;
+import com.icam.interfaces.OnClassifierReadyListener;
 
 public class EmotionsActivity extends BaseActivity {
 
     private static final String TAG = EmotionsActivity.class.getSimpleName();
-    private static final int PIXEL_WIDTH = 48;
+
+    // Inference backends, pick one with the EXTRA_BACKEND intent extra.
+    public static final String EXTRA_BACKEND = "backend";
+    public static final String BACKEND_TENSORFLOW = ModelRegistry.BACKEND_TENSORFLOW;
+    public static final String BACKEND_TFLITE = ModelRegistry.BACKEND_TFLITE;
+    public static final String BACKEND_TFLITE_INT8 = ModelRegistry.BACKEND_TFLITE_INT8;
+    public static final String BACKEND_JAVA = ModelRegistry.BACKEND_JAVA;
+
+    private String mBackend;
+    private ModelRegistry mModelRegistry;
 
     public static void start(Context context){
+        start(context, BACKEND_TENSORFLOW);
+    }
+
+    public static void start(Context context, String backend){
         Intent intent = new Intent(context, EmotionsActivity.class);
+        intent.putExtra(EXTRA_BACKEND, backend);
         context.startActivity(intent);
     }
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         setViewType(EMOTION_VIEW);
-        try {
-            classifier=TensorFlowClassifier.create(getAssets(), "CNN",
-                    "opt_em_convnet_5000.pb", "labels.txt", PIXEL_WIDTH,
-                    "input", "output_50", true, 7);
-
-        } catch (final Exception e) {
-            //if they aren't found, throw an error!
-            throw new RuntimeException("Error initializing classifiers!", e);
+        mBackend = getIntent().getStringExtra(EXTRA_BACKEND);
+        if (mBackend == null) {
+            mBackend = BACKEND_TENSORFLOW;
         }
+        Log.i(TAG, "Using the " + mBackend + " backend");
+        // The camera comes up right away, emotions follow once the model is loaded.
         super.onCreate(savedInstanceState);
+        // Shared with the rest of the process, so coming back here reuses the loaded model.
+        mModelRegistry = ((ICamApplication) getApplication()).getModelRegistry();
+        mModelRegistry.acquire(mBackend, mClassifierReadyListener);
         artButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
@@ -41,6 +58,19 @@ public class EmotionsActivity extends BaseActivity {
         artButton.setVisibility(View.VISIBLE);
     }
 
+    private OnClassifierReadyListener mClassifierReadyListener = new OnClassifierReadyListener() {
+        @Override
+        public void onClassifierReady(Classifier classifier) {
+            Log.i(TAG, classifier.name() + " ready");
+            setClassifier(classifier);
+        }
+
+        @Override
+        public void onClassifierFailed(Exception error) {
+            Log.e(TAG, "Error initializing classifiers!", error);
+        }
+    };
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -59,6 +89,29 @@ public class EmotionsActivity extends BaseActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        // The pipeline is shut down by now, but an inference worker may still be in the middle
+        // of a batch.  Only let go of the model once they are done, so it is never closed under
+        // them.
+        final EmotionDetector detector = getEmotionDetector();
+        final ModelRegistry registry = mModelRegistry;
+        final String backend = mBackend;
+        final OnClassifierReadyListener listener = mClassifierReadyListener;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (detector != null) {
+                        detector.awaitTermination();
+                    }
+                } catch (InterruptedException e) {
+                    // still holding the model beats closing it under a worker
+                    Log.w(TAG, "Interrupted waiting for inference to stop, keeping " + backend);
+                    return;
+                }
+                registry.release(backend, listener);
+            }
+        }, "model-release");
+        thread.start();
     }
 
 }
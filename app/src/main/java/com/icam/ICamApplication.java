@@ -0,0 +1,34 @@
+package com.icam;
+
+import android.app.Application;
+
+import com.icam.helpers.ModelRegistry;
+import com.icam.perf.AndroidRuntimeStats;
+import com.icam.perf.PerfRegistry;
+
+public class ICamApplication extends Application {
+
+    private ModelRegistry mModelRegistry;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if (BuildConfig.DEBUG) {
+            // Shows up in the performance HUD and the log, and slows every allocation down.
+            PerfRegistry.getDefault().setRuntimeStats(new AndroidRuntimeStats());
+        }
+        // Start on the default model right away, so it is warm by the time emotions are shown.
+        mModelRegistry = new ModelRegistry(this);
+        mModelRegistry.preload(ModelRegistry.BACKEND_TENSORFLOW);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        mModelRegistry.onTrimMemory(level);
+    }
+
+    public ModelRegistry getModelRegistry() {
+        return mModelRegistry;
+    }
+}
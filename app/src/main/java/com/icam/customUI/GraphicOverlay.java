@@ -22,6 +22,11 @@ import android.util.AttributeSet;
 import android.view.View;
 
 import com.google.android.gms.vision.CameraSource;
+import com.icam.perf.AllocationWindow;
+import com.icam.perf.FrameTrace;
+import com.icam.perf.LatencyHistogram;
+import com.icam.perf.PerfRegistry;
+import com.icam.perf.RuntimeStats;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -55,6 +60,11 @@ public class GraphicOverlay extends View {
     private float mHeightScaleFactor = 1.0f;
     private int mFacing = CameraSource.CAMERA_FACING_BACK;
     private Set<Graphic> mGraphics = new HashSet<>();
+    private final LatencyHistogram mDrawLatency =
+            PerfRegistry.getDefault().latency(PerfRegistry.LATENCY_DRAW);
+    private final AllocationWindow mDrawAllocations =
+            PerfRegistry.getDefault().allocations(PerfRegistry.LATENCY_DRAW);
+    private final FrameTrace mTrace = FrameTrace.getDefault();
 
     /**
      * Base class for a custom graphics object to be rendered within the graphic overlay.  Subclass
@@ -122,6 +132,10 @@ public class GraphicOverlay extends View {
             mOverlay.postInvalidate();
         }
 
+        public void postInvalidateDelayed(long delayMilliseconds) {
+            mOverlay.postInvalidateDelayed(delayMilliseconds);
+        }
+
     }
 
     public GraphicOverlay(Context context, AttributeSet attrs) {
@@ -178,6 +192,9 @@ public class GraphicOverlay extends View {
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
+        RuntimeStats stats = PerfRegistry.getDefault().getRuntimeStats();
+        long allocated = stats.getThreadAllocatedBytes();
+        long start = System.nanoTime();
         synchronized (mLock) {
             if ((mPreviewWidth != 0) && (mPreviewHeight != 0)) {
                 mWidthScaleFactor = (float) canvas.getWidth() / (float) mPreviewWidth;
@@ -188,6 +205,12 @@ public class GraphicOverlay extends View {
                 graphic.draw(canvas);
             }
         }
+        long elapsed = System.nanoTime() - start;
+        mDrawLatency.record(elapsed);
+        mTrace.draw(start, elapsed);
+        if (allocated >= 0) {
+            mDrawAllocations.record(stats.getThreadAllocatedBytes() - allocated);
+        }
     }
 
 }
@@ -0,0 +1,143 @@
+package com.icam.customUI;
+
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.SystemClock;
+
+import com.icam.R;
+import com.icam.perf.AllocationWindow;
+import com.icam.perf.LatencyHistogram;
+import com.icam.perf.PerfRegistry;
+import com.icam.perf.PerfSnapshot;
+
+/**
+ * Shows where the time goes, in the top left corner of the overlay: p50, p95 and p99 of each
+ * stage and probe over the last half second, the camera frame rate and faces classified per
+ * second.  When allocations are counted, it also shows the kilobytes each stage allocated per
+ * item, what the pipeline allocated per camera frame and drawing per redraw, and the garbage
+ * collections since the app started.<p>
+ *
+ * The numbers are only worked out when they are due, so drawing the HUD between refreshes costs a
+ * few drawText calls.  It keeps the overlay redrawing at the refresh rate even while no face is
+ * tracked, so the numbers don't freeze.
+ */
+public class PerfHudGraphic extends GraphicOverlay.Graphic {
+
+    private static final long REFRESH_MS = 500;
+
+    private final PerfRegistry mRegistry;
+    private final String[] mLatencyNames;
+    private final Paint mTextPaint;
+    private final Paint mBackgroundPaint;
+    private final float mPadding;
+
+    private PerfSnapshot mLastSnapshot;
+    private long mLastRefreshMs;
+    private long mNextInvalidateMs;
+    private String[] mLines = new String[0];
+
+    /**
+     * @param latencyNames the histograms to show, top to bottom; ones with nothing recorded since
+     *                     the last refresh are left out
+     */
+    public PerfHudGraphic(GraphicOverlay overlay, Resources resources, PerfRegistry registry,
+                          String... latencyNames) {
+        super(overlay);
+        mRegistry = registry;
+        mLatencyNames = latencyNames;
+        mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mTextPaint.setColor(resources.getColor(R.color.hudText));
+        mTextPaint.setTextSize(resources.getDimension(R.dimen.hudTextSize));
+        mTextPaint.setTypeface(Typeface.MONOSPACE);
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setColor(resources.getColor(R.color.hudBackground));
+        mBackgroundPaint.setStyle(Paint.Style.FILL);
+        mPadding = resources.getDimension(R.dimen.hudPadding);
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        long now = SystemClock.uptimeMillis();
+        if (mLastSnapshot == null || now - mLastRefreshMs >= REFRESH_MS) {
+            refresh();
+            mLastRefreshMs = now;
+        }
+
+        float lineHeight = mTextPaint.getFontSpacing();
+        float width = 0;
+        for (String line : mLines) {
+            width = Math.max(width, mTextPaint.measureText(line));
+        }
+        canvas.drawRect(0, 0, width + 2 * mPadding, mLines.length * lineHeight + 2 * mPadding,
+                mBackgroundPaint);
+        float y = mPadding - mTextPaint.ascent();
+        for (String line : mLines) {
+            canvas.drawText(line, mPadding, y, mTextPaint);
+            y += lineHeight;
+        }
+
+        // One pending redraw at a time, or every tracker update would queue another one.
+        if (now >= mNextInvalidateMs) {
+            mNextInvalidateMs = now + REFRESH_MS;
+            postInvalidateDelayed(REFRESH_MS);
+        }
+    }
+
+    private void refresh() {
+        PerfSnapshot snapshot = mRegistry.snapshot();
+        PerfSnapshot recent = mLastSnapshot == null ? snapshot : snapshot.since(mLastSnapshot);
+        mLastSnapshot = snapshot;
+
+        // Every window but drawing's belongs to a pipeline stage.
+        long pipelineBytes = 0;
+        boolean counted = false;
+        for (String name : recent.getAllocationNames()) {
+            AllocationWindow.Snapshot allocations = recent.getAllocations(name);
+            counted |= allocations.getCount() > 0;
+            if (!name.equals(PerfRegistry.LATENCY_DRAW)) {
+                pipelineBytes += allocations.getTotalBytes();
+            }
+        }
+
+        String[] lines = new String[mLatencyNames.length + 4];
+        int count = 0;
+        lines[count++] = counted ? "stage       p50   p95   p99 ms    KB"
+                : "stage       p50   p95   p99 ms";
+        for (String name : mLatencyNames) {
+            LatencyHistogram.Snapshot latency = recent.getLatency(name);
+            if (latency == null || latency.getCount() == 0) {
+                continue;
+            }
+            String line = String.format("%-9s %5.1f %5.1f %5.1f", name,
+                    latency.getPercentileMs(0.5), latency.getPercentileMs(0.95),
+                    latency.getPercentileMs(0.99));
+            AllocationWindow.Snapshot allocations = recent.getAllocations(name);
+            if (counted && allocations != null && allocations.getCount() > 0) {
+                line += String.format(" %8.1f", allocations.getBytesPerItem() / 1024);
+            }
+            lines[count++] = line;
+        }
+        lines[count++] = String.format("%.1f fps, %.1f inferences/s",
+                recent.getRate(PerfRegistry.COUNT_FRAMES),
+                recent.getRate(PerfRegistry.COUNT_INFERENCES));
+        if (counted) {
+            long frames = recent.getCount(PerfRegistry.COUNT_FRAMES);
+            AllocationWindow.Snapshot draw = recent.getAllocations(PerfRegistry.LATENCY_DRAW);
+            lines[count++] = String.format("%.1f KB/frame, %.1f KB/draw",
+                    frames == 0 ? 0 : pipelineBytes / 1024.0f / frames,
+                    draw == null ? 0 : draw.getBytesPerItem() / 1024);
+        }
+        if (snapshot.getGcCount() >= 0) {
+            lines[count++] = snapshot.getBlockingGcTimeMs() >= 0
+                    ? String.format("gc %d, %d ms, %d ms blocking", snapshot.getGcCount(),
+                            snapshot.getGcTimeMs(), snapshot.getBlockingGcTimeMs())
+                    : String.format("gc %d, %d ms", snapshot.getGcCount(),
+                            snapshot.getGcTimeMs());
+        }
+        String[] trimmed = new String[count];
+        System.arraycopy(lines, 0, trimmed, 0, count);
+        mLines = trimmed;
+    }
+}
@@ -0,0 +1,74 @@
+package com.icam.helpers;
+
+import com.google.android.gms.vision.face.Face;
+import com.icam.interfaces.LandmarkClassifier;
+import com.icam.models.Classification;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The cheap first tier in front of the CNN: a {@link LandmarkClassifier} looks at every face, and
+ * only faces it isn't sure about go on to be cropped and classified from their pixels.<p>
+ *
+ * A landmark result stands when its confidence reaches the threshold.  The faces answered this
+ * way are counted against the ones passed on.  That share is not the inferences saved: most faces
+ * passed on are then skipped by the fingerprint cache or the scheduler and never reach the CNN
+ * either.
+ * Safe to use from one thread at a time; the counters may be read from any thread.
+ */
+public class EmotionCascade {
+
+    public static final float DEFAULT_THRESHOLD = 0.8f;
+
+    private final LandmarkClassifier mClassifier;
+    private final float mThreshold;
+
+    private final AtomicLong mAnswered = new AtomicLong();
+    private final AtomicLong mPassedOn = new AtomicLong();
+
+    public EmotionCascade() {
+        this(new GeometricEmotionClassifier(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param threshold confidence from which the landmark result is taken over and the CNN skipped
+     */
+    public EmotionCascade(LandmarkClassifier classifier, float threshold) {
+        mClassifier = classifier;
+        mThreshold = threshold;
+    }
+
+    /**
+     * Classify the face from its landmarks.
+     *
+     * @return true if the result is confident enough to stand, false if the face needs the CNN
+     */
+    public boolean tryAnswer(Face face, Classification result) {
+        mClassifier.recognize(face, result);
+        if (result.getEmotion() != null && result.getConf() >= mThreshold) {
+            mAnswered.incrementAndGet();
+            return true;
+        }
+        mPassedOn.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Faces the landmark tier answered, on every frame it was asked.
+     */
+    public long getAnsweredCount() {
+        return mAnswered.get();
+    }
+
+    public long getPassedOnCount() {
+        return mPassedOn.get();
+    }
+
+    @Override
+    public String toString() {
+        long answered = getAnsweredCount();
+        long total = answered + getPassedOnCount();
+        return mClassifier.name() + " answered " + answered + " of " + total + " faces"
+                + (total == 0 ? "" : " (" + (100 * answered / total) + "% answered by landmarks)");
+    }
+}
@@ -1,144 +1,616 @@
 package com.icam.helpers;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
-import android.os.AsyncTask;
-import android.util.Log;
+import android.graphics.PointF;
 import android.util.SparseArray;
 
-import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.Frame;
 import com.google.android.gms.vision.face.Face;
+import com.google.android.gms.vision.face.Landmark;
+import com.icam.interfaces.Classifier;
+import com.icam.interfaces.Uint8Classifier;
 import com.icam.models.Classification;
+import com.icam.models.Emotion;
 import com.icam.models.FaceEmotions;
+import com.icam.perf.FrameTrace;
+import com.icam.perf.LatencyHistogram;
+import com.icam.perf.PerfRegistry;
+import com.icam.pipeline.FrameDetections;
+import com.icam.pipeline.Pipeline;
+import com.icam.pipeline.RegionSnapshot;
+import com.icam.pipeline.Releasable;
+import com.icam.pipeline.SnapshotPool;
+import com.icam.pipeline.Stage;
+import com.icam.pipeline.StageRunner;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class EmotionDetector extends Detector<FaceEmotions> {
+/**
+ * The emotion stage of the camera pipeline: keeps an emotion per tracked face and, for the faces
+ * picked each frame, starts a classification in the background.<p>
+ *
+ * On the camera thread, every detected face is matched with its {@link FaceEmotions}, and first
+ * judged from its landmarks; when that is confident the result stands and the face skips the CNN.
+ * Of the rest, the scheduler picks which to classify.  The part of the frame each of those will be cropped from is
+ * copied into a pooled snapshot right away, because the camera reuses the frame's buffer as soon
+ * as the detector returns.  Then they go down a pipeline of their own: a crop stage that cuts,
+ * checks and normalizes the faces into a batch, and an infer stage that runs the model and
+ * publishes the results.  The crop stage's queue decides what happens under overload; see
+ * {@link #BACKPRESSURE_LATEST}.
+ */
+public class EmotionDetector implements Stage<FrameDetections<Face>, FrameDetections<FaceEmotions>>,
+        Releasable {
 
     private static final String TAG = EmotionDetector.class.getSimpleName();
-    private Detector<Face> mDelegate;
-    private TensorFlowClassifier mClassifier;
-    private Map<Integer, FaceEmotions> emotionsMap = new HashMap<>();
+    private static final int PIXEL_WIDTH = 48;
+    private static final int PIXEL_COUNT = PIXEL_WIDTH * PIXEL_WIDTH;
+    // Float models take luma / 255, as ML/data_loader.py scales the faces they are trained on.
+    private static final float INPUT_SCALE = 1.0f / 255;
+    // Most faces classified from one frame, in one session call.
+    private static final int MAX_BATCH = 8;
+    private static final int PRUNE_INTERVAL_FRAMES = 30;
+    // Eye landmarks closer than this, as a fraction of the face width, are not trusted.
+    private static final float MIN_EYE_DISTANCE = 0.15f;
+    // Faces not seen for this long are dropped even if their tracker never said so.
+    private static final long EMOTION_TTL_MS = 5000;
+    // Batches kept for reuse; more are only in use when stages are backed up.
+    private static final int BATCH_POOL_SIZE = 4;
+
+    // Backpressure modes: only the latest frame's faces wait to be cropped...
+    public static final int BACKPRESSURE_LATEST = 0;
+    // ...or a few frames queue up, and the oldest is dropped when the queue is full.
+    public static final int BACKPRESSURE_QUEUE = 1;
+    private static final int QUEUE_CAPACITY = 4;
+
+    public static final String STAGE_CROP = "crop";
+    public static final String STAGE_INFER = "infer";
+
+    // Null until the model has loaded; faces are tracked without emotions until then.
+    private volatile Classifier mClassifier;
+    // Written by the infer stage, read on the camera thread and by the trackers, emptied as faces go away.
+    private final TrackStore<FaceEmotions> mEmotions = new TrackStore<>();
+    private final AtomicLong mStaleResults = new AtomicLong();
+    private long mSweepBefore;
+    private final TrackStore.Evictor<FaceEmotions> mIdleEvictor = new TrackStore.Evictor<FaceEmotions>() {
+        @Override
+        public boolean shouldEvict(int id, FaceEmotions emotions) {
+            // a face with an inference under way keeps its entry, and with it the claim
+            return emotions.getLastSeen() < mSweepBefore && !emotions.isInferenceInFlight();
+        }
+    };
     private Context mContext;
+    // crop, then infer
+    private final Pipeline<FaceBatch, Void> mInference;
+    private final ArrayBlockingQueue<FaceBatch> mBatchPool = new ArrayBlockingQueue<>(BATCH_POOL_SIZE);
+    // The face regions the crop stage reads, copied on the camera thread.
+    private final SnapshotPool mSnapshots = new SnapshotPool();
+    // Camera frames that never reached the detector because it was still busy with an earlier one.
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    // Faces left out of a frame's inference because they were still being classified.
+    private final AtomicLong mBusyFaces = new AtomicLong();
+    // Faces left out of a frame because the store had no room for them.
+    private final AtomicLong mUntrackedFaces = new AtomicLong();
+    // Kept from an insert that failed, so a face without room doesn't allocate one every frame.
+    private FaceEmotions mSpareEmotions;
+    private long mLastFrameId = -1;
+    // Classifier calls, and the faces they classified, for the performance HUD.
+    private final LatencyHistogram mInferenceLatency =
+            PerfRegistry.getDefault().latency(PerfRegistry.LATENCY_INFERENCE);
+    private final AtomicLong mInferences =
+            PerfRegistry.getDefault().counter(PerfRegistry.COUNT_INFERENCES);
+    private final FrameTrace mTrace = FrameTrace.getDefault();
+    // Faces that look the same as when they were last classified keep their emotion.
+    private final CropFingerprintCache mFingerprints;
+    // Faces the model can't read well keep their emotion too.
+    private final CropQualityGate mQualityGate;
+    // Faces with a clear expression are answered from their landmarks alone.
+    private final EmotionCascade mCascade;
+    private final Classification mLandmarkResult = new Classification();
+    private int mFrameCount;
+    // How the crops' lighting is evened out before they go to the model.  The shipped models
+    // were trained on unequalized FER2013 faces, so they get the crops as they are.
+    private volatile int mNormalization = LumaNormalizer.NONE;
+    // Picks which faces of a frame to classify; the rest wait for a later frame.
+    private final FaceScheduler mScheduler;
+    // Scratch for the scheduler, only touched on the camera thread.
+    private Face[] mFrameFaces = new Face[MAX_BATCH];
+    private float[] mConfidences = new float[MAX_BATCH];
+    private Face[] mSelected = new Face[MAX_BATCH];
+    // Works out which part of the frame to snapshot, only used on the camera thread.
+    private final FaceCropper mBoundsCropper = new FaceCropper(PIXEL_WIDTH);
+    private final PointF[] mEyes = new PointF[2];
+    private final int[] mBounds = new int[4];
+
+    // Every crop worker gets its own cropper and normalizer, created once per thread.
+    private final ThreadLocal<WorkerState> mWorkerState = new ThreadLocal<WorkerState>() {
+        @Override
+        protected WorkerState initialValue() {
+            return new WorkerState();
+        }
+    };
+
+    private static class WorkerState {
+        final FaceCropper cropper = new FaceCropper(PIXEL_WIDTH);
+        final PointF[] eyes = new PointF[2];
+        LumaNormalizer normalizer;
+        // the levels of the last crop, counted by the cropper for GLOBAL equalization
+        final int[] histogram = new int[256];
+    }
+
+    /**
+     * The faces of one frame on their way through the crop and infer stages, with the buffers
+     * they are cropped into.  Pooled; the faces' claims and the buffers are given back on release.
+     */
+    private class FaceBatch implements Releasable {
+        final float[] batch = new float[MAX_BATCH * PIXEL_COUNT];
+        final byte[] lumaBatch = new byte[MAX_BATCH * PIXEL_COUNT];
+        final Face[] faces = new Face[MAX_BATCH];
+        final Classification[] results = new Classification[MAX_BATCH];
+        // the faces' fingerprints, committed to the cache once their results are in
+        final byte[][] signatures = new byte[MAX_BATCH][CropFingerprintCache.SIGNATURE_LENGTH];
+        // the faces selected on the camera thread, claimed so nobody else classifies them, and
+        // the parts of the frame they are cropped from
+        final Face[] selected = new Face[MAX_BATCH];
+        final FaceEmotions[] claimed = new FaceEmotions[MAX_BATCH];
+        final RegionSnapshot[] snapshots = new RegionSnapshot[MAX_BATCH];
+        int selectedCount;
+        // the faces that made it into the batch
+        int count;
+        long timestamp;
+        long sequence;
+        Classifier classifier;
+        // When the model takes uint8 luma, the crops stay uint8.
+        Uint8Classifier uint8Classifier;
+
+        FaceBatch() {
+            for (int i = 0; i < MAX_BATCH; i++) {
+                results[i] = new Classification();
+            }
+        }
+
+        @Override
+        public void release() {
+            for (int i = 0; i < selectedCount; i++) {
+                claimed[i].finishInference();
+                claimed[i] = null;
+                snapshots[i].release();
+                snapshots[i] = null;
+                selected[i] = null;
+            }
+            for (int i = 0; i < count; i++) {
+                faces[i] = null;
+            }
+            selectedCount = 0;
+            count = 0;
+            classifier = null;
+            uint8Classifier = null;
+            mBatchPool.offer(this);
+        }
+    }
 
-    public EmotionDetector(Context context, Detector<Face> delegate, TensorFlowClassifier classifier) {
-        mDelegate = delegate;
+    public EmotionDetector(Context context, Classifier classifier) {
+        this(context, classifier, BACKPRESSURE_LATEST, new CropFingerprintCache(),
+                new FaceScheduler(), new CropQualityGate(), new EmotionCascade());
+    }
+
+    /**
+     * @param backpressure {@link #BACKPRESSURE_LATEST} or {@link #BACKPRESSURE_QUEUE}
+     */
+    public EmotionDetector(Context context, Classifier classifier, int backpressure,
+                           CropFingerprintCache fingerprints, FaceScheduler scheduler,
+                           CropQualityGate qualityGate, EmotionCascade cascade) {
+        mFingerprints = fingerprints;
+        mScheduler = scheduler;
+        mQualityGate = qualityGate;
+        mCascade = cascade;
         mClassifier = classifier;
         mContext = context;
+        // one thread crops while the model runs on the others
+        int inferWorkers = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        int cropCapacity = backpressure == BACKPRESSURE_QUEUE ? QUEUE_CAPACITY : 1;
+        mInference = Pipeline.of(STAGE_CROP, mCropStage, 1, cropCapacity)
+                .then(STAGE_INFER, mInferStage, inferWorkers, 1);
+    }
+
+    public void setClassifier(Classifier classifier) {
+        mClassifier = classifier;
+        // results of another model don't count as classified
+        mFingerprints.clear();
+    }
+
+    /**
+     * One of {@link LumaNormalizer#NONE}, the default, {@link LumaNormalizer#GLOBAL} or
+     * {@link LumaNormalizer#CLAHE}, which copes better with side light but costs about five
+     * times as much per face as GLOBAL.  Only equalize for a model trained on crops equalized
+     * the same way.
+     */
+    public void setNormalization(int mode) {
+        mNormalization = mode;
+    }
+
+    /**
+     * Camera frames dropped before detection, because the previous one was still being processed.
+     */
+    public long getDroppedFrameCount() {
+        return mDroppedFrames.get();
     }
 
+    /**
+     * Detected frames whose faces were never classified, because newer frames pushed them out
+     * of a stage's queue.
+     */
+    public long getDroppedInferenceCount() {
+        long dropped = 0;
+        for (StageRunner<?, ?> stage : mInference.getStages()) {
+            dropped += stage.getDroppedCount();
+        }
+        return dropped;
+    }
+
+    /**
+     * Faces not classified in a frame because their previous inference hadn't finished yet.
+     */
+    public long getBusyFaceCount() {
+        return mBusyFaces.get();
+    }
+
+    /**
+     * Faces left without emotions in a frame because there was no room to store them.
+     */
+    public long getUntrackedFaceCount() {
+        return mUntrackedFaces.get();
+    }
+
+    /**
+     * The crop and infer stages, for their stats.
+     */
+    public Pipeline<?, ?> getInferencePipeline() {
+        return mInference;
+    }
+
+    public SnapshotPool getSnapshotPool() {
+        return mSnapshots;
+    }
+
+    public EmotionCascade getCascade() {
+        return mCascade;
+    }
+
+    public CropQualityGate getQualityGate() {
+        return mQualityGate;
+    }
+
+    public CropFingerprintCache getFingerprintCache() {
+        return mFingerprints;
+    }
+
+    public FaceScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    /**
+     * Results that arrived after a result from a newer frame, and were dropped.
+     */
+    public long getStaleResultCount() {
+        return mStaleResults.get();
+    }
+
+    /**
+     * Drop everything kept about a face, because its tracker is done with it.  A face only missed
+     * for a few frames is left alone, and falls to the idle sweep if it never comes back.
+     */
+    public void forget(int faceId) {
+        mEmotions.remove(faceId);
+        mFingerprints.forget(faceId);
+    }
+
+    /**
+     * Stop the crop and infer stages.  A batch being classified is finished; see
+     * {@link #awaitTermination}.
+     */
     @Override
-    public SparseArray<FaceEmotions> detect(Frame frame) {
+    public void release() {
+        mInference.shutdown();
+    }
+
+    /**
+     * Wait, after {@link #release}, until no worker is running the classifier any more, so that
+     * it can be closed.
+     */
+    public void awaitTermination() throws InterruptedException {
+        mInference.awaitTermination();
+    }
+
+    @Override
+    public FrameDetections<FaceEmotions> process(FrameDetections<Face> detections) {
+        Frame frame = detections.getFrame();
+        SparseArray<Face> detectedFaces = detections.getItems();
         SparseArray<FaceEmotions> emotionFaces = new SparseArray<>();
-        SparseArray<Face> detectedFaces = mDelegate.detect(frame);
+        long timestamp = frame.getMetadata().getTimestampMillis();
+        // the camera numbers its frames, so gaps are frames it dropped while we were busy
+        long frameId = frame.getMetadata().getId();
+        if (mLastFrameId >= 0 && frameId > mLastFrameId + 1) {
+            mDroppedFrames.addAndGet(frameId - mLastFrameId - 1);
+        }
+        mLastFrameId = frameId;
+        int faceCount = detectedFaces.size();
+        int candidates = 0;
+        if (mFrameFaces.length < faceCount) {
+            mFrameFaces = new Face[faceCount * 2];
+            mConfidences = new float[faceCount * 2];
+        }
 
-        for (int i = 0; i < detectedFaces.size(); i++) {
+        for (int i = 0; i < faceCount; i++) {
             Face face = detectedFaces.valueAt(i);
 
-            FaceEmotions faceEmotions = new FaceEmotions();
-            faceEmotions.setConf(0);
-            faceEmotions.setEmotion("Unknown emotion");
-            if (!emotionsMap.containsKey(face.getId())){
-                if (face.getIsSmilingProbability() > 0.8f){
-                    faceEmotions.setConf(face.getIsSmilingProbability());
-                    faceEmotions.setEmotion(FaceEmotions.HAPPY);
+            FaceEmotions faceEmotions = mEmotions.get(face.getId());
+            if (faceEmotions == null) {
+                faceEmotions = track(face, timestamp);
+                if (faceEmotions == null) {
+                    mUntrackedFaces.incrementAndGet();
+                    continue;
                 }
-                faceEmotions.setFace(face);
-                emotionFaces.append(face.getId(), faceEmotions);
-            }else{
-                emotionFaces.append(face.getId(), emotionsMap.get(face.getId()));
             }
-
-            classify(face, frame);
-        }
-        return emotionFaces;
-    }
-
-    private void classify(final Face face, final Frame frame){
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                byte[] data = frame.getGrayscaleImageData().array();
-                float centerX = face.getPosition().x + face.getWidth() / 2.0f;
-                float centerY = face.getPosition().y + face.getHeight() / 2.0f;
-                float offsetX = face.getWidth() / 2.0f;
-                float offsetY = face.getHeight() / 2.0f;
-
-                // draw a box around the face
-                float left = centerX - offsetX;
-                float right = centerX + offsetX;
-                float top = centerY - offsetY;
-                float bottom = centerY + offsetY;
-
-                Bitmap image = BitmapFactory.decodeByteArray(data, 0, data.length);
-                if (image == null){
-                    try {
-                        YuvImage yuvImage = new YuvImage(data, ImageFormat.NV21,
-                                frame.getMetadata().getWidth(), frame.getMetadata().getHeight(), null);
-                        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                        yuvImage.compressToJpeg(new Rect((int) left, (int) top, (int) (right), (int) (bottom)),
-                                100, outputStream);
-                        byte[] yData = outputStream.toByteArray();
-                        image = BitmapFactory.decodeByteArray(yData, 0, yData.length);
-                    }catch (IllegalArgumentException e){
-                        YuvImage yuvImage = new YuvImage(data, ImageFormat.NV21,
-                                frame.getMetadata().getWidth(), frame.getMetadata().getHeight(), null);
-                        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                        yuvImage.compressToJpeg(new Rect(0, 0, frame.getMetadata().getWidth(),
-                                        frame.getMetadata().getHeight()),
-                                100, outputStream);
-                        byte[] yData = outputStream.toByteArray();
-                        image = BitmapFactory.decodeByteArray(yData, 0, yData.length);
-                    }
+            // Known faces keep their last result but follow the face as it moves.
+            faceEmotions.setFace(face);
+            faceEmotions.setLastSeen(timestamp);
+            emotionFaces.append(face.getId(), faceEmotions);
+            if (mCascade.tryAnswer(face, mLandmarkResult)) {
+                // an inference still under way is from an older frame and will be dropped
+                if (!faceEmotions.update(mLandmarkResult, frameId)) {
+                    mStaleResults.incrementAndGet();
                 }
-                Bitmap bitmap = Bitmap.createScaledBitmap(
-                        image,
-                        48,
-                        48,
-                        true
-                );
-                //Initialize the intArray with the same size as the number of pixels on the image
-                int[] pixelarray = new int[bitmap.getWidth() * bitmap.getHeight()];
-                //copy pixel data from the Bitmap into the 'intArray' array
-                bitmap.getPixels(pixelarray, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-                float[] normalized_pixels = new float[pixelarray.length];
-                for (int i=0; i < pixelarray.length; i++) {
-                    // 0 for white and 255 for black
-                    int pix = pixelarray[i];
-                    int b = pix & 0xff;
-                    //  normalized_pixels[i] = (float)((0xff - b)/255.0);
-                    // normalized_pixels[i] = (float)(b/255.0);
-                    normalized_pixels[i] = (float)(b);
+                continue;
+            }
+            if (faceEmotions.isInferenceInFlight()) {
+                mBusyFaces.incrementAndGet();
+                continue;
+            }
+            // turned away or too small: not worth a snapshot, a claim or a crop
+            if (!mQualityGate.acceptsFace(face.getEulerY(), face.getWidth(), face.getHeight())) {
+                continue;
+            }
+            mFrameFaces[candidates] = face;
+            mConfidences[candidates] = faceEmotions.getConf();
+            candidates++;
+        }
 
-                }
-                try {
-                    final Classification res = mClassifier.recognize(normalized_pixels);
-                    FaceEmotions faceEmotions = new FaceEmotions();
-                    faceEmotions.setFace(face);
-                    //if it can't classify, output a 0
-                    if (res.getLabel() == null) {
-                        faceEmotions.setEmotion("?");
-                    } else {
-                        faceEmotions.setConf(res.getConf());
-                        faceEmotions.setEmotion(res.getLabel());
-                        faceEmotions.setPredictions(res.getPredictions());
-                        Log.i(TAG, "Emotion: " + res.getLabel() + " confidence: " + res.getConf());
-                    }
-                    emotionsMap.put(face.getId(), faceEmotions);
-                } catch (Exception e) {
-                    e.printStackTrace();
+        if (++mFrameCount % PRUNE_INTERVAL_FRAMES == 0) {
+            mFingerprints.prune(timestamp);
+            mSweepBefore = timestamp - EMOTION_TTL_MS;
+            mEmotions.sweep(mIdleEvictor);
+        }
+        Classifier classifier = mClassifier;
+        if (candidates > 0 && classifier != null) {
+            int selected = mScheduler.schedule(mFrameFaces, mConfidences, candidates,
+                    frame.getMetadata().getWidth(), frame.getMetadata().getHeight(),
+                    timestamp, mSelected);
+            classify(selected, frame, classifier);
+        }
+        for (int i = 0; i < candidates; i++) {
+            mFrameFaces[i] = null;
+        }
+        return new FrameDetections<>(frame, emotionFaces);
+    }
 
+    /**
+     * Claim the selected faces, snapshot the parts of the frame they are cropped from, and send
+     * them down the crop and infer stages.
+     */
+    // Store a face seen for the first time, sweeping out faces gone for a while if its slots are
+    // taken.  Returns null if there is still no room.  Camera thread only, the one that inserts.
+    private FaceEmotions track(Face face, long timestamp) {
+        FaceEmotions faceEmotions = mSpareEmotions;
+        if (faceEmotions == null) {
+            faceEmotions = new FaceEmotions();
+        }
+        faceEmotions.setConf(0);
+        faceEmotions.setFace(face);
+        if (!mEmotions.insert(face.getId(), faceEmotions)) {
+            mSweepBefore = timestamp - EMOTION_TTL_MS;
+            if (mEmotions.sweep(mIdleEvictor) == 0
+                    || !mEmotions.insert(face.getId(), faceEmotions)) {
+                mSpareEmotions = faceEmotions;
+                return null;
+            }
+        }
+        mSpareEmotions = null;
+        return faceEmotions;
+    }
+
+    private void classify(int selected, Frame frame, Classifier classifier) {
+        FaceBatch batch = mBatchPool.poll();
+        if (batch == null) {
+            batch = new FaceBatch();
+        }
+        ByteBuffer buffer = frame.getGrayscaleImageData();
+        int frameWidth = frame.getMetadata().getWidth();
+        int frameHeight = frame.getMetadata().getHeight();
+        batch.timestamp = frame.getMetadata().getTimestampMillis();
+        batch.sequence = frame.getMetadata().getId();
+        batch.classifier = classifier;
+        batch.uint8Classifier = classifier instanceof Uint8Classifier
+                && ((Uint8Classifier) classifier).hasUint8Input()
+                ? (Uint8Classifier) classifier : null;
+        for (int i = 0; i < selected; i++) {
+            Face face = mSelected[i];
+            mSelected[i] = null;
+            FaceEmotions faceEmotions = mEmotions.get(face.getId());
+            if (!cropBounds(mBoundsCropper, face, frameWidth, frameHeight, mEyes, mBounds)
+                    || faceEmotions == null || !faceEmotions.startInference()) {
+                continue;
+            }
+            mScheduler.markScheduled(face.getId(), batch.timestamp);
+            batch.selected[batch.selectedCount] = face;
+            batch.claimed[batch.selectedCount] = faceEmotions;
+            batch.snapshots[batch.selectedCount] = mSnapshots.snapshot(buffer.array(),
+                    buffer.arrayOffset(), frameWidth, mBounds[0], mBounds[1], mBounds[2], mBounds[3]);
+            batch.selectedCount++;
+        }
+        if (batch.selectedCount == 0) {
+            // an empty batch would only push a pending one of real faces out of the queue
+            batch.release();
+            return;
+        }
+        mInference.submit(batch);
+    }
+
+    // Crops, checks and normalizes the selected faces into the batch.
+    private final Stage<FaceBatch, FaceBatch> mCropStage = new Stage<FaceBatch, FaceBatch>() {
+        @Override
+        public FaceBatch process(FaceBatch batch) {
+            long timestamp = batch.timestamp;
+            WorkerState state = mWorkerState.get();
+            int mode = mNormalization;
+            if (state.normalizer == null || state.normalizer.getMode() != mode) {
+                state.normalizer = new LumaNormalizer(PIXEL_WIDTH, mode,
+                        LumaNormalizer.DEFAULT_TILES, LumaNormalizer.DEFAULT_CLIP_LIMIT,
+                        INPUT_SCALE, 0.0f);
+                state.cropper.setHistogram(mode == LumaNormalizer.GLOBAL ? state.histogram : null);
+            }
+            for (int i = 0; i < batch.selectedCount; i++) {
+                Face face = batch.selected[i];
+                // crop to uint8 first, then equalize into whatever the model takes
+                int offset = batch.count * PIXEL_COUNT;
+                if (!crop(state, batch.snapshots[i], face, batch.lumaBatch, offset)
+                        || !mQualityGate.acceptsCrop(batch.lumaBatch, offset, PIXEL_WIDTH)) {
+                    continue;
                 }
+                byte[] signature = batch.signatures[batch.count];
+                CropFingerprintCache.fingerprint(batch.lumaBatch, offset, PIXEL_WIDTH, signature);
+                if (!mFingerprints.shouldClassify(face.getId(), signature,
+                        face.getEulerY(), face.getEulerZ(), timestamp)) {
+                    continue;
+                }
+                if (batch.uint8Classifier != null) {
+                    state.normalizer.normalize(batch.lumaBatch, offset, state.histogram,
+                            batch.lumaBatch, offset);
+                } else {
+                    state.normalizer.normalize(batch.lumaBatch, offset, state.histogram,
+                            batch.batch, offset);
+                }
+                batch.faces[batch.count++] = face;
             }
-        }).start();
+            if (batch.count == 0) {
+                batch.release();
+                return null;
+            }
+            return batch;
+        }
+    };
+
+    // Runs the model over the batch and publishes the results.
+    private final Stage<FaceBatch, Void> mInferStage = new Stage<FaceBatch, Void>() {
+        @Override
+        public Void process(FaceBatch batch) {
+            // if recognizing throws, the runner releases the batch
+            recognize(batch);
+            batch.release();
+            return null;
+        }
+    };
+
+    /**
+     * Find the eyes to align the crop on, the one on the left of the picture first.
+     *
+     * @return false if they weren't both found far enough apart, and the crop is turned back by the
+     * head's roll instead
+     */
+    private static boolean findEyes(Face face, PointF[] eyes) {
+        PointF leftEye = null;
+        PointF rightEye = null;
+        for (Landmark landmark : face.getLandmarks()) {
+            if (landmark.getType() == Landmark.LEFT_EYE) {
+                leftEye = landmark.getPosition();
+            } else if (landmark.getType() == Landmark.RIGHT_EYE) {
+                rightEye = landmark.getPosition();
+            }
+        }
+        if (leftEye == null || rightEye == null
+                || Math.abs(leftEye.x - rightEye.x) <= MIN_EYE_DISTANCE * face.getWidth()) {
+            return false;
+        }
+        // the subject's left eye is on the right of the picture, unless the camera mirrors it
+        eyes[0] = leftEye.x < rightEye.x ? leftEye : rightEye;
+        eyes[1] = eyes[0] == leftEye ? rightEye : leftEye;
+        return true;
+    }
+
+    /**
+     * The part of the frame the face's crop reads.
+     */
+    private static boolean cropBounds(FaceCropper cropper, Face face, int frameWidth,
+                                      int frameHeight, PointF[] eyes, int[] bounds) {
+        if (findEyes(face, eyes)) {
+            return cropper.alignedBounds(eyes[0].x, eyes[0].y, eyes[1].x, eyes[1].y,
+                    frameWidth, frameHeight, bounds);
+        }
+        return cropper.rotatedBounds(face.getPosition().x, face.getPosition().y,
+                face.getWidth(), face.getHeight(), face.getEulerZ(), frameWidth, frameHeight, bounds);
+    }
+
+    /**
+     * Crop the face upright into the uint8 batch from its snapshot: aligned on the eyes when both
+     * are found, otherwise turned back by the head's roll.  The snapshot covers all the crop reads,
+     * so cropping it in its own coordinates gives the same pixels as cropping the frame.
+     */
+    private static boolean crop(WorkerState state, RegionSnapshot snapshot, Face face,
+                                byte[] out, int outOffset) {
+        byte[] luma = snapshot.getPixels();
+        int width = snapshot.getWidth();
+        int height = snapshot.getHeight();
+        float dx = -snapshot.getLeft();
+        float dy = -snapshot.getTop();
+        PointF[] eyes = state.eyes;
+        if (findEyes(face, eyes)) {
+            return state.cropper.cropAligned(luma, 0, width, height,
+                    eyes[0].x + dx, eyes[0].y + dy, eyes[1].x + dx, eyes[1].y + dy, out, outOffset);
+        }
+        return state.cropper.cropRotated(luma, 0, width, height,
+                face.getPosition().x + dx, face.getPosition().y + dy, face.getWidth(),
+                face.getHeight(), face.getEulerZ(), out, outOffset);
+    }
+
+    private void recognize(FaceBatch batch) {
+        try {
+            long start = System.nanoTime();
+            if (batch.uint8Classifier != null) {
+                batch.uint8Classifier.recognizeBatch(batch.lumaBatch, batch.count, batch.results);
+            } else {
+                batch.classifier.recognizeBatch(batch.batch, batch.count, batch.results);
+            }
+            long elapsed = System.nanoTime() - start;
+            mScheduler.recordCost(batch.count, elapsed);
+            mInferenceLatency.record(elapsed);
+            mInferences.addAndGet(batch.count);
+            for (int i = 0; i < batch.count; i++) {
+                Classification result = batch.results[i];
+                Emotion emotion = result.getEmotion();
+                mTrace.inference(batch.sequence, batch.faces[i].getId(), start, elapsed,
+                        batch.count, emotion == null ? -1 : emotion.ordinal(), result.getConf());
+                publish(batch, i);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void publish(FaceBatch batch, int index) {
+        Face face = batch.faces[index];
+        FaceEmotions faceEmotions = mEmotions.get(face.getId());
+        if (faceEmotions == null) {
+            // the face went away while it was being classified
+            return;
+        }
+        //if it can't classify, the emotion is left empty
+        if (!faceEmotions.update(batch.results[index], batch.sequence)) {
+            mStaleResults.incrementAndGet();
+            return;
+        }
+        // only now does the crop count as classified
+        mFingerprints.commit(face.getId(), batch.signatures[index], face.getEulerY(),
+                face.getEulerZ(), batch.timestamp);
     }
 }
@@ -1,7 +1,6 @@
 package com.icam.helpers;
 
 import android.content.Context;
-import android.graphics.PointF;
 
 import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.Tracker;
@@ -11,9 +10,9 @@ import com.google.android.gms.vision.face.Landmark;
 import com.icam.customUI.GraphicOverlay;
 import com.icam.models.FaceData;
 import com.icam.models.FaceEmotions;
-
-import java.util.HashMap;
-import java.util.Map;
+import com.icam.models.Point;
+import com.icam.perf.LatencyHistogram;
+import com.icam.perf.PerfRegistry;
 
 public class EmotionTracker extends Tracker<FaceEmotions> {
 
@@ -24,30 +23,46 @@ public class EmotionTracker extends Tracker<FaceEmotions> {
     private boolean mIsFrontFacing;
     private FaceGraphic mFaceGraphic;
     private FaceData mFaceData;
+    // Told when the face is gone for good, so it can drop what it keeps about it.
+    private EmotionDetector mDetector;
+    private int mFaceId;
     private boolean mPreviousIsLeftEyeOpen = true;
     private boolean mPreviousIsRightEyeOpen = true;
 
     // Subjects may move too quickly to for the system to detect their detect features,
     // or they may move so their features are out of the tracker's detection range.
-    // This map keeps track of previously detected facial landmarks so that we can approximate
+    // This keeps track of previously detected facial landmarks so that we can approximate
     // their locations when they momentarily "disappear".
-    private Map<Integer, PointF> mPreviousLandmarkPositions = new HashMap<>();
-
-    public EmotionTracker(GraphicOverlay overlay, Context context, boolean isFrontFacing) {
+    private final LandmarkMemory mPreviousLandmarkPositions = new LandmarkMemory();
+    // What the face data points at, moved in place on every update: the face box and each
+    // landmark, by type.
+    private final Point mPosition = new Point();
+    private final Point[] mLandmarkPositions = new Point[LandmarkMemory.MAX_TYPES];
+    private final LatencyHistogram mUpdateLatency =
+            PerfRegistry.getDefault().latency(PerfRegistry.LATENCY_TRACKER);
+
+    public EmotionTracker(GraphicOverlay overlay, Context context, boolean isFrontFacing,
+                          EmotionDetector detector) {
         mOverlay = overlay;
+        mDetector = detector;
         mContext = context;
         mIsFrontFacing = isFrontFacing;
         mFaceData = new FaceData();
+        for (int i = 0; i < mLandmarkPositions.length; i++) {
+            mLandmarkPositions[i] = new Point();
+        }
         mFaceData.setHasEmotionData(true);
     }
 
     @Override
     public void onNewItem(int i, FaceEmotions emotions) {
+        mFaceId = i;
         mFaceGraphic = new FaceGraphic(mOverlay, mContext, mIsFrontFacing);
     }
 
     @Override
     public void onUpdate(FaceDetector.Detections<FaceEmotions> detectionResults, FaceEmotions emotions) {
+        long start = System.nanoTime();
         Face face = emotions.getFace();
 
         mOverlay.add(mFaceGraphic);
@@ -57,7 +72,8 @@ public class EmotionTracker extends Tracker<FaceEmotions> {
         mFaceData.setEulerZ(face.getEulerZ());
 
         // Get face dimensions.
-        mFaceData.setPosition(face.getPosition());
+        mPosition.set(face.getPosition().x, face.getPosition().y);
+        mFaceData.setPosition(mPosition);
         mFaceData.setWidth(face.getWidth());
         mFaceData.setHeight(face.getHeight());
 
@@ -98,21 +114,23 @@ public class EmotionTracker extends Tracker<FaceEmotions> {
         final float SMILING_THRESHOLD = 0.8f;
         mFaceData.setSmiling(face.getIsSmilingProbability() > SMILING_THRESHOLD);
 
-        mFaceData.setEmotion(emotions.getEmotion());
-        mFaceData.setEmotionCoef(emotions.getConf());
-        mFaceData.setPredictions(emotions.getPredictions());
+        emotions.copyTo(mFaceData);
 
         mFaceGraphic.update(mFaceData);
+        mUpdateLatency.record(System.nanoTime() - start);
     }
 
     @Override
     public void onMissing(Detector.Detections<FaceEmotions> emotionsDetections) {
+        // Missed for a frame or two: the face keeps its emotion, and any inference still running
+        // for it, in case it comes back.
         mOverlay.remove(mFaceGraphic);
     }
 
     @Override
     public void onDone() {
         mOverlay.remove(mFaceGraphic);
+        mDetector.forget(mFaceId);
     }
 
     // Facial landmark utility methods
@@ -123,29 +141,25 @@ public class EmotionTracker extends Tracker<FaceEmotions> {
      * return the coordinates of the landmark if known,
      * or approximated coordinates (based on prior data) if not.
      */
-    private PointF getLandmarkPosition(Face face, int landmarkId) {
+    private Point getLandmarkPosition(Face face, int landmarkId) {
+        Point position = mLandmarkPositions[landmarkId];
         for (Landmark landmark : face.getLandmarks()) {
             if (landmark.getType() == landmarkId) {
-                return landmark.getPosition();
+                position.set(landmark.getPosition().x, landmark.getPosition().y);
+                return position;
             }
         }
 
-        PointF landmarkPosition = mPreviousLandmarkPositions.get(landmarkId);
-        if (landmarkPosition == null) {
-            return null;
-        }
-
-        float x = face.getPosition().x + (landmarkPosition.x * face.getWidth());
-        float y = face.getPosition().y + (landmarkPosition.y * face.getHeight());
-        return new PointF(x, y);
+        return mPreviousLandmarkPositions.recall(landmarkId, face.getPosition().x,
+                face.getPosition().y, face.getWidth(), face.getHeight(), position)
+                ? position : null;
     }
 
     private void updatePreviousLandmarkPositions(Face face) {
         for (Landmark landmark : face.getLandmarks()) {
-            PointF position = landmark.getPosition();
-            float xProp = (position.x - face.getPosition().x) / face.getWidth();
-            float yProp = (position.y - face.getPosition().y) / face.getHeight();
-            mPreviousLandmarkPositions.put(landmark.getType(), new PointF(xProp, yProp));
+            mPreviousLandmarkPositions.remember(landmark.getType(), landmark.getPosition().x,
+                    landmark.getPosition().y, face.getPosition().x, face.getPosition().y,
+                    face.getWidth(), face.getHeight());
         }
     }
 }
@@ -33,14 +33,15 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Canvas;
 import android.graphics.Paint;
-import android.graphics.PointF;
 import android.graphics.drawable.Drawable;
-import android.util.Log;
+import android.os.SystemClock;
 
 import com.icam.R;
 import com.icam.customUI.GraphicOverlay;
+import com.icam.models.Emotion;
+import com.icam.models.EmotionVector;
 import com.icam.models.FaceData;
-import com.icam.models.FaceEmotions;
+import com.icam.models.Point;
 
 
 class FaceGraphic extends GraphicOverlay.Graphic {
@@ -77,6 +78,14 @@ class FaceGraphic extends GraphicOverlay.Graphic {
     private Drawable happyGraphic;
     private Drawable sadGraphic;
     private Drawable surprisedGraphic;
+    // Emoji per emotion, indexed by Emotion.ordinal(); null where we have nothing to draw.
+    private Drawable[] mEmojiGraphics = new Drawable[Emotion.COUNT];
+
+    // How many of the top predictions are written under the emoji, and the scratch space used to
+    // format them without creating strings on every frame.
+    private static final int PREDICTION_LINES = 2;
+    private final int[] mTopPredictions = new int[PREDICTION_LINES];
+    private final char[] mPredictionText = new char[32];
 
     // We want each iris to move independently, so each one gets its own physics engine.
     private EyePhysics mLeftPhysics = new EyePhysics();
@@ -103,6 +112,12 @@ class FaceGraphic extends GraphicOverlay.Graphic {
         sadGraphic = resources.getDrawable(R.drawable.sad);
         surprisedGraphic = resources.getDrawable(R.drawable.suprised);
 
+        mEmojiGraphics[Emotion.ANGRY.ordinal()] = angryGraphic;
+        mEmojiGraphics[Emotion.DISGUST.ordinal()] = disgustGraphic;
+        mEmojiGraphics[Emotion.FEAR.ordinal()] = fearGraphic;
+        mEmojiGraphics[Emotion.HAPPY.ordinal()] = happyGraphic;
+        mEmojiGraphics[Emotion.SAD.ordinal()] = sadGraphic;
+        mEmojiGraphics[Emotion.SURPRISE.ordinal()] = surprisedGraphic;
     }
 
     private void initializePaints(Resources resources) {
@@ -153,31 +168,11 @@ class FaceGraphic extends GraphicOverlay.Graphic {
         Drawable emoji = null;
         if (mFaceData.isSmiling()){
             emoji = happyGraphic;
-        }else {
-            switch (mFaceData.getEmotion()) {
-                case FaceEmotions.ANGRY:
-                    emoji = angryGraphic;
-                    break;
-                case FaceEmotions.DISGUST:
-                    emoji = disgustGraphic;
-                    break;
-                case FaceEmotions.FEAR:
-                    emoji = fearGraphic;
-                    break;
-                case FaceEmotions.HAPPY:
-                    emoji = happyGraphic;
-                    break;
-                case FaceEmotions.SAD:
-                    emoji = sadGraphic;
-                    break;
-                case FaceEmotions.SUPRISE:
-                    emoji = surprisedGraphic;
-                    break;
-            }
+        }else if (mFaceData.getEmotion() != null) {
+            emoji = mEmojiGraphics[mFaceData.getEmotion().ordinal()];
         }
         if (emoji == null)
             return;
-        Log.i(TAG, "emotion: "+mFaceData.getEmotion());
         float centerX = translateX(mFaceData.getPosition().x + mFaceData.getWidth() / 2.0f);
         float centerY = translateY(mFaceData.getPosition().y + mFaceData.getHeight() / 2.0f);
         float offsetX = scaleX(mFaceData.getWidth() / 2.0f);
@@ -192,12 +187,43 @@ class FaceGraphic extends GraphicOverlay.Graphic {
         emoji.setBounds(left, top, right, bottom);
         emoji.draw(canvas);
 
-        if (mFaceData.getPredictions() != null){
-            canvas.drawCircle(0, 0, DOT_RADIUS, mHintOutlinePaint);
-            canvas.drawText(mFaceData.getPredictions().toString(), 0,
-                0 + TEXT_OFFSET_Y, mHintTextPaint);
+        // write the best predictions under the emoji
+        EmotionVector predictions = mFaceData.getPredictions();
+        int lines = predictions.top(PREDICTION_LINES, mTopPredictions);
+        float textY = bottom - TEXT_OFFSET_Y;
+        for (int i = 0; i < lines; i++) {
+            int index = mTopPredictions[i];
+            float score = predictions.get(index);
+            if (score <= 0) {
+                break;
+            }
+            int length = formatPrediction(Emotion.fromIndex(index), score, mPredictionText);
+            canvas.drawText(mPredictionText, 0, length, left, textY, mHintTextPaint);
+            textY -= TEXT_OFFSET_Y;
         }
+    }
 
+    /**
+     * Write "Label NN%" into text and return its length.
+     */
+    private static int formatPrediction(Emotion emotion, float score, char[] text) {
+        String label = emotion.getLabel();
+        int length = label.length();
+        label.getChars(0, length, text, 0);
+        text[length++] = ' ';
+        int percent = Math.round(score * 100);
+        if (percent >= 100) {
+            text[length++] = '1';
+            text[length++] = '0';
+            text[length++] = '0';
+        } else {
+            if (percent >= 10) {
+                text[length++] = (char) ('0' + percent / 10);
+            }
+            text[length++] = (char) ('0' + percent % 10);
+        }
+        text[length++] = '%';
+        return length;
     }
 
     private void drawCartoon(Canvas canvas) {
@@ -207,13 +233,13 @@ class FaceGraphic extends GraphicOverlay.Graphic {
             return;
         }
 
-        PointF detectPosition = mFaceData.getPosition();
-        PointF detectLeftEyePosition = mFaceData.getLeftEyePosition();
-        PointF detectRightEyePosition = mFaceData.getRightEyePosition();
-        PointF detectNoseBasePosition = mFaceData.getNoseBasePosition();
-        PointF detectMouthLeftPosition = mFaceData.getMouthLeftPosition();
-        PointF detectMouthBottomPosition = mFaceData.getMouthBottomPosition();
-        PointF detectMouthRightPosition = mFaceData.getMouthRightPosition();
+        Point detectPosition = mFaceData.getPosition();
+        Point detectLeftEyePosition = mFaceData.getLeftEyePosition();
+        Point detectRightEyePosition = mFaceData.getRightEyePosition();
+        Point detectNoseBasePosition = mFaceData.getNoseBasePosition();
+        Point detectMouthLeftPosition = mFaceData.getMouthLeftPosition();
+        Point detectMouthBottomPosition = mFaceData.getMouthBottomPosition();
+        Point detectMouthRightPosition = mFaceData.getMouthRightPosition();
 
         if ((detectPosition == null) ||
                 (detectLeftEyePosition == null) ||
@@ -226,15 +252,15 @@ class FaceGraphic extends GraphicOverlay.Graphic {
         }
 
         // Face position and dimensions
-        PointF position = new PointF(translateX(detectPosition.x),
+        Point position = new Point(translateX(detectPosition.x),
                 translateY(detectPosition.y));
         float width = scaleX(mFaceData.getWidth());
         float height = scaleY(mFaceData.getHeight());
 
         // Eye coordinates
-        PointF leftEyePosition = new PointF(translateX(detectLeftEyePosition.x),
+        Point leftEyePosition = new Point(translateX(detectLeftEyePosition.x),
                 translateY(detectLeftEyePosition.y));
-        PointF rightEyePosition = new PointF(translateX(detectRightEyePosition.x),
+        Point rightEyePosition = new Point(translateX(detectRightEyePosition.x),
                 translateY(detectRightEyePosition.y));
 
         // Eye state
@@ -242,15 +268,15 @@ class FaceGraphic extends GraphicOverlay.Graphic {
         boolean rightEyeOpen = mFaceData.isRightEyeOpen();
 
         // Nose coordinates
-        PointF noseBasePosition = new PointF(translateX(detectNoseBasePosition.x),
+        Point noseBasePosition = new Point(translateX(detectNoseBasePosition.x),
                 translateY(detectNoseBasePosition.y));
 
         // Mouth coordinates
-        PointF mouthLeftPosition = new PointF(translateX(detectMouthLeftPosition.x),
+        Point mouthLeftPosition = new Point(translateX(detectMouthLeftPosition.x),
                 translateY(detectMouthLeftPosition.y));
-        PointF mouthRightPosition = new PointF(translateX(detectMouthRightPosition.x),
+        Point mouthRightPosition = new Point(translateX(detectMouthRightPosition.x),
                 translateY(detectMouthRightPosition.y));
-        PointF mouthBottomPosition = new PointF(translateX(detectMouthBottomPosition.x),
+        Point mouthBottomPosition = new Point(translateX(detectMouthBottomPosition.x),
                 translateY(detectMouthBottomPosition.y));
 
         // Smile state
@@ -267,9 +293,10 @@ class FaceGraphic extends GraphicOverlay.Graphic {
         float irisRadius = IRIS_RADIUS_PROPORTION * distance;
 
         // Draw the eyes.
-        PointF leftIrisPosition = mLeftPhysics.nextIrisPosition(leftEyePosition, eyeRadius, irisRadius);
+        long nowMs = SystemClock.elapsedRealtime();
+        Point leftIrisPosition = mLeftPhysics.nextIrisPosition(leftEyePosition, eyeRadius, irisRadius, nowMs);
         drawEye(canvas, leftEyePosition, eyeRadius, leftIrisPosition, irisRadius, leftEyeOpen, smiling);
-        PointF rightIrisPosition = mRightPhysics.nextIrisPosition(rightEyePosition, eyeRadius, irisRadius);
+        Point rightIrisPosition = mRightPhysics.nextIrisPosition(rightEyePosition, eyeRadius, irisRadius, nowMs);
         drawEye(canvas, rightEyePosition, eyeRadius, rightIrisPosition, irisRadius, rightEyeOpen, smiling);
 
         // Draw the nose.
@@ -289,8 +316,8 @@ class FaceGraphic extends GraphicOverlay.Graphic {
     }
 
     private void drawEye(Canvas canvas,
-                         PointF eyePosition, float eyeRadius,
-                         PointF irisPosition, float irisRadius,
+                         Point eyePosition, float eyeRadius,
+                         Point irisPosition, float irisRadius,
                          boolean eyeOpen, boolean smiling) {
         if (eyeOpen) {
             canvas.drawCircle(eyePosition.x, eyePosition.y, eyeRadius, mEyeWhitePaint);
@@ -315,8 +342,8 @@ class FaceGraphic extends GraphicOverlay.Graphic {
     }
 
     private void drawNose(Canvas canvas,
-                          PointF noseBasePosition,
-                          PointF leftEyePosition, PointF rightEyePosition,
+                          Point noseBasePosition,
+                          Point leftEyePosition, Point rightEyePosition,
                           float faceWidth) {
         final float NOSE_FACE_WIDTH_RATIO = (float) (1 / 5.0);
         float noseWidth = faceWidth * NOSE_FACE_WIDTH_RATIO;
@@ -330,8 +357,8 @@ class FaceGraphic extends GraphicOverlay.Graphic {
     }
 
     private void drawMustache(Canvas canvas,
-                              PointF noseBasePosition,
-                              PointF mouthLeftPosition, PointF mouthRightPosition) {
+                              Point noseBasePosition,
+                              Point mouthLeftPosition, Point mouthRightPosition) {
         int left = (int) mouthLeftPosition.x;
         int top = (int) noseBasePosition.y;
         int right = (int) mouthRightPosition.x;
@@ -345,7 +372,7 @@ class FaceGraphic extends GraphicOverlay.Graphic {
         mMustacheGraphic.draw(canvas);
     }
 
-    private void drawHat(Canvas canvas, PointF facePosition, float faceWidth, float faceHeight, PointF noseBasePosition) {
+    private void drawHat(Canvas canvas, Point facePosition, float faceWidth, float faceHeight, Point noseBasePosition) {
         final float HAT_FACE_WIDTH_RATIO = (float) (1.0 / 4.0);
         final float HAT_FACE_HEIGHT_RATIO = (float) (1.0 / 6.0);
         final float HAT_CENTER_Y_OFFSET_FACTOR = (float) (1.0 / 8.0);
@@ -372,13 +399,13 @@ class FaceGraphic extends GraphicOverlay.Graphic {
         }
 
         // 1
-        PointF detectPosition = mFaceData.getPosition();
-        PointF detectLeftEyePosition = mFaceData.getLeftEyePosition();
-        PointF detectRightEyePosition = mFaceData.getRightEyePosition();
-        PointF detectNoseBasePosition = mFaceData.getNoseBasePosition();
-        PointF detectMouthLeftPosition = mFaceData.getMouthLeftPosition();
-        PointF detectMouthBottomPosition = mFaceData.getMouthBottomPosition();
-        PointF detectMouthRightPosition = mFaceData.getMouthRightPosition();
+        Point detectPosition = mFaceData.getPosition();
+        Point detectLeftEyePosition = mFaceData.getLeftEyePosition();
+        Point detectRightEyePosition = mFaceData.getRightEyePosition();
+        Point detectNoseBasePosition = mFaceData.getNoseBasePosition();
+        Point detectMouthLeftPosition = mFaceData.getMouthLeftPosition();
+        Point detectMouthBottomPosition = mFaceData.getMouthBottomPosition();
+        Point detectMouthRightPosition = mFaceData.getMouthRightPosition();
         if ((detectPosition == null) ||
                 (detectLeftEyePosition == null) ||
                 (detectRightEyePosition == null) ||
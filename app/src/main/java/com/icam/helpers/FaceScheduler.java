@@ -0,0 +1,196 @@
+package com.icam.helpers;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.face.Face;
+
+/**
+ * Decides which faces of a frame get classified, so that the work per frame stays bounded no
+ * matter how many faces are in view.<p>
+ *
+ * Every face gets a score from its size in the frame, the time since it was last sent for
+ * classification, and how unsure its last result was; faces never classified come first.  Each
+ * frame the best scoring faces are picked until the budget is spent: a number of faces, and
+ * optionally a time in milliseconds, estimated from a moving average of what one face has cost
+ * so far.  The rest wait for a later frame, by which time they score higher.<p>
+ *
+ * A face only counts as sent once the caller has claimed it for an inference and says so with
+ * {@link #markScheduled}; one that is picked but then skipped keeps its score.<p>
+ *
+ * {@link #schedule} and {@link #markScheduled} must be called from the detector thread only;
+ * {@link #recordCost} may be called from any thread.
+ */
+public class FaceScheduler {
+
+    public static final int DEFAULT_MAX_FACES_PER_FRAME = 3;
+    // A third of a frame at 30 fps.
+    public static final float DEFAULT_BUDGET_MS = 11.0f;
+
+    private static final float SIZE_WEIGHT = 1.0f;
+    private static final float STALENESS_WEIGHT = 2.0f;
+    private static final float UNCERTAINTY_WEIGHT = 1.0f;
+    private static final float NEW_FACE_BONUS = 10.0f;
+    // A result this old counts as fully stale.
+    private static final long STALE_MS = 1000;
+    private static final long FORGET_AFTER_MS = 5000;
+    // Weight of the newest sample in the cost average.
+    private static final float COST_SMOOTHING = 0.2f;
+
+    private final int mMaxFacesPerFrame;
+    private final float mBudgetMs;
+
+    private final SparseArray<FaceState> mStates = new SparseArray<>();
+    private float[] mScores = new float[8];
+    private int[] mOrder = new int[8];
+
+    // guarded by this
+    private float mCostMs;
+    private long mScheduledCount;
+    private long mDeferredCount;
+
+    private static class FaceState {
+        long lastScheduled = -1;
+        long lastSeen;
+    }
+
+    public FaceScheduler() {
+        this(DEFAULT_MAX_FACES_PER_FRAME, DEFAULT_BUDGET_MS);
+    }
+
+    /**
+     * @param maxFacesPerFrame most faces classified per frame
+     * @param budgetMs         inference time to spend per frame, or 0 to only count faces
+     */
+    public FaceScheduler(int maxFacesPerFrame, float budgetMs) {
+        mMaxFacesPerFrame = Math.max(1, maxFacesPerFrame);
+        mBudgetMs = budgetMs;
+    }
+
+    /**
+     * Pick the faces to classify this frame.
+     *
+     * @param faces       the faces in view
+     * @param confidences the confidence of each face's current emotion, 0 if it has none
+     * @param selected    receives the faces to classify, best first
+     * @return how many faces were selected
+     */
+    public int schedule(Face[] faces, float[] confidences, int count, int frameWidth,
+                        int frameHeight, long timestampMs, Face[] selected) {
+        if (mScores.length < count) {
+            mScores = new float[count * 2];
+            mOrder = new int[count * 2];
+        }
+        for (int i = 0; i < count; i++) {
+            Face face = faces[i];
+            FaceState state = mStates.get(face.getId());
+            if (state == null) {
+                state = new FaceState();
+                mStates.put(face.getId(), state);
+            }
+            state.lastSeen = timestampMs;
+
+            float size = Math.min(1.0f, Math.max(face.getWidth() / frameWidth,
+                    face.getHeight() / frameHeight));
+            float score = SIZE_WEIGHT * size
+                    + UNCERTAINTY_WEIGHT * (1.0f - Math.min(1.0f, confidences[i]));
+            if (state.lastScheduled < 0) {
+                score += NEW_FACE_BONUS;
+            } else {
+                long since = timestampMs - state.lastScheduled;
+                score += STALENESS_WEIGHT * Math.min(1.0f, (float) since / STALE_MS);
+            }
+            mScores[i] = score;
+            mOrder[i] = i;
+        }
+
+        int budget = Math.min(count, Math.min(faceBudget(), selected.length));
+        // partial selection sort, the budget is a handful of faces
+        for (int k = 0; k < budget; k++) {
+            int best = k;
+            for (int j = k + 1; j < count; j++) {
+                if (mScores[mOrder[j]] > mScores[mOrder[best]]) {
+                    best = j;
+                }
+            }
+            int swap = mOrder[k];
+            mOrder[k] = mOrder[best];
+            mOrder[best] = swap;
+
+            selected[k] = faces[mOrder[k]];
+        }
+
+        forgetOld(timestampMs);
+        synchronized (this) {
+            mDeferredCount += count - budget;
+        }
+        return budget;
+    }
+
+    /**
+     * A face picked by {@link #schedule} was actually sent for classification.
+     */
+    public void markScheduled(int faceId, long timestampMs) {
+        FaceState state = mStates.get(faceId);
+        if (state != null) {
+            state.lastScheduled = timestampMs;
+        }
+        synchronized (this) {
+            mScheduledCount++;
+        }
+    }
+
+    /**
+     * Report how long classifying some faces took, to estimate what the next ones will cost.
+     */
+    public synchronized void recordCost(int faceCount, long nanos) {
+        if (faceCount <= 0) {
+            return;
+        }
+        float perFace = nanos / 1e6f / faceCount;
+        mCostMs = mCostMs == 0 ? perFace : mCostMs + COST_SMOOTHING * (perFace - mCostMs);
+    }
+
+    /**
+     * The moving average of the time one face takes to classify, 0 before the first one.
+     */
+    public synchronized float getCostMs() {
+        return mCostMs;
+    }
+
+    /**
+     * Faces sent for classification, summed over all frames.
+     */
+    public synchronized long getScheduledCount() {
+        return mScheduledCount;
+    }
+
+    /**
+     * Faces left for a later frame, summed over all frames.
+     */
+    public synchronized long getDeferredCount() {
+        return mDeferredCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "scheduled " + mScheduledCount + ", deferred " + mDeferredCount
+                + ", " + mCostMs + " ms per face";
+    }
+
+    private synchronized int faceBudget() {
+        if (mBudgetMs <= 0 || mCostMs <= 0) {
+            return mMaxFacesPerFrame;
+        }
+        // always at least one face, or a slow model would never classify anything
+        int affordable = Math.max(1, (int) (mBudgetMs / mCostMs));
+        return Math.min(mMaxFacesPerFrame, affordable);
+    }
+
+    private void forgetOld(long timestampMs) {
+        for (int i = mStates.size() - 1; i >= 0; i--) {
+            if (timestampMs - mStates.valueAt(i).lastSeen > FORGET_AFTER_MS) {
+                mStates.removeAt(i);
+            }
+        }
+    }
+}
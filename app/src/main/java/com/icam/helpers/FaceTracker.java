@@ -30,7 +30,6 @@
 package com.icam.helpers;
 
 import android.content.Context;
-import android.graphics.PointF;
 
 import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.Tracker;
@@ -40,9 +39,9 @@ import com.google.android.gms.vision.face.Landmark;
 import com.icam.customUI.GraphicOverlay;
 import com.icam.models.FaceData;
 import com.icam.models.FaceEmotions;
-
-import java.util.HashMap;
-import java.util.Map;
+import com.icam.models.Point;
+import com.icam.perf.LatencyHistogram;
+import com.icam.perf.PerfRegistry;
 
 public class FaceTracker extends Tracker<Face> {
 
@@ -60,15 +59,24 @@ public class FaceTracker extends Tracker<Face> {
 
     // Subjects may move too quickly to for the system to detect their detect features,
     // or they may move so their features are out of the tracker's detection range.
-    // This map keeps track of previously detected facial landmarks so that we can approximate
+    // This keeps track of previously detected facial landmarks so that we can approximate
     // their locations when they momentarily "disappear".
-    private Map<Integer, PointF> mPreviousLandmarkPositions = new HashMap<>();
+    private final LandmarkMemory mPreviousLandmarkPositions = new LandmarkMemory();
+    // What the face data points at, moved in place on every update: the face box and each
+    // landmark, by type.
+    private final Point mPosition = new Point();
+    private final Point[] mLandmarkPositions = new Point[LandmarkMemory.MAX_TYPES];
+    private final LatencyHistogram mUpdateLatency =
+            PerfRegistry.getDefault().latency(PerfRegistry.LATENCY_TRACKER);
 
     public FaceTracker(GraphicOverlay overlay, Context context, boolean isFrontFacing) {
         mOverlay = overlay;
         mContext = context;
         mIsFrontFacing = isFrontFacing;
         mFaceData = new FaceData();
+        for (int i = 0; i < mLandmarkPositions.length; i++) {
+            mLandmarkPositions[i] = new Point();
+        }
         mFaceData.setHasEmotionData(false);
     }
 
@@ -79,6 +87,7 @@ public class FaceTracker extends Tracker<Face> {
 
     @Override
     public void onUpdate(FaceDetector.Detections<Face> detectionResults, Face face) {
+        long start = System.nanoTime();
         mOverlay.add(mFaceGraphic);
         updatePreviousLandmarkPositions(face);
         // Get head angles.
@@ -86,7 +95,8 @@ public class FaceTracker extends Tracker<Face> {
         mFaceData.setEulerZ(face.getEulerZ());
 
         // Get face dimensions.
-        mFaceData.setPosition(face.getPosition());
+        mPosition.set(face.getPosition().x, face.getPosition().y);
+        mFaceData.setPosition(mPosition);
         mFaceData.setWidth(face.getWidth());
         mFaceData.setHeight(face.getHeight());
 
@@ -128,6 +138,7 @@ public class FaceTracker extends Tracker<Face> {
         mFaceData.setSmiling(face.getIsSmilingProbability() > SMILING_THRESHOLD);
 
         mFaceGraphic.update(mFaceData);
+        mUpdateLatency.record(System.nanoTime() - start);
     }
 
     @Override
@@ -148,29 +159,25 @@ public class FaceTracker extends Tracker<Face> {
      * return the coordinates of the landmark if known,
      * or approximated coordinates (based on prior data) if not.
      */
-    private PointF getLandmarkPosition(Face face, int landmarkId) {
+    private Point getLandmarkPosition(Face face, int landmarkId) {
+        Point position = mLandmarkPositions[landmarkId];
         for (Landmark landmark : face.getLandmarks()) {
             if (landmark.getType() == landmarkId) {
-                return landmark.getPosition();
+                position.set(landmark.getPosition().x, landmark.getPosition().y);
+                return position;
             }
         }
 
-        PointF landmarkPosition = mPreviousLandmarkPositions.get(landmarkId);
-        if (landmarkPosition == null) {
-            return null;
-        }
-
-        float x = face.getPosition().x + (landmarkPosition.x * face.getWidth());
-        float y = face.getPosition().y + (landmarkPosition.y * face.getHeight());
-        return new PointF(x, y);
+        return mPreviousLandmarkPositions.recall(landmarkId, face.getPosition().x,
+                face.getPosition().y, face.getWidth(), face.getHeight(), position)
+                ? position : null;
     }
 
     private void updatePreviousLandmarkPositions(Face face) {
         for (Landmark landmark : face.getLandmarks()) {
-            PointF position = landmark.getPosition();
-            float xProp = (position.x - face.getPosition().x) / face.getWidth();
-            float yProp = (position.y - face.getPosition().y) / face.getHeight();
-            mPreviousLandmarkPositions.put(landmark.getType(), new PointF(xProp, yProp));
+            mPreviousLandmarkPositions.remember(landmark.getType(), landmark.getPosition().x,
+                    landmark.getPosition().y, face.getPosition().x, face.getPosition().y,
+                    face.getWidth(), face.getHeight());
         }
     }
 }
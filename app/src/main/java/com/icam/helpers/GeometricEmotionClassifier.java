@@ -0,0 +1,86 @@
+package com.icam.helpers;
+
+import com.google.android.gms.vision.face.Face;
+import com.google.android.gms.vision.face.Landmark;
+import com.icam.interfaces.LandmarkClassifier;
+import com.icam.models.Classification;
+
+/**
+ * Tells a few clear expressions apart from the face detector's landmarks and probabilities, at
+ * the cost of a handful of multiplications per face.  The measuring and scoring is
+ * {@link ExpressionGeometry}'s; this only reads what it needs off the detector's face.<p>
+ *
+ * Turned heads distort every distance, so beyond {@link #MAX_EULER_Y} nothing is judged.
+ */
+public class GeometricEmotionClassifier implements LandmarkClassifier {
+
+    // Degrees of head turn past which the landmarks are not trusted.
+    public static final float MAX_EULER_Y = 25.0f;
+
+    // Only touched by the thread calling recognize.
+    private final float[] mLandmarks = new float[2 * ExpressionGeometry.LANDMARK_COUNT];
+    private final float[] mFeatures = new float[ExpressionGeometry.FEATURE_COUNT];
+
+    @Override
+    public String name() {
+        return "Landmarks";
+    }
+
+    @Override
+    public void recognize(Face face, Classification result) {
+        if (!measure(face, mLandmarks, mFeatures)) {
+            result.reset();
+            return;
+        }
+        ExpressionGeometry.classify(mFeatures, result);
+    }
+
+    /**
+     * Measure a face's features.
+     *
+     * @param landmarks scratch space for {@link ExpressionGeometry#LANDMARK_COUNT} x, y pairs
+     * @return false if the head is turned too far or a landmark or probability is missing
+     */
+    public static boolean measure(Face face, float[] landmarks, float[] features) {
+        if (Math.abs(face.getEulerY()) > MAX_EULER_Y) {
+            return false;
+        }
+        int found = 0;
+        for (Landmark landmark : face.getLandmarks()) {
+            int index;
+            switch (landmark.getType()) {
+                case Landmark.LEFT_EYE:
+                    index = ExpressionGeometry.LEFT_EYE;
+                    break;
+                case Landmark.RIGHT_EYE:
+                    index = ExpressionGeometry.RIGHT_EYE;
+                    break;
+                case Landmark.LEFT_MOUTH:
+                    index = ExpressionGeometry.LEFT_MOUTH;
+                    break;
+                case Landmark.RIGHT_MOUTH:
+                    index = ExpressionGeometry.RIGHT_MOUTH;
+                    break;
+                case Landmark.BOTTOM_MOUTH:
+                    index = ExpressionGeometry.BOTTOM_MOUTH;
+                    break;
+                default:
+                    continue;
+            }
+            landmarks[2 * index] = landmark.getPosition().x;
+            landmarks[2 * index + 1] = landmark.getPosition().y;
+            found |= 1 << index;
+        }
+        float leftOpen = face.getIsLeftEyeOpenProbability();
+        float rightOpen = face.getIsRightEyeOpenProbability();
+        float smile = face.getIsSmilingProbability();
+        if (found != (1 << ExpressionGeometry.LANDMARK_COUNT) - 1
+                || smile == Face.UNCOMPUTED_PROBABILITY
+                || leftOpen == Face.UNCOMPUTED_PROBABILITY
+                || rightOpen == Face.UNCOMPUTED_PROBABILITY) {
+            return false;
+        }
+        return ExpressionGeometry.measure(landmarks, (leftOpen + rightOpen) / 2.0f, smile,
+                features);
+    }
+}
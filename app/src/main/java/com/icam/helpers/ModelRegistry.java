@@ -0,0 +1,360 @@
+package com.icam.helpers;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.icam.interfaces.Classifier;
+import com.icam.interfaces.OnClassifierReadyListener;
+import com.icam.interfaces.Uint8Classifier;
+import com.icam.models.Classification;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The classifiers loaded in this process, shared by every activity and keyed by model path.<p>
+ *
+ * Creating a classifier reads the labels, loads the native runtime, parses the model and opens
+ * its sessions, and the first inference on a fresh session does one-time setup on top of that.
+ * None of this may happen on the main thread, so each model is loaded on its own thread and then
+ * run on a blank 48x48 face before anybody is told it is ready.<p>
+ *
+ * Activities {@link #acquire} a model while they show emotions and {@link #release} it when they
+ * go away.  A model nobody holds is kept warm for {@link #IDLE_EVICT_MS}, so switching between
+ * the art and emotion screens reuses it, and is closed after that or as soon as the system asks
+ * us to trim memory.
+ */
+public class ModelRegistry {
+
+    private static final String TAG = "ModelRegistry";
+
+    // Inference backends
+    public static final String BACKEND_TENSORFLOW = "tensorflow";
+    public static final String BACKEND_TFLITE = "tflite";
+    public static final String BACKEND_TFLITE_INT8 = "tflite_int8";
+    public static final String BACKEND_JAVA = "java";
+
+    // How long an unused model stays loaded.
+    public static final long IDLE_EVICT_MS = 5 * 60 * 1000;
+
+    private static final int PIXEL_WIDTH = 48;
+
+    private final AssetManager mAssets;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // by model path, guarded by this
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    private int mLoadCount;
+    private int mReuseCount;
+    private int mEvictCount;
+
+    private static class Entry {
+        final String modelPath;
+        // waiting for the load to finish
+        final List<OnClassifierReadyListener> listeners = new ArrayList<>();
+        // one per acquire not yet released, so a release only ever counts against the entry its
+        // acquire went to, even once a failed load has been replaced by a new one
+        final List<OnClassifierReadyListener> holders = new ArrayList<>();
+        Classifier classifier;
+        Exception error;
+        boolean done;
+        long idleSince;
+        Runnable evict;
+
+        Entry(String modelPath) {
+            this.modelPath = modelPath;
+        }
+    }
+
+    public ModelRegistry(Context context) {
+        mAssets = context.getApplicationContext().getAssets();
+    }
+
+    /**
+     * The asset a backend loads its model from, which is also its key in the registry.
+     */
+    public static String modelPath(String backend) {
+        if (BACKEND_TFLITE.equals(backend)) {
+            return "em_convnet.tflite";
+        } else if (BACKEND_TFLITE_INT8.equals(backend)) {
+            return "em_convnet_int8.tflite";
+        } else if (BACKEND_JAVA.equals(backend)) {
+            return "em_convnet.weights";
+        }
+        return "opt_em_convnet_5000.pb";
+    }
+
+    /**
+     * Start loading a backend without holding on to it, e.g. at process start.  Returns at once.
+     * Unless somebody acquires it, it is evicted like any idle model.
+     */
+    public void preload(String backend) {
+        Entry entry;
+        synchronized (this) {
+            entry = entryFor(backend);
+            if (entry.done && entry.holders.isEmpty()) {
+                scheduleEviction(entry);
+            }
+        }
+    }
+
+    /**
+     * Hold on to a backend's model, loading it if needed, and tell the listener on the main
+     * thread once it is ready.  If it already is, the listener is called right after this
+     * returns, unless it has been released by then.  Every call must be paired with
+     * {@link #release}.
+     */
+    public void acquire(String backend, final OnClassifierReadyListener listener) {
+        final Entry entry;
+        synchronized (this) {
+            entry = entryFor(backend);
+            entry.holders.add(listener);
+            cancelEviction(entry);
+            if (!entry.done) {
+                entry.listeners.add(listener);
+                return;
+            }
+            mReuseCount++;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                deliver(entry, listener);
+            }
+        });
+    }
+
+    /**
+     * Let go of a model acquired with the same listener.  Once nobody holds it, it is kept for
+     * {@link #IDLE_EVICT_MS} and then closed, or sooner when memory runs low, so only call this
+     * once nothing is running the classifier any more.  Does nothing if the model failed to load
+     * for this listener.
+     */
+    public synchronized void release(String backend, OnClassifierReadyListener listener) {
+        Entry entry = mEntries.get(modelPath(backend));
+        if (entry == null || !entry.holders.remove(listener)) {
+            return;
+        }
+        entry.listeners.remove(listener);
+        if (entry.holders.isEmpty() && entry.done) {
+            scheduleEviction(entry);
+        }
+    }
+
+    /**
+     * The backend's classifier if it is loaded, or null.  Does not count as holding it.
+     */
+    public synchronized Classifier get(String backend) {
+        Entry entry = mEntries.get(modelPath(backend));
+        return entry != null && entry.done ? entry.classifier : null;
+    }
+
+    /**
+     * Forward of {@link ComponentCallbacks2#onTrimMemory(int)}.  Once our UI is gone and the
+     * system is short of memory, models nobody is using are closed right away.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            evictIdle(0);
+        }
+    }
+
+    public synchronized int getLoadCount() {
+        return mLoadCount;
+    }
+
+    public synchronized int getReuseCount() {
+        return mReuseCount;
+    }
+
+    public synchronized int getEvictCount() {
+        return mEvictCount;
+    }
+
+    //closes every loaded model nobody has held for at least minIdleMs
+    //runs on the main thread, so the closing itself is left to a thread of its own
+    private void evictIdle(long minIdleMs) {
+        final List<Classifier> closing = new ArrayList<>();
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            Iterator<Entry> it = mEntries.values().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.done && entry.holders.isEmpty() && now - entry.idleSince >= minIdleMs) {
+                    cancelEviction(entry);
+                    it.remove();
+                    mEvictCount++;
+                    if (entry.classifier != null) {
+                        closing.add(entry.classifier);
+                    }
+                }
+            }
+        }
+        if (closing.isEmpty()) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                for (Classifier classifier : closing) {
+                    long start = SystemClock.elapsedRealtime();
+                    classifier.close();
+                    Log.i(TAG, "Closed idle model " + classifier.name() + " in "
+                            + (SystemClock.elapsedRealtime() - start) + " ms");
+                }
+            }
+        }, "model-closer");
+        thread.start();
+    }
+
+    // Must hold this.
+    private Entry entryFor(String backend) {
+        String modelPath = modelPath(backend);
+        Entry entry = mEntries.get(modelPath);
+        if (entry == null) {
+            entry = new Entry(modelPath);
+            mEntries.put(modelPath, entry);
+            mLoadCount++;
+            load(entry, backend);
+        }
+        return entry;
+    }
+
+    // Must hold this.
+    private void scheduleEviction(final Entry entry) {
+        entry.idleSince = SystemClock.elapsedRealtime();
+        cancelEviction(entry);
+        entry.evict = new Runnable() {
+            @Override
+            public void run() {
+                evictIdle(IDLE_EVICT_MS);
+            }
+        };
+        mMainHandler.postDelayed(entry.evict, IDLE_EVICT_MS);
+    }
+
+    // Must hold this.
+    private void cancelEviction(Entry entry) {
+        if (entry.evict != null) {
+            mMainHandler.removeCallbacks(entry.evict);
+            entry.evict = null;
+        }
+    }
+
+    private void load(final Entry entry, final String backend) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                Classifier classifier = null;
+                Exception error = null;
+                try {
+                    long start = SystemClock.elapsedRealtime();
+                    classifier = create(backend);
+                    long created = SystemClock.elapsedRealtime();
+                    warmUp(classifier);
+                    Log.i(TAG, entry.modelPath + " loaded in " + (created - start)
+                            + " ms, warmed up in " + (SystemClock.elapsedRealtime() - created) + " ms");
+                } catch (Exception e) {
+                    Log.e(TAG, "Error initializing classifier " + backend, e);
+                    classifier = null;
+                    error = e;
+                }
+                finish(entry, classifier, error);
+            }
+        }, "model-loader-" + backend);
+        thread.start();
+    }
+
+    private void finish(final Entry entry, Classifier classifier, Exception error) {
+        final List<OnClassifierReadyListener> listeners;
+        synchronized (this) {
+            entry.classifier = classifier;
+            entry.error = error;
+            entry.done = true;
+            listeners = new ArrayList<>(entry.listeners);
+            entry.listeners.clear();
+            if (error != null) {
+                // don't cache the failure, the next acquire tries again
+                mEntries.remove(entry.modelPath);
+            } else if (entry.holders.isEmpty()) {
+                scheduleEviction(entry);
+            }
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (OnClassifierReadyListener listener : listeners) {
+                    deliver(entry, listener);
+                }
+            }
+        });
+    }
+
+    // Main thread only.  Skips listeners released since the delivery was posted.
+    private void deliver(Entry entry, OnClassifierReadyListener listener) {
+        synchronized (this) {
+            if (!entry.holders.contains(listener)) {
+                return;
+            }
+        }
+        if (entry.classifier != null) {
+            listener.onClassifierReady(entry.classifier);
+        } else {
+            listener.onClassifierFailed(entry.error);
+        }
+    }
+
+    private Classifier create(String backend) throws IOException {
+        if (BACKEND_TFLITE.equals(backend) || BACKEND_TFLITE_INT8.equals(backend)) {
+            return TfLiteClassifier.create(mAssets, BACKEND_TFLITE.equals(backend)
+                    ? "CNN Lite" : "CNN Lite int8", modelPath(backend), "labels.txt", PIXEL_WIDTH);
+        } else if (BACKEND_JAVA.equals(backend)) {
+            return createJavaClassifier();
+        }
+        try {
+            return TensorFlowClassifier.create(mAssets, "CNN",
+                    modelPath(backend), "labels.txt", PIXEL_WIDTH,
+                    "input", "output_50", true, 7);
+        } catch (RuntimeException | UnsatisfiedLinkError e) {
+            //the native library didn't load on this device
+            Log.w(TAG, "TensorFlow unavailable, falling back to the Java backend", e);
+            return createJavaClassifier();
+        }
+    }
+
+    private JavaCnnClassifier createJavaClassifier() throws IOException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        InputStream in = mAssets.open(modelPath(BACKEND_JAVA));
+        try {
+            return JavaCnnClassifier.load(in, "CNN Java", 2, cores);
+        } finally {
+            in.close();
+        }
+    }
+
+    //one inference on a blank face, through the path the detector will use
+    private static void warmUp(Classifier classifier) {
+        Classification[] results = new Classification[] { new Classification() };
+        if (classifier instanceof Uint8Classifier && ((Uint8Classifier) classifier).hasUint8Input()) {
+            ((Uint8Classifier) classifier).recognizeBatch(
+                    new byte[PIXEL_WIDTH * PIXEL_WIDTH], 1, results);
+        } else {
+            classifier.recognizeBatch(new float[PIXEL_WIDTH * PIXEL_WIDTH], 1, results);
+        }
+    }
+}
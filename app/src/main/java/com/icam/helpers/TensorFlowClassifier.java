@@ -7,16 +7,18 @@ import android.content.res.AssetManager;
 
 import com.icam.interfaces.Classifier;
 import com.icam.models.Classification;
+import com.icam.models.Emotion;
 
+import org.tensorflow.Session;
+import org.tensorflow.Tensor;
 import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Helped from https://github.com/llSourcell/A_Guide_to_Running_Tensorflow_Models_on_Android/blob/master/mnistandroid/app/src/main/java/mariannelinhares/mnistandroid/MainActivity.java
@@ -26,8 +28,16 @@ public class TensorFlowClassifier implements Classifier {
 
 
     private static final float THRESHOLD = 0.1f;
+    // Each interpreter copies it into a tensor of its own once.
+    private static final float[] KEEP_PROB = new float[] { 1 };
 
-    private TensorFlowInferenceInterface tfHelper;
+    // Loads the native library and parses the graph.  Closing it closes the graph, which waits
+    // for every session on it to be closed first, so it is closed last.
+    private TensorFlowInferenceInterface graphOwner;
+    // A session's runner keeps its feeds and fetches, so each session is used by one thread at a
+    // time.  We keep several, all on the owner's graph, and hand them out one at a time.  Their
+    // own close() leaves the graph alone, unlike the inference interface's.
+    private InterpreterPool<Interpreter> interpreters;
 
     private String name;
     private String inputName;
@@ -35,9 +45,56 @@ public class TensorFlowClassifier implements Classifier {
     private int inputSize;
     private boolean feedKeepProb;
 
-    private List<String> labels;
-    private float[] output;
-    private String[] outputNames;
+    // The emotion each output row index stands for, looked up once from the labels.
+    private Emotion[] emotions;
+
+    private static class Interpreter {
+        final Session session;
+        final int numClasses;
+        // batch, height, width, channels; the batch size is set on every call
+        final long[] inputShape;
+        final Tensor<Float> keepProb;
+        // Sized for the largest batch seen so far, one row of numClasses per face.
+        float[] output;
+        FloatBuffer outputBuffer;
+        // Wraps the caller's pixel array; callers tend to reuse one array, so it is rarely rebuilt.
+        FloatBuffer input;
+        float[] inputArray;
+
+        Interpreter(Session session, int numClasses, int inputSize) {
+            this.session = session;
+            this.numClasses = numClasses;
+            this.inputShape = new long[] { 1, inputSize, inputSize, 1 };
+            // a scalar, fed as is on every call
+            this.keepProb = Tensor.create(new long[0], FloatBuffer.wrap(KEEP_PROB));
+            this.output = new float[numClasses];
+            this.outputBuffer = FloatBuffer.wrap(output);
+        }
+
+        float[] outputFor(int batchSize) {
+            if (output.length < batchSize * numClasses) {
+                output = new float[batchSize * numClasses];
+                outputBuffer = FloatBuffer.wrap(output);
+            }
+            outputBuffer.clear();
+            return output;
+        }
+
+        FloatBuffer inputFor(float[] pixels, int length) {
+            if (inputArray != pixels) {
+                inputArray = pixels;
+                input = FloatBuffer.wrap(pixels);
+            }
+            input.clear();
+            input.limit(length);
+            return input;
+        }
+
+        void close() {
+            keepProb.close();
+            session.close();
+        }
+    }
 
     //given a saved drawn model, lets read all the classification labels that are
     //stored and write them to our in memory labels list
@@ -54,12 +111,33 @@ public class TensorFlowClassifier implements Classifier {
         return labels;
     }
 
+    //the emotion each output index stands for, in label file order
+    static Emotion[] readEmotions(AssetManager am, String fileName) throws IOException {
+        List<String> labels = readLabels(am, fileName);
+        Emotion[] emotions = new Emotion[labels.size()];
+        for (int i = 0; i < emotions.length; i++) {
+            emotions[i] = Emotion.fromLabel(labels.get(i));
+            if (emotions[i] == null) {
+                throw new IOException("Unknown emotion label: " + labels.get(i));
+            }
+        }
+        return emotions;
+    }
+
     //given a model, its label file, and its metadata
     //fill out a classifier object with all the necessary
     //metadata including output prediction
     public static TensorFlowClassifier create(AssetManager assetManager, String name,
                                               String modelPath, String labelFile, int inputSize, String inputName, String outputName,
                                               boolean feedKeepProb, int numClasses) throws IOException {
+        return create(assetManager, name, modelPath, labelFile, inputSize, inputName, outputName,
+                feedKeepProb, numClasses, Runtime.getRuntime().availableProcessors());
+    }
+
+    //same as above, with poolSize interpreters that can classify concurrently
+    public static TensorFlowClassifier create(AssetManager assetManager, String name,
+                                              String modelPath, String labelFile, int inputSize, String inputName, String outputName,
+                                              boolean feedKeepProb, int numClasses, int poolSize) throws IOException {
         //intialize a classifier
         TensorFlowClassifier c = new TensorFlowClassifier();
 
@@ -70,19 +148,21 @@ public class TensorFlowClassifier implements Classifier {
         c.outputName = outputName;
 
         //read labels for label file
-        c.labels = readLabels(assetManager, labelFile);
+        c.emotions = readEmotions(assetManager, labelFile);
 
         //set its model path and where the raw asset files are
-        c.tfHelper = new TensorFlowInferenceInterface(assetManager, modelPath);
+        //the graph is parsed once, every interpreter just opens a session on it
+        c.graphOwner = new TensorFlowInferenceInterface(assetManager, modelPath);
+        c.interpreters = new InterpreterPool<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            c.interpreters.add(new Interpreter(new Session(c.graphOwner.graph()), numClasses,
+                    inputSize));
+        }
 
         //how big is the input?
         c.inputSize = inputSize;
 
-        // Pre-allocate buffer.
-        c.outputNames = new String[] { outputName };
-
         c.outputName = outputName;
-        c.output = new float[numClasses];
 
         c.feedKeepProb = feedKeepProb;
 
@@ -94,40 +174,92 @@ public class TensorFlowClassifier implements Classifier {
         return name;
     }
 
+    /**
+     * Number of interpreters, i.e. how many faces can be classified at the same time.
+     */
+    public int getPoolSize() {
+        return interpreters.size();
+    }
+
+    /**
+     * Total time callers of {@link #recognize(float[])} spent waiting for a free interpreter.
+     */
+    public long getTotalWaitNanos() {
+        return interpreters.getTotalWaitNanos();
+    }
+
+    public long getMaxWaitNanos() {
+        return interpreters.getMaxWaitNanos();
+    }
+
+    public long getRecognizeCount() {
+        return interpreters.getBorrowCount();
+    }
+
     @Override
-    public Classification recognize(final float[] pixels) {
+    public void close() {
+        for (Interpreter interpreter : interpreters.all()) {
+            interpreter.close();
+        }
+        graphOwner.close();
+    }
 
-        //using the interface
-        //give it the input name, raw pixels from the drawing,
-        //input size
-        tfHelper.feed(inputName, pixels, 1, inputSize, inputSize, 1);
+    @Override
+    public Classification recognize(final float[] pixels) {
+        Classification[] results = new Classification[] { new Classification() };
+        recognizeBatch(pixels, 1, results);
+        return results[0];
+    }
 
-        //probabilities
-        if (feedKeepProb) {
-            tfHelper.feed("keep_prob", new float[] { 1 });
+    @Override
+    public void recognizeBatch(final float[] pixels, int count, Classification[] results) {
+        Interpreter interpreter;
+        try {
+            interpreter = interpreters.borrow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (int i = 0; i < count; i++) {
+                results[i].reset();
+            }
+            return;
         }
-        //get the possible outputs
-        tfHelper.run(outputNames);
-
-        //get the output
-        tfHelper.fetch(outputName, output);
-
-        // Find the best classification
-        //for each output prediction
-        //if its above the threshold for accuracy we predefined
-        //write it out to the view
-        Classification ans = new Classification();
-        Map<String,Float> classificationData = new HashMap<>();
-        for (int i = 0; i < output.length; ++i) {
-            classificationData.put(labels.get(i), output[i]);
-            System.out.println(output[i]);
-            System.out.println(labels.get(i));
-            if (output[i] > THRESHOLD && output[i] > ans.getConf()) {
-                ans.update(output[i], labels.get(i));
+        try {
+            float[] output = run(interpreter, pixels, count);
+            for (int i = 0; i < count; i++) {
+                results[i].update(output, i * interpreter.numClasses, emotions, THRESHOLD);
             }
+        } finally {
+            interpreters.release(interpreter);
         }
-        ans.putPredictions(classificationData);
+    }
 
-        return ans;
+    //run count faces through the graph in one session call
+    //returns the interpreter's output buffer, count rows of class probabilities
+    private float[] run(Interpreter interpreter, final float[] pixels, int count) {
+        float[] output = interpreter.outputFor(count);
+
+        //the tensor must match the buffer exactly, pixels may be larger than count images
+        interpreter.inputShape[0] = count;
+        Tensor<Float> input = Tensor.create(interpreter.inputShape,
+                interpreter.inputFor(pixels, count * inputSize * inputSize));
+        try {
+            Session.Runner runner = interpreter.session.runner().feed(inputName, input);
+            //probabilities
+            if (feedKeepProb) {
+                runner.feed("keep_prob", interpreter.keepProb);
+            }
+            //get the output
+            List<Tensor<?>> results = runner.fetch(outputName).run();
+            try {
+                results.get(0).writeTo(interpreter.outputBuffer);
+            } finally {
+                for (Tensor<?> result : results) {
+                    result.close();
+                }
+            }
+        } finally {
+            input.close();
+        }
+        return output;
     }
 }
@@ -0,0 +1,272 @@
+package com.icam.helpers;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import com.icam.interfaces.Uint8Classifier;
+import com.icam.models.Classification;
+import com.icam.models.Emotion;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Runs the emotion CNN with TensorFlow Lite.<p>
+ *
+ * The .tflite flatbuffer is memory-mapped straight out of the APK (it must be stored
+ * uncompressed, see {@code aaptOptions} in the app's build.gradle), so the weights are paged in by
+ * the OS on demand and never copied onto the Java heap.  All interpreters in the pool share that
+ * one mapping.  Inputs and outputs are passed as direct, native-order buffers, which TF Lite copies
+ * into its tensors without going through Java arrays.<p>
+ *
+ * Both the float model and the post-training quantized one (see ML/quantize_tflite.py) are
+ * supported.  The quantized model takes uint8 luma exactly as it comes out of the camera, so the
+ * byte path of {@link Uint8Classifier} feeds it without any conversion.
+ */
+public class TfLiteClassifier implements Uint8Classifier {
+
+    private static final float THRESHOLD = 0.1f;
+    private static final int BYTES_PER_FLOAT = 4;
+    // TF Lite always quantizes softmax output to [0, 1) with a scale of 1/256 and no offset.
+    private static final float UINT8_SOFTMAX_SCALE = 1.0f / 256.0f;
+
+    private String name;
+    private Emotion[] emotions;
+    private MappedByteBuffer model;
+    private int[] inputShape;
+    private boolean uint8Input;
+    private boolean uint8Output;
+    private InterpreterPool<Runner> interpreters;
+
+    /**
+     * One interpreter plus its I/O buffers.  TF Lite wants a buffer of exactly the tensor's size,
+     * so buffers are kept per batch size and created the first time a batch of that size is seen.
+     */
+    private static class Runner {
+        final Interpreter interpreter;
+        final int numClasses;
+        final int inputElements;
+        final int inputBytes;
+        final int outputBytes;
+        ByteBuffer[] inputs = new ByteBuffer[1];
+        FloatBuffer[] inputViews = new FloatBuffer[1];
+        ByteBuffer[] outputs = new ByteBuffer[1];
+        FloatBuffer[] outputViews = new FloatBuffer[1];
+        float[] scores;
+        int batchSize = 1;
+
+        Runner(Interpreter interpreter, int inputElements, int numClasses,
+               boolean uint8Input, boolean uint8Output) {
+            this.interpreter = interpreter;
+            this.inputElements = inputElements;
+            this.numClasses = numClasses;
+            this.inputBytes = uint8Input ? 1 : BYTES_PER_FLOAT;
+            this.outputBytes = uint8Output ? 1 : BYTES_PER_FLOAT;
+            this.scores = new float[numClasses];
+        }
+
+        void ensureBatch(int count, int[] inputShape) {
+            if (inputs.length <= count) {
+                inputs = grow(inputs, count + 1);
+                inputViews = grow(inputViews, count + 1);
+                outputs = grow(outputs, count + 1);
+                outputViews = grow(outputViews, count + 1);
+            }
+            if (inputs[count] == null) {
+                inputs[count] = ByteBuffer.allocateDirect(count * inputElements * inputBytes)
+                        .order(ByteOrder.nativeOrder());
+                inputViews[count] = inputs[count].asFloatBuffer();
+                outputs[count] = ByteBuffer.allocateDirect(count * numClasses * outputBytes)
+                        .order(ByteOrder.nativeOrder());
+                outputViews[count] = outputs[count].asFloatBuffer();
+            }
+            if (scores.length < count * numClasses) {
+                scores = new float[count * numClasses];
+            }
+            if (batchSize != count) {
+                int[] shape = inputShape.clone();
+                shape[0] = count;
+                interpreter.resizeInput(0, shape);
+                batchSize = count;
+            }
+        }
+
+        private static <T> T[] grow(T[] array, int length) {
+            return Arrays.copyOf(array, length);
+        }
+    }
+    //map the model file out of the apk without reading it into memory
+    static MappedByteBuffer loadModelFile(AssetManager assetManager, String modelPath) throws IOException {
+        AssetFileDescriptor fileDescriptor = assetManager.openFd(modelPath);
+        try {
+            FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
+            FileChannel fileChannel = inputStream.getChannel();
+            return fileChannel.map(FileChannel.MapMode.READ_ONLY,
+                    fileDescriptor.getStartOffset(), fileDescriptor.getDeclaredLength());
+        } finally {
+            fileDescriptor.close();
+        }
+    }
+
+    public static TfLiteClassifier create(AssetManager assetManager, String name, String modelPath,
+                                          String labelFile, int inputSize) throws IOException {
+        return create(assetManager, name, modelPath, labelFile, inputSize,
+                Runtime.getRuntime().availableProcessors(), 1);
+    }
+
+    //poolSize interpreters classify concurrently, each using numThreads threads
+    public static TfLiteClassifier create(AssetManager assetManager, String name, String modelPath,
+                                          String labelFile, int inputSize, int poolSize,
+                                          int numThreads) throws IOException {
+        TfLiteClassifier c = new TfLiteClassifier();
+        c.name = name;
+        c.emotions = TensorFlowClassifier.readEmotions(assetManager, labelFile);
+        c.model = loadModelFile(assetManager, modelPath);
+
+        Interpreter.Options options = new Interpreter.Options().setNumThreads(numThreads);
+        c.interpreters = new InterpreterPool<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            Interpreter interpreter = new Interpreter(c.model, options);
+            if (c.inputShape == null) {
+                // e.g. [1, 2304] for the flattened placeholder, the batch is always the first axis
+                c.inputShape = interpreter.getInputTensor(0).shape();
+                c.uint8Input = interpreter.getInputTensor(0).dataType() == DataType.UINT8;
+                c.uint8Output = interpreter.getOutputTensor(0).dataType() == DataType.UINT8;
+            }
+            c.interpreters.add(new Runner(interpreter, inputSize * inputSize, c.emotions.length,
+                    c.uint8Input, c.uint8Output));
+        }
+        return c;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    public int getPoolSize() {
+        return interpreters.size();
+    }
+
+    public long getTotalWaitNanos() {
+        return interpreters.getTotalWaitNanos();
+    }
+
+    public long getRecognizeCount() {
+        return interpreters.getBorrowCount();
+    }
+
+    @Override
+    public void close() {
+        for (Runner runner : interpreters.all()) {
+            runner.interpreter.close();
+        }
+    }
+
+    @Override
+    public Classification recognize(final float[] pixels) {
+        Classification[] results = new Classification[] { new Classification() };
+        recognizeBatch(pixels, 1, results);
+        return results[0];
+    }
+
+    @Override
+    public boolean hasUint8Input() {
+        return uint8Input;
+    }
+
+    @Override
+    public void recognizeBatch(final float[] pixels, int count, Classification[] results) {
+        Runner runner = borrow(count, results);
+        if (runner == null) {
+            return;
+        }
+        try {
+            runner.ensureBatch(count, inputShape);
+            int length = count * runner.inputElements;
+            if (uint8Input) {
+                ByteBuffer input = runner.inputs[count];
+                for (int i = 0; i < length; i++) {
+                    int value = (int) (pixels[i] * 255 + 0.5f);
+                    input.put(i, (byte) (value < 0 ? 0 : (value > 255 ? 255 : value)));
+                }
+            } else {
+                FloatBuffer input = runner.inputViews[count];
+                input.clear();
+                input.put(pixels, 0, length);
+            }
+            run(runner, count, results);
+        } finally {
+            interpreters.release(runner);
+        }
+    }
+
+    @Override
+    public void recognizeBatch(final byte[] pixels, int count, Classification[] results) {
+        Runner runner = borrow(count, results);
+        if (runner == null) {
+            return;
+        }
+        try {
+            runner.ensureBatch(count, inputShape);
+            int length = count * runner.inputElements;
+            if (uint8Input) {
+                ByteBuffer input = runner.inputs[count];
+                input.clear();
+                input.put(pixels, 0, length);
+            } else {
+                FloatBuffer input = runner.inputViews[count];
+                for (int i = 0; i < length; i++) {
+                    input.put(i, (pixels[i] & 0xff) / 255.0f);
+                }
+            }
+            run(runner, count, results);
+        } finally {
+            interpreters.release(runner);
+        }
+    }
+
+    //returns null, with the results cleared, if interrupted while waiting
+    private Runner borrow(int count, Classification[] results) {
+        try {
+            return interpreters.borrow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (int i = 0; i < count; i++) {
+                results[i].reset();
+            }
+            return null;
+        }
+    }
+
+    private void run(Runner runner, int count, Classification[] results) {
+        ByteBuffer input = runner.inputs[count];
+        input.rewind();
+        ByteBuffer output = runner.outputs[count];
+        output.clear();
+        runner.interpreter.run(input, output);
+
+        int length = count * runner.numClasses;
+        if (uint8Output) {
+            for (int i = 0; i < length; i++) {
+                runner.scores[i] = (output.get(i) & 0xff) * UINT8_SOFTMAX_SCALE;
+            }
+        } else {
+            FloatBuffer scores = runner.outputViews[count];
+            scores.clear();
+            scores.get(runner.scores, 0, length);
+        }
+        for (int i = 0; i < count; i++) {
+            results[i].update(runner.scores, i * runner.numClasses, emotions, THRESHOLD);
+        }
+    }
+}
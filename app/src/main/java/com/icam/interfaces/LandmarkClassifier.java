@@ -0,0 +1,15 @@
+package com.icam.interfaces;
+
+import com.google.android.gms.vision.face.Face;
+import com.icam.models.Classification;
+
+//classifies a face from what the face detector already found out about it
+    //(landmarks, smile and eye open probabilities) instead of from its pixels
+    //cheap enough to run on every face of every frame
+public interface LandmarkClassifier {
+    String name();
+
+    //writes the result into result, which is reset first
+    //a face that can't be judged gets no emotion
+    void recognize(Face face, Classification result);
+}
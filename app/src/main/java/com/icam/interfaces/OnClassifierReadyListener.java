@@ -0,0 +1,12 @@
+package com.icam.interfaces;
+
+//told when a classifier that was loading in the background can be used
+    //both calls arrive on the main thread
+public interface OnClassifierReadyListener {
+
+    //the classifier is loaded and has run once, so its first real call is as fast as any other
+    void onClassifierReady(Classifier classifier);
+
+    //the model could not be loaded, emotions stay off
+    void onClassifierFailed(Exception error);
+}
@@ -1,27 +1,29 @@
 package com.icam.models;
 
-import android.graphics.PointF;
-
-import com.google.android.gms.vision.face.Contour;
 import com.google.android.gms.vision.face.Face;
-import com.google.android.gms.vision.face.Landmark;
 
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * The latest classification of one tracked face.<p>
+ *
+ * Results are written by the inference workers and read by the trackers, so the result fields
+ * are only touched while holding the instance lock.  Each result is stamped with the sequence
+ * number of the frame it was computed from; a result from an older frame than the current one
+ * arrives late and is dropped.  At most one inference of the face is under way at a time; the
+ * detector claims the face before handing it to a worker and the worker lets it go when done.
+ */
 public class FaceEmotions {
 
-    public static final String ANGRY = "Angry";
-    public static final String DISGUST = "Disgust";
-    public static final String FEAR = "Fear";
-    public static final String HAPPY = "Happy";
-    public static final String SAD = "Sad";
-    public static final String SUPRISE = "Surprise";
-    public static final String NUTRAL = "Neutral";
-
-    private String emotion;
+    private Emotion emotion;
     private float conf;
-    private Face face;
-    private Map<String, Float> predictions;
+    private volatile Face face;
+    // Camera timestamp of the last frame the face was in.
+    private volatile long lastSeen;
+    // Sequence number of the frame the current result came from, -1 for none.
+    private long sequence = -1;
+    private final EmotionVector predictions = new EmotionVector();
+    private final AtomicBoolean inferenceInFlight = new AtomicBoolean();
 
     public Face getFace() {
         return face;
@@ -31,27 +33,78 @@ public class FaceEmotions {
         this.face = face;
     }
 
-    public String getEmotion() {
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public void setLastSeen(long timestampMs) {
+        this.lastSeen = timestampMs;
+    }
+
+    public boolean isInferenceInFlight() {
+        return inferenceInFlight.get();
+    }
+
+    /**
+     * Claim the face for one inference.
+     *
+     * @return false if it is already being classified
+     */
+    public boolean startInference() {
+        return inferenceInFlight.compareAndSet(false, true);
+    }
+
+    /**
+     * Let go of the face once its inference has finished, failed or been dropped.
+     */
+    public void finishInference() {
+        inferenceInFlight.set(false);
+    }
+
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    public synchronized Emotion getEmotion() {
         return emotion;
     }
 
-    public void setEmotion(String emotion) {
+    public synchronized void setEmotion(Emotion emotion) {
         this.emotion = emotion;
     }
 
-    public float getConf() {
+    public synchronized float getConf() {
         return conf;
     }
 
-    public void setConf(float conf) {
+    public synchronized void setConf(float conf) {
         this.conf = conf;
     }
 
-    public Map<String, Float> getPredictions() {
-        return predictions;
+    /**
+     * Take over the result of a classification of the frame with the given sequence number,
+     * unless the current result comes from a newer frame.  A classification without a label
+     * (nothing was confident enough) clears the emotion but keeps the raw scores.
+     *
+     * @return false if the result was stale and dropped
+     */
+    public synchronized boolean update(Classification res, long frameSequence) {
+        if (frameSequence < sequence) {
+            return false;
+        }
+        sequence = frameSequence;
+        emotion = res.getEmotion();
+        conf = res.getEmotion() == null ? 0 : res.getConf();
+        predictions.copyFrom(res.getPredictions());
+        return true;
     }
 
-    public void setPredictions(Map<String, Float> predictions) {
-        this.predictions = predictions;
+    /**
+     * Copy the current result into the tracker's face data.
+     */
+    public synchronized void copyTo(FaceData data) {
+        data.setEmotion(emotion);
+        data.setEmotionCoef(conf);
+        data.getPredictions().copyFrom(predictions);
     }
 }
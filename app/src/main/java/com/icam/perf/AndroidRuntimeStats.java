@@ -0,0 +1,52 @@
+package com.icam.perf;
+
+import android.os.Build;
+import android.os.Debug;
+
+/**
+ * {@link RuntimeStats} from ART.  Allocations are counted once this is created, and counting
+ * makes every allocation in the app slower, so it is meant for debug builds.  The GC figures
+ * need Android 6.0; older versions report them as unknown.
+ */
+@SuppressWarnings("deprecation")
+public class AndroidRuntimeStats implements RuntimeStats {
+
+    public AndroidRuntimeStats() {
+        Debug.startAllocCounting();
+    }
+
+    @Override
+    public long getThreadAllocatedBytes() {
+        return Debug.getThreadAllocSize();
+    }
+
+    @Override
+    public long getGcCount() {
+        return runtimeStat("art.gc.gc-count");
+    }
+
+    @Override
+    public long getGcTimeMs() {
+        return runtimeStat("art.gc.gc-time");
+    }
+
+    @Override
+    public long getBlockingGcTimeMs() {
+        return runtimeStat("art.gc.blocking-gc-time");
+    }
+
+    private static long runtimeStat(String name) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return -1;
+        }
+        String value = Debug.getRuntimeStat(name);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.icam.pipeline;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.icam.perf.FrameTrace;
+
+/**
+ * Runs a Mobile Vision detector, e.g. the face detector, over each frame.  It reads the frame's
+ * pixels, so it has to run on the camera thread: give it no workers of its own.  Each frame is
+ * recorded in the {@link FrameTrace}.
+ */
+public class DetectStage<T> implements Stage<Frame, FrameDetections<T>>, Releasable {
+
+    private final Detector<T> mDetector;
+    private final FrameTrace mTrace = FrameTrace.getDefault();
+
+    public DetectStage(Detector<T> detector) {
+        mDetector = detector;
+    }
+
+    public boolean isOperational() {
+        return mDetector.isOperational();
+    }
+
+    @Override
+    public FrameDetections<T> process(Frame frame) {
+        long start = System.nanoTime();
+        SparseArray<T> detections = mDetector.detect(frame);
+        Frame.Metadata metadata = frame.getMetadata();
+        mTrace.frame(metadata.getId(), metadata.getTimestampMillis(), start,
+                System.nanoTime() - start, detections.size());
+        return new FrameDetections<>(frame, detections);
+    }
+
+    @Override
+    public void release() {
+        mDetector.release();
+    }
+}
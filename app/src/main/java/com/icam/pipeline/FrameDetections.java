@@ -0,0 +1,31 @@
+package com.icam.pipeline;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Frame;
+
+/**
+ * What was found in one camera frame, by tracking id, on its way down a pipeline.
+ */
+public class FrameDetections<T> {
+
+    private final Frame mFrame;
+    private final SparseArray<T> mItems;
+
+    public FrameDetections(Frame frame, SparseArray<T> items) {
+        mFrame = frame;
+        mItems = items;
+    }
+
+    /**
+     * The frame the items were found in.  Its pixels are only valid until the camera thread is
+     * done with it; stages on other threads must not read them.
+     */
+    public Frame getFrame() {
+        return mFrame;
+    }
+
+    public SparseArray<T> getItems() {
+        return mItems;
+    }
+}
@@ -0,0 +1,61 @@
+package com.icam.pipeline;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.icam.perf.PerfRegistry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets a CameraSource feed a {@link Pipeline}: every preview frame is submitted to it on the
+ * camera thread, and releasing the camera shuts the pipeline down.<p>
+ *
+ * The pipeline's stages deliver their own results, so this detector reports nothing itself;
+ * the processor it is given only satisfies the CameraSource.
+ */
+public class PipelineDetector extends Detector<Object> {
+
+    private final Pipeline<Frame, ?> mPipeline;
+    private final boolean mOperational;
+    private final AtomicLong mFrames = PerfRegistry.getDefault().counter(PerfRegistry.COUNT_FRAMES);
+    // What detect reports for every frame, never filled in.
+    private final SparseArray<Object> mNoDetections = new SparseArray<>();
+
+    public PipelineDetector(Pipeline<Frame, ?> pipeline, boolean operational) {
+        mPipeline = pipeline;
+        mOperational = operational;
+        setProcessor(new Processor<Object>() {
+            @Override
+            public void receiveDetections(Detections<Object> detections) {
+            }
+
+            @Override
+            public void release() {
+            }
+        });
+    }
+
+    public Pipeline<Frame, ?> getPipeline() {
+        return mPipeline;
+    }
+
+    @Override
+    public SparseArray<Object> detect(Frame frame) {
+        mFrames.incrementAndGet();
+        mPipeline.submit(frame);
+        return mNoDetections;
+    }
+
+    @Override
+    public boolean isOperational() {
+        return mOperational;
+    }
+
+    @Override
+    public void release() {
+        mPipeline.shutdown();
+        super.release();
+    }
+}
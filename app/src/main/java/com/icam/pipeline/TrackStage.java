@@ -0,0 +1,34 @@
+package com.icam.pipeline;
+
+import com.google.android.gms.vision.Detector;
+
+/**
+ * Hands each frame's detections to a Mobile Vision processor, normally a MultiProcessor whose
+ * trackers draw on the overlay, and passes them on unchanged.
+ */
+public class TrackStage<T> implements Stage<FrameDetections<T>, FrameDetections<T>>, Releasable {
+
+    private final Detector.Processor<T> mProcessor;
+    private final boolean mOperational;
+
+    /**
+     * @param operational whether the detector feeding this stage is ready, passed on to the
+     *                    processor with every frame
+     */
+    public TrackStage(Detector.Processor<T> processor, boolean operational) {
+        mProcessor = processor;
+        mOperational = operational;
+    }
+
+    @Override
+    public FrameDetections<T> process(FrameDetections<T> detections) {
+        mProcessor.receiveDetections(new Detector.Detections<>(detections.getItems(),
+                detections.getFrame().getMetadata(), mOperational));
+        return detections;
+    }
+
+    @Override
+    public void release() {
+        mProcessor.release();
+    }
+}
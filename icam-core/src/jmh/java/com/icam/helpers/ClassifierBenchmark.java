@@ -0,0 +1,100 @@
+package com.icam.helpers;
+
+import com.icam.models.Classification;
+import com.icam.models.Emotion;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * {@code Classifier.recognize} and {@code recognizeBatch} on the Java CNN, the one backend that
+ * runs on a plain JVM.  The network has the shape of ML/cnn.py with random weights: the time
+ * depends on the shape only.
+ */
+@State(Scope.Thread)
+public class ClassifierBenchmark {
+
+    private static final int SIZE = 48;
+    private static final int BATCH = 4;
+    // kind, in, out, kernel, as in ML/cnn.py
+    private static final int[][] LAYERS = {
+            { JavaCnnClassifier.CONV_RELU_POOL, 1, 64, 3 },
+            { JavaCnnClassifier.CONV_RELU_POOL, 64, 128, 3 },
+            { JavaCnnClassifier.CONV_RELU_POOL, 128, 256, 3 },
+            { JavaCnnClassifier.DENSE_RELU, 6 * 6 * 256, 1536, 0 },
+            { JavaCnnClassifier.DENSE, 1536, Emotion.COUNT, 0 },
+    };
+
+    // threads one forward pass is split over
+    @Param({ "1", "4" })
+    public int parallelism;
+
+    private JavaCnnClassifier mClassifier;
+    private final float[] mPixels = new float[BATCH * SIZE * SIZE];
+    private final Classification[] mResults = new Classification[BATCH];
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(1);
+        mClassifier = JavaCnnClassifier.load(new ByteArrayInputStream(randomWeights(random)),
+                "benchmark", 1, parallelism);
+        for (int i = 0; i < mPixels.length; i++) {
+            mPixels[i] = random.nextFloat() * 255.0f;
+        }
+        for (int i = 0; i < BATCH; i++) {
+            mResults[i] = new Classification();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mClassifier.close();
+    }
+
+    @Benchmark
+    public Classification recognize() {
+        return mClassifier.recognize(mPixels);
+    }
+
+    // four faces in one call
+    @Benchmark
+    public Classification[] recognizeBatch() {
+        mClassifier.recognizeBatch(mPixels, BATCH, mResults);
+        return mResults;
+    }
+
+    // a float32 weights file in the format of ML/export_weights.py
+    private static byte[] randomWeights(Random random) {
+        int floats = 0;
+        for (int[] layer : LAYERS) {
+            int kernel = Math.max(1, layer[3]);
+            floats += kernel * kernel * layer[1] * layer[2] + layer[2];
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(20 + LAYERS.length * 16 + floats * 4)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(new byte[] { 'E', 'M', 'C', 'N' });
+        buffer.putInt(1).putInt(JavaCnnClassifier.DTYPE_FLOAT32).putInt(SIZE)
+                .putInt(LAYERS.length);
+        for (int[] layer : LAYERS) {
+            for (int value : layer) {
+                buffer.putInt(value);
+            }
+            int kernel = Math.max(1, layer[3]);
+            float scale = (float) Math.sqrt(2.0 / (kernel * kernel * layer[1]));
+            for (int i = kernel * kernel * layer[1] * layer[2] + layer[2]; i > 0; i--) {
+                buffer.putFloat((float) random.nextGaussian() * scale);
+            }
+        }
+        return buffer.array();
+    }
+}
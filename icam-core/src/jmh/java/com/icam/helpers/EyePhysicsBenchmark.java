@@ -0,0 +1,33 @@
+package com.icam.helpers;
+
+import com.icam.models.Point;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * One step of the googly eye simulation per call, on an eye that jerks sideways every few
+ * frames so that the iris keeps bouncing, at a steady 30 frames per second of simulated time.
+ */
+@State(Scope.Thread)
+public class EyePhysicsBenchmark {
+
+    private static final long FRAME_MS = 33;
+
+    private final EyePhysics mPhysics = new EyePhysics();
+    private final Point[] mEyes = {
+            new Point(300.0f, 200.0f),
+            new Point(330.0f, 205.0f),
+            new Point(270.0f, 195.0f),
+    };
+    private long mNowMs;
+    private int mFrame;
+
+    @Benchmark
+    public Point nextIrisPosition() {
+        mNowMs += FRAME_MS;
+        Point eye = mEyes[(mFrame++ >> 2) % mEyes.length];
+        return mPhysics.nextIrisPosition(eye, 40.0f, 20.0f, mNowMs);
+    }
+}
@@ -0,0 +1,111 @@
+package com.icam.helpers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Cropping a face out of the luma plane of a 640x480 NV21 frame into the model's 48x48 input,
+ * for faces from about model size to most of the frame.
+ */
+@State(Scope.Thread)
+public class FaceCropBenchmark {
+
+    private static final int FRAME_WIDTH = 640;
+    private static final int FRAME_HEIGHT = 480;
+    private static final int SIZE = 48;
+
+    // face box side in frame pixels
+    @Param({ "48", "96", "192", "384" })
+    public int faceSize;
+
+    private byte[] mFrame;
+    private FaceCropper mCropper;
+    private float mLeft;
+    private float mTop;
+    private float mLeftEyeX;
+    private float mRightEyeX;
+    private float mEyeY;
+    private float mRolledRightEyeX;
+    private float mRolledRightEyeY;
+    private final float[] mFloatOut = new float[SIZE * SIZE];
+    private final byte[] mByteOut = new byte[SIZE * SIZE];
+    private final int[] mHistogram = new int[256];
+
+    @Setup
+    public void setUp() {
+        // NV21: the luma plane followed by half as many bytes of interleaved chroma
+        mFrame = new byte[FRAME_WIDTH * FRAME_HEIGHT * 3 / 2];
+        new Random(1).nextBytes(mFrame);
+        mCropper = new FaceCropper(SIZE);
+        mLeft = (FRAME_WIDTH - faceSize) / 2.0f + 0.5f;
+        mTop = (FRAME_HEIGHT - faceSize) / 2.0f + 0.5f;
+        mLeftEyeX = mLeft + FaceCropper.LEFT_EYE_X * faceSize;
+        mRightEyeX = mLeft + FaceCropper.RIGHT_EYE_X * faceSize;
+        mEyeY = mTop + FaceCropper.EYE_Y * faceSize;
+        // the same eye distance, 15 degrees off level
+        float eyeDistance = mRightEyeX - mLeftEyeX;
+        double roll = Math.toRadians(15.0);
+        mRolledRightEyeX = mLeftEyeX + (float) (eyeDistance * Math.cos(roll));
+        mRolledRightEyeY = mEyeY - (float) (eyeDistance * Math.sin(roll));
+    }
+
+    @Benchmark
+    public float[] cropFloat() {
+        mCropper.crop(mFrame, 0, FRAME_WIDTH, FRAME_HEIGHT, mLeft, mTop, faceSize, faceSize,
+                mFloatOut, 0);
+        return mFloatOut;
+    }
+
+    @Benchmark
+    public byte[] cropUint8() {
+        mCropper.crop(mFrame, 0, FRAME_WIDTH, FRAME_HEIGHT, mLeft, mTop, faceSize, faceSize,
+                mByteOut, 0);
+        return mByteOut;
+    }
+
+    // the eye-aligned warp against the area crops above, with the same output: eyes level and
+    // as far apart as the box puts them
+    @Benchmark
+    public float[] cropAlignedFloat() {
+        mCropper.cropAligned(mFrame, 0, FRAME_WIDTH, FRAME_HEIGHT, mLeftEyeX, mEyeY, mRightEyeX,
+                mEyeY, mFloatOut, 0);
+        return mFloatOut;
+    }
+
+    @Benchmark
+    public byte[] cropAlignedUint8() {
+        mCropper.cropAligned(mFrame, 0, FRAME_WIDTH, FRAME_HEIGHT, mLeftEyeX, mEyeY, mRightEyeX,
+                mEyeY, mByteOut, 0);
+        return mByteOut;
+    }
+
+    // and with the head rolled, so the taps no longer line up with the frame's rows
+    @Benchmark
+    public byte[] cropAlignedRolledUint8() {
+        mCropper.cropAligned(mFrame, 0, FRAME_WIDTH, FRAME_HEIGHT, mLeftEyeX, mEyeY,
+                mRolledRightEyeX, mRolledRightEyeY, mByteOut, 0);
+        return mByteOut;
+    }
+
+    // cropUint8 counting the crop's levels for GLOBAL equalization on the way
+    @Benchmark
+    public byte[] cropUint8Counted() {
+        mCropper.setHistogram(mHistogram);
+        mCropper.crop(mFrame, 0, FRAME_WIDTH, FRAME_HEIGHT, mLeft, mTop, faceSize, faceSize,
+                mByteOut, 0);
+        mCropper.setHistogram(null);
+        return mByteOut;
+    }
+
+    @Benchmark
+    public float[] cropRotated() {
+        mCropper.cropRotated(mFrame, 0, FRAME_WIDTH, FRAME_HEIGHT, mLeft, mTop, faceSize,
+                faceSize, 15.0f, mFloatOut, 0);
+        return mFloatOut;
+    }
+}
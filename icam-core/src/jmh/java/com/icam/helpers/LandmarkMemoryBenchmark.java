@@ -0,0 +1,65 @@
+package com.icam.helpers;
+
+import com.icam.models.Point;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * What the trackers do with landmarks on every frame: remember the twelve the detector reports,
+ * then look up the twelve they draw from.  Compared against the boxed map the trackers used
+ * before {@link LandmarkMemory}.
+ */
+@State(Scope.Thread)
+public class LandmarkMemoryBenchmark {
+
+    private static final int LANDMARKS = 12;
+
+    private final float[] mX = new float[LANDMARKS];
+    private final float[] mY = new float[LANDMARKS];
+    private final LandmarkMemory mMemory = new LandmarkMemory();
+    private final Map<Integer, Point> mMap = new HashMap<>();
+    private float mLeft = 200.0f;
+    private float mTop = 120.0f;
+    private float mSize = 180.0f;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (int i = 0; i < LANDMARKS; i++) {
+            mX[i] = mLeft + random.nextFloat() * mSize;
+            mY[i] = mTop + random.nextFloat() * mSize;
+        }
+    }
+
+    @Benchmark
+    public void landmarkMemory(Blackhole blackhole) {
+        for (int type = 0; type < LANDMARKS; type++) {
+            mMemory.remember(type, mX[type], mY[type], mLeft, mTop, mSize, mSize);
+        }
+        for (int type = 0; type < LANDMARKS; type++) {
+            blackhole.consume(mMemory.recall(type, mLeft + 1, mTop, mSize, mSize));
+        }
+    }
+
+    @Benchmark
+    public void hashMapBaseline(Blackhole blackhole) {
+        for (int type = 0; type < LANDMARKS; type++) {
+            float xProp = (mX[type] - mLeft) / mSize;
+            float yProp = (mY[type] - mTop) / mSize;
+            mMap.put(type, new Point(xProp, yProp));
+        }
+        for (int type = 0; type < LANDMARKS; type++) {
+            Point proportion = mMap.get(type);
+            blackhole.consume(new Point(mLeft + 1 + proportion.x * mSize,
+                    mTop + proportion.y * mSize));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.icam.helpers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Normalizing one 48x48 face crop, in each {@link LumaNormalizer} mode, against the loop it
+ * replaced, which took the blue channel of every ARGB pixel of a scaled Bitmap and cast it to
+ * float into a fresh array.
+ */
+@State(Scope.Thread)
+public class LumaNormalizerBenchmark {
+
+    private static final int SIZE = 48;
+    private static final int PIXELS = SIZE * SIZE;
+
+    @Param({ "NONE", "GLOBAL", "CLAHE" })
+    public String mode;
+
+    private final int[] mArgb = new int[PIXELS];
+    private final byte[] mLuma = new byte[PIXELS];
+    private final float[] mFloatOut = new float[PIXELS];
+    private final byte[] mByteOut = new byte[PIXELS];
+    // the crop's levels, as the cropper counts them while cropping
+    private final int[] mHistogram = new int[256];
+    private LumaNormalizer mNormalizer;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (int i = 0; i < PIXELS; i++) {
+            int value = 60 + random.nextInt(120);
+            mArgb[i] = 0xff000000 | value << 16 | value << 8 | value;
+            mLuma[i] = (byte) value;
+        }
+        int m = "CLAHE".equals(mode) ? LumaNormalizer.CLAHE
+                : "GLOBAL".equals(mode) ? LumaNormalizer.GLOBAL : LumaNormalizer.NONE;
+        mNormalizer = new LumaNormalizer(SIZE, m);
+        for (int i = 0; i < PIXELS; i++) {
+            mHistogram[mLuma[i] & 0xff]++;
+        }
+    }
+
+    @Benchmark
+    public float[] normalizeFloat() {
+        mNormalizer.normalize(mLuma, 0, mFloatOut, 0);
+        return mFloatOut;
+    }
+
+    @Benchmark
+    public byte[] normalizeUint8() {
+        mNormalizer.normalize(mLuma, 0, mByteOut, 0);
+        return mByteOut;
+    }
+
+    // what the crop stage runs, with the histogram counted by FaceCropper.setHistogram; only
+    // GLOBAL is any different
+    @Benchmark
+    public float[] normalizeCountedFloat() {
+        mNormalizer.normalize(mLuma, 0, mHistogram, mFloatOut, 0);
+        return mFloatOut;
+    }
+
+    @Benchmark
+    public byte[] normalizeCountedUint8() {
+        mNormalizer.normalize(mLuma, 0, mHistogram, mByteOut, 0);
+        return mByteOut;
+    }
+
+    // the same for every mode: the old path had no normalization
+    @Benchmark
+    public float[] argbBaseline() {
+        float[] normalized = new float[mArgb.length];
+        for (int i = 0; i < mArgb.length; i++) {
+            int b = mArgb[i] & 0xff;
+            normalized[i] = (float) (b);
+        }
+        return normalized;
+    }
+}
@@ -0,0 +1,43 @@
+package com.icam.models;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Turning a batch of raw classifier output rows into results, as the TensorFlow, TF Lite and Java
+ * CNN classifiers do after every inference: every class score is kept, and the best one above the
+ * threshold wins.
+ */
+@State(Scope.Thread)
+public class ClassificationBenchmark {
+
+    private static final int BATCH = 4;
+    private static final float THRESHOLD = 0.1f;
+
+    private final Emotion[] mOrder = Emotion.values();
+    private final float[] mOutput = new float[BATCH * Emotion.COUNT];
+    private final Classification[] mResults = new Classification[BATCH];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (int i = 0; i < mOutput.length; i++) {
+            mOutput[i] = random.nextFloat();
+        }
+        for (int i = 0; i < BATCH; i++) {
+            mResults[i] = new Classification();
+        }
+    }
+
+    @Benchmark
+    public Classification[] update() {
+        for (int i = 0; i < BATCH; i++) {
+            mResults[i].update(mOutput, i * Emotion.COUNT, mOrder, THRESHOLD);
+        }
+        return mResults;
+    }
+}
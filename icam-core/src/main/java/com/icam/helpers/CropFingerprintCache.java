@@ -0,0 +1,234 @@
+package com.icam.helpers;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers what each tracked face looked like the last time it was classified, so that a face
+ * that hasn't changed is not run through the CNN again.<p>
+ *
+ * The fingerprint is the face crop shrunk to 8x8 mean luma values.  A face is classified again
+ * once the mean difference of its fingerprint, its head pose, or the age of its last result goes
+ * past a threshold; otherwise the emotion it already has stands.  Hits and misses are counted, per
+ * reason for the misses, to show how much inference this saves.<p>
+ *
+ * Fingerprinting is done on the inference workers, each into its own buffer; the cache itself may
+ * be used from any number of threads.
+ */
+public class CropFingerprintCache {
+
+    // The fingerprint is SIGNATURE_WIDTH x SIGNATURE_WIDTH block means.
+    public static final int SIGNATURE_WIDTH = 8;
+    public static final int SIGNATURE_LENGTH = SIGNATURE_WIDTH * SIGNATURE_WIDTH;
+
+    // Mean absolute difference of the block means, in luma levels.
+    public static final float DEFAULT_MAX_DISTANCE = 6.0f;
+    // Change of Face.getEulerY or getEulerZ, in degrees.
+    public static final float DEFAULT_MAX_EULER_DELTA = 10.0f;
+    public static final long DEFAULT_MAX_AGE_MS = 1000;
+    // Faces not seen for this long are dropped.
+    private static final long FORGET_AFTER_MS = 5000;
+
+    private final float mMaxDistance;
+    private final float mMaxEulerDelta;
+    private final long mMaxAgeMs;
+
+    private final ConcurrentHashMap<Integer, Entry> mEntries = new ConcurrentHashMap<>();
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mNewMisses = new AtomicLong();
+    private final AtomicLong mChangedMisses = new AtomicLong();
+    private final AtomicLong mPoseMisses = new AtomicLong();
+    private final AtomicLong mAgeMisses = new AtomicLong();
+
+    private static class Entry {
+        final byte[] signature = new byte[SIGNATURE_LENGTH];
+        float eulerY;
+        float eulerZ;
+        long classifiedAt;
+        long lastSeen;
+    }
+
+    public CropFingerprintCache() {
+        this(DEFAULT_MAX_DISTANCE, DEFAULT_MAX_EULER_DELTA, DEFAULT_MAX_AGE_MS);
+    }
+
+    /**
+     * @param maxDistance   mean luma difference of the fingerprints, 0 - 255, past which a face
+     *                      is classified again
+     * @param maxEulerDelta head rotation in degrees, either axis, past which it is classified again
+     * @param maxAgeMs      how long a result is trusted at most
+     */
+    public CropFingerprintCache(float maxDistance, float maxEulerDelta, long maxAgeMs) {
+        mMaxDistance = maxDistance;
+        mMaxEulerDelta = maxEulerDelta;
+        mMaxAgeMs = maxAgeMs;
+    }
+
+    /**
+     * Fingerprint a width x width float crop starting at offset.
+     */
+    public static void fingerprint(float[] crop, int offset, int width, byte[] signature) {
+        int block = width / SIGNATURE_WIDTH;
+        float scale = 1.0f / (block * block);
+        for (int by = 0; by < SIGNATURE_WIDTH; by++) {
+            for (int bx = 0; bx < SIGNATURE_WIDTH; bx++) {
+                float sum = 0;
+                int row = offset + by * block * width + bx * block;
+                for (int y = 0; y < block; y++, row += width) {
+                    for (int x = 0; x < block; x++) {
+                        sum += crop[row + x];
+                    }
+                }
+                int mean = (int) (sum * scale + 0.5f);
+                signature[by * SIGNATURE_WIDTH + bx] = (byte) (mean < 0 ? 0 : (mean > 255 ? 255 : mean));
+            }
+        }
+    }
+
+    /**
+     * Fingerprint a width x width uint8 crop starting at offset.
+     */
+    public static void fingerprint(byte[] crop, int offset, int width, byte[] signature) {
+        int block = width / SIGNATURE_WIDTH;
+        int area = block * block;
+        for (int by = 0; by < SIGNATURE_WIDTH; by++) {
+            for (int bx = 0; bx < SIGNATURE_WIDTH; bx++) {
+                int sum = 0;
+                int row = offset + by * block * width + bx * block;
+                for (int y = 0; y < block; y++, row += width) {
+                    for (int x = 0; x < block; x++) {
+                        sum += crop[row + x] & 0xff;
+                    }
+                }
+                signature[by * SIGNATURE_WIDTH + bx] = (byte) ((sum + area / 2) / area);
+            }
+        }
+    }
+
+    /**
+     * Decide whether a face needs a new inference.  Nothing is remembered here: a face keeps
+     * being classified until {@link #commit} records a result for it.
+     */
+    public boolean shouldClassify(int faceId, byte[] signature, float eulerY, float eulerZ,
+                                  long timestampMs) {
+        Entry entry = mEntries.get(faceId);
+        if (entry == null) {
+            mNewMisses.incrementAndGet();
+            return true;
+        }
+
+        synchronized (entry) {
+            entry.lastSeen = Math.max(entry.lastSeen, timestampMs);
+            if (timestampMs - entry.classifiedAt > mMaxAgeMs) {
+                mAgeMisses.incrementAndGet();
+            } else if (Math.abs(eulerY - entry.eulerY) > mMaxEulerDelta
+                    || Math.abs(eulerZ - entry.eulerZ) > mMaxEulerDelta) {
+                mPoseMisses.incrementAndGet();
+            } else if (distance(signature, entry.signature) > mMaxDistance) {
+                mChangedMisses.incrementAndGet();
+            } else {
+                mHits.incrementAndGet();
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A face classified after {@link #shouldClassify} got its result: from now on its later
+     * frames are compared against this fingerprint, pose and time.  Only call this once the
+     * result is stored, as an inference that is dropped or fails must not make the face look
+     * classified.
+     */
+    public void commit(int faceId, byte[] signature, float eulerY, float eulerZ,
+                       long timestampMs) {
+        Entry entry = mEntries.get(faceId);
+        if (entry == null) {
+            Entry created = new Entry();
+            entry = mEntries.putIfAbsent(faceId, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        synchronized (entry) {
+            // results may come back out of order; an older one doesn't replace a newer one
+            if (timestampMs >= entry.classifiedAt) {
+                store(entry, signature, eulerY, eulerZ, timestampMs);
+            }
+        }
+    }
+
+    /**
+     * Drop faces that haven't been seen for a while.
+     */
+    public void prune(long nowMs) {
+        Iterator<Entry> it = mEntries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            synchronized (entry) {
+                if (nowMs - entry.lastSeen > FORGET_AFTER_MS) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public void forget(int faceId) {
+        mEntries.remove(faceId);
+    }
+
+    public void clear() {
+        mEntries.clear();
+    }
+
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    public long getMissCount() {
+        return mNewMisses.get() + mChangedMisses.get() + mPoseMisses.get() + mAgeMisses.get();
+    }
+
+    // misses by reason: a face not seen before, a changed crop, a turned head, an old result
+    public long getNewMissCount() {
+        return mNewMisses.get();
+    }
+
+    public long getChangedMissCount() {
+        return mChangedMisses.get();
+    }
+
+    public long getPoseMissCount() {
+        return mPoseMisses.get();
+    }
+
+    public long getAgeMissCount() {
+        return mAgeMisses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "hits " + getHitCount() + ", misses " + getMissCount()
+                + " (new " + getNewMissCount() + ", changed " + getChangedMissCount()
+                + ", pose " + getPoseMissCount() + ", age " + getAgeMissCount() + ")";
+    }
+
+    private static void store(Entry entry, byte[] signature, float eulerY, float eulerZ,
+                              long timestampMs) {
+        System.arraycopy(signature, 0, entry.signature, 0, SIGNATURE_LENGTH);
+        entry.eulerY = eulerY;
+        entry.eulerZ = eulerZ;
+        entry.classifiedAt = timestampMs;
+        entry.lastSeen = Math.max(entry.lastSeen, timestampMs);
+    }
+
+    private static float distance(byte[] a, byte[] b) {
+        int sum = 0;
+        for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+            sum += Math.abs((a[i] & 0xff) - (b[i] & 0xff));
+        }
+        return (float) sum / SIGNATURE_LENGTH;
+    }
+}
@@ -0,0 +1,151 @@
+package com.icam.helpers;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps faces the CNN can't read well away from it: heads turned too far to the side, faces only a
+ * few pixels across, motion blurred crops and crops too dark or too bright to show an
+ * expression.<p>
+ *
+ * Pose and size are known from the detector and checked before the face is scheduled, so a face
+ * rejected for them is never snapshotted or cropped.
+ * Sharpness, the variance of the 4-neighbour Laplacian, and exposure, the mean level, are measured
+ * on the uint8 crop in one pass.  A rejected face keeps the emotion it already has.  Rejections
+ * are counted per reason, next to the crops that passed, to weigh the inference saved against how
+ * long results go stale.<p>
+ *
+ * Safe to use from any number of threads.
+ */
+public class CropQualityGate {
+
+    // Head turned further than this either way, Face.getEulerY in degrees.
+    public static final float DEFAULT_MAX_EULER_Y = 35.0f;
+    // Face box narrower than this in frame pixels, less than the model's 48 pixels.
+    public static final float DEFAULT_MIN_FACE_SIZE = 32.0f;
+    // Variance of the Laplacian of the crop, in squared luma levels.
+    public static final float DEFAULT_MIN_SHARPNESS = 30.0f;
+    // Mean level of the crop, 0 - 255.
+    public static final float DEFAULT_MIN_MEAN_LUMA = 35.0f;
+    public static final float DEFAULT_MAX_MEAN_LUMA = 225.0f;
+
+    private final float mMaxEulerY;
+    private final float mMinFaceSize;
+    private final float mMinSharpness;
+    private final float mMinMeanLuma;
+    private final float mMaxMeanLuma;
+
+    private final AtomicLong mPassed = new AtomicLong();
+    private final AtomicLong mPoseRejects = new AtomicLong();
+    private final AtomicLong mSizeRejects = new AtomicLong();
+    private final AtomicLong mBlurRejects = new AtomicLong();
+    private final AtomicLong mExposureRejects = new AtomicLong();
+
+    public CropQualityGate() {
+        this(DEFAULT_MAX_EULER_Y, DEFAULT_MIN_FACE_SIZE, DEFAULT_MIN_SHARPNESS,
+                DEFAULT_MIN_MEAN_LUMA, DEFAULT_MAX_MEAN_LUMA);
+    }
+
+    /**
+     * @param maxEulerY    head rotation in degrees past which a face is not classified
+     * @param minFaceSize  smallest face box side, in frame pixels
+     * @param minSharpness smallest Laplacian variance of the crop, or 0 to accept blurred crops
+     * @param minMeanLuma  darkest mean level of the crop accepted
+     * @param maxMeanLuma  brightest mean level of the crop accepted
+     */
+    public CropQualityGate(float maxEulerY, float minFaceSize, float minSharpness,
+                           float minMeanLuma, float maxMeanLuma) {
+        mMaxEulerY = maxEulerY;
+        mMinFaceSize = minFaceSize;
+        mMinSharpness = minSharpness;
+        mMinMeanLuma = minMeanLuma;
+        mMaxMeanLuma = maxMeanLuma;
+    }
+
+    /**
+     * Check what the detector reports about a face, before scheduling it.
+     */
+    public boolean acceptsFace(float eulerY, float width, float height) {
+        if (Math.abs(eulerY) > mMaxEulerY) {
+            mPoseRejects.incrementAndGet();
+            return false;
+        }
+        if (Math.min(width, height) < mMinFaceSize) {
+            mSizeRejects.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Check the exposure and sharpness of a width x width uint8 crop starting at offset.
+     */
+    public boolean acceptsCrop(byte[] crop, int offset, int width) {
+        long sum = 0;
+        long laplacianSum = 0;
+        long laplacianSquares = 0;
+        for (int y = 0; y < width; y++) {
+            int row = offset + y * width;
+            boolean inner = y > 0 && y < width - 1;
+            for (int x = 0; x < width; x++) {
+                int center = crop[row + x] & 0xff;
+                sum += center;
+                if (inner && x > 0 && x < width - 1) {
+                    int laplacian = (crop[row + x - 1] & 0xff) + (crop[row + x + 1] & 0xff)
+                            + (crop[row + x - width] & 0xff) + (crop[row + x + width] & 0xff)
+                            - 4 * center;
+                    laplacianSum += laplacian;
+                    laplacianSquares += laplacian * laplacian;
+                }
+            }
+        }
+
+        float mean = (float) sum / (width * width);
+        if (mean < mMinMeanLuma || mean > mMaxMeanLuma) {
+            mExposureRejects.incrementAndGet();
+            return false;
+        }
+        int inner = (width - 2) * (width - 2);
+        if (inner > 0 && mMinSharpness > 0) {
+            float laplacianMean = (float) laplacianSum / inner;
+            float variance = (float) laplacianSquares / inner - laplacianMean * laplacianMean;
+            if (variance < mMinSharpness) {
+                mBlurRejects.incrementAndGet();
+                return false;
+            }
+        }
+        mPassed.incrementAndGet();
+        return true;
+    }
+
+    public long getPassedCount() {
+        return mPassed.get();
+    }
+
+    public long getRejectedCount() {
+        return mPoseRejects.get() + mSizeRejects.get() + mBlurRejects.get() + mExposureRejects.get();
+    }
+
+    // rejections by reason: a turned head, a small face, a blurred crop, a dark or bright crop
+    public long getPoseRejectCount() {
+        return mPoseRejects.get();
+    }
+
+    public long getSizeRejectCount() {
+        return mSizeRejects.get();
+    }
+
+    public long getBlurRejectCount() {
+        return mBlurRejects.get();
+    }
+
+    public long getExposureRejectCount() {
+        return mExposureRejects.get();
+    }
+
+    @Override
+    public String toString() {
+        return "passed " + getPassedCount() + ", rejected " + getRejectedCount()
+                + " (pose " + getPoseRejectCount() + ", size " + getSizeRejectCount()
+                + ", blur " + getBlurRejectCount() + ", exposure " + getExposureRejectCount() + ")";
+    }
+}
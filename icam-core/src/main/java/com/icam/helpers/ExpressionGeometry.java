@@ -0,0 +1,135 @@
+package com.icam.helpers;
+
+import com.icam.models.Classification;
+import com.icam.models.Emotion;
+
+/**
+ * The landmark math behind {@code GeometricEmotionClassifier}: turns five landmarks and the
+ * detector's eye and smile probabilities into a few features, and scores the expressions those
+ * features tell apart.<p>
+ *
+ * Landmarks are passed as one flat array of x, y pairs, indexed by {@link #LEFT_EYE} and the
+ * others, so that measuring a face allocates nothing.  All distances are measured in eye
+ * distances, so they don't depend on how far the face is:
+ * <ul>
+ * <li>mouth width, from corner to corner, which grows with a smile;</li>
+ * <li>mouth depth, how far the bottom lip sits below the corners, which grows when the mouth
+ * opens or the corners are pulled up, and shrinks when they droop;</li>
+ * <li>how open the eyes are, and how likely a smile is, both straight from the detector.</li>
+ * </ul>
+ * These only separate happy, surprised, sad and neutral faces.  Angry, disgusted and fearful
+ * faces look too much alike in landmarks alone, so they always get a low confidence and are left
+ * to the CNN.  The detector has no eyebrow landmarks, which is where those would show.
+ */
+public final class ExpressionGeometry {
+
+    // Landmarks, as indices of x, y pairs in the landmark array.
+    public static final int LEFT_EYE = 0;
+    public static final int RIGHT_EYE = 1;
+    public static final int LEFT_MOUTH = 2;
+    public static final int RIGHT_MOUTH = 3;
+    public static final int BOTTOM_MOUTH = 4;
+    public static final int LANDMARK_COUNT = 5;
+
+    // Indices into the feature vector.
+    public static final int MOUTH_WIDTH = 0;
+    public static final int MOUTH_DEPTH = 1;
+    public static final int EYES_OPEN = 2;
+    public static final int SMILE = 3;
+    public static final int FEATURE_COUNT = 4;
+
+    // Hand-set from what the detector reports for posed expressions, in eye distances.
+    private static final float NEUTRAL_MOUTH_WIDTH = 0.85f;
+    private static final float NEUTRAL_MOUTH_DEPTH = 0.22f;
+    private static final float OPEN_MOUTH_DEPTH = 0.5f;
+    private static final float DROOPING_MOUTH_DEPTH = 0.08f;
+
+    private ExpressionGeometry() {
+    }
+
+    /**
+     * Measure a face's features.
+     *
+     * @param landmarks {@link #LANDMARK_COUNT} x, y pairs, in frame pixels
+     * @param eyesOpen  mean probability that the eyes are open
+     * @param smile     probability of a smile
+     * @return false if the eyes are too close together to measure anything by
+     */
+    public static boolean measure(float[] landmarks, float eyesOpen, float smile,
+                                  float[] features) {
+        float eyeDistance = distance(landmarks, LEFT_EYE, RIGHT_EYE);
+        if (eyeDistance < 1.0f) {
+            return false;
+        }
+        // measured along the face's own axes, so that a rolled head gives the same numbers; the
+        // axis runs from the eye on the left of the picture to the other one, whichever is which
+        int first = landmarks[2 * LEFT_EYE] < landmarks[2 * RIGHT_EYE] ? LEFT_EYE : RIGHT_EYE;
+        int second = first == LEFT_EYE ? RIGHT_EYE : LEFT_EYE;
+        float axisX = (landmarks[2 * second] - landmarks[2 * first]) / eyeDistance;
+        float axisY = (landmarks[2 * second + 1] - landmarks[2 * first + 1]) / eyeDistance;
+        float cornersX = (landmarks[2 * LEFT_MOUTH] + landmarks[2 * RIGHT_MOUTH]) / 2.0f;
+        float cornersY = (landmarks[2 * LEFT_MOUTH + 1] + landmarks[2 * RIGHT_MOUTH + 1]) / 2.0f;
+        // the face's down direction is its eye axis turned a quarter clockwise
+        float depth = (landmarks[2 * BOTTOM_MOUTH] - cornersX) * -axisY
+                + (landmarks[2 * BOTTOM_MOUTH + 1] - cornersY) * axisX;
+
+        features[MOUTH_WIDTH] = distance(landmarks, LEFT_MOUTH, RIGHT_MOUTH) / eyeDistance;
+        features[MOUTH_DEPTH] = depth / eyeDistance;
+        features[EYES_OPEN] = eyesOpen;
+        features[SMILE] = smile;
+        return true;
+    }
+
+    /**
+     * Score the four expressions the features can tell apart.  The confidence is the best score,
+     * not a probability: the scores need not sum to one.
+     */
+    public static void classify(float[] features, Classification result) {
+        float width = features[MOUTH_WIDTH];
+        float depth = features[MOUTH_DEPTH];
+        float eyesOpen = features[EYES_OPEN];
+        float smile = features[SMILE];
+        float notSmiling = 1.0f - smile;
+
+        float happy = smile * ramp(width, NEUTRAL_MOUTH_WIDTH - 0.1f, NEUTRAL_MOUTH_WIDTH + 0.1f);
+        // a smile is already confident on its own
+        happy = Math.max(happy, smile * smile);
+        float surprise = notSmiling * eyesOpen
+                * ramp(depth, NEUTRAL_MOUTH_DEPTH, OPEN_MOUTH_DEPTH);
+        float sad = notSmiling * ramp(-depth, -NEUTRAL_MOUTH_DEPTH, -DROOPING_MOUTH_DEPTH);
+        float neutral = notSmiling * eyesOpen
+                * closeness(depth, NEUTRAL_MOUTH_DEPTH, 0.15f)
+                * closeness(width, NEUTRAL_MOUTH_WIDTH, 0.25f);
+
+        result.reset();
+        set(result, Emotion.HAPPY, happy);
+        set(result, Emotion.SURPRISE, surprise);
+        set(result, Emotion.SAD, sad);
+        set(result, Emotion.NEUTRAL, neutral);
+    }
+
+    private static void set(Classification result, Emotion emotion, float score) {
+        result.getPredictions().set(emotion, score);
+        if (score > 0.0f && score > result.getConf()) {
+            result.update(score, emotion);
+        }
+    }
+
+    // 0 at or below from, 1 at or above to, linear in between
+    private static float ramp(float value, float from, float to) {
+        float t = (value - from) / (to - from);
+        return t < 0.0f ? 0.0f : (t > 1.0f ? 1.0f : t);
+    }
+
+    // 1 at the centre, down to 0 at the given distance from it
+    private static float closeness(float value, float centre, float range) {
+        float t = 1.0f - Math.abs(value - centre) / range;
+        return t < 0.0f ? 0.0f : t;
+    }
+
+    private static float distance(float[] landmarks, int a, int b) {
+        float dx = landmarks[2 * b] - landmarks[2 * a];
+        float dy = landmarks[2 * b + 1] - landmarks[2 * a + 1];
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+}
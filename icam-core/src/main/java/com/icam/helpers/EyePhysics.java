@@ -29,8 +29,7 @@
  */
 package com.icam.helpers;
 
-import android.graphics.PointF;
-import android.os.SystemClock;
+import com.icam.models.Point;
 
 /**
  * Simulates the physics of motion for an iris which moves within a googly eye.  The iris moves
@@ -47,9 +46,11 @@ import android.os.SystemClock;
  * </ol>
  * <p>
  * The simulation is configured to run at a universal real time rate, regardless of the performance
- * of the device in which it is run and how frequently updates are received.
+ * of the device in which it is run and how frequently updates are received.  The caller supplies
+ * the time of each update, from a monotonic clock such as {@code SystemClock.elapsedRealtime()},
+ * so that the simulation can also be stepped by hand.
  */
-class EyePhysics {
+public class EyePhysics {
 
     private static final String TAG = "EyePhysics";
 
@@ -66,12 +67,14 @@ class EyePhysics {
     // Allow slightly non-zero values to be considered to be zero, to converge to zero more quickly.
     private final float ZERO_TOLERANCE = 0.001f;
 
-    private long mLastUpdateTimeMs = SystemClock.elapsedRealtime();
+    // No update yet: the first one starts the clock and moves nothing.
+    private boolean mStarted = false;
+    private long mLastUpdateTimeMs;
 
-    private PointF mEyePosition;
+    private Point mEyePosition;
     private float mEyeRadius;
 
-    private PointF mIrisPosition;
+    private Point mIrisPosition;
     private float mIrisRadius;
 
     // Velocity is independent of the final rendering coordinate system, so that we don't have to
@@ -92,8 +95,10 @@ class EyePhysics {
     /**
      * Generate the next position of the iris based on simulated velocity, eye boundaries, gravity,
      * friction, and bounce momentum.
+     *
+     * @param nowMs the current time in milliseconds, from a clock that never goes back
      */
-    PointF nextIrisPosition(PointF eyePosition, float eyeRadius, float irisRadius) {
+    public Point nextIrisPosition(Point eyePosition, float eyeRadius, float irisRadius, long nowMs) {
         // Correct the current eye position and size based on recent motion of the face within the
         // frame.  Keep the current iris position, if available.
         mEyePosition = eyePosition;
@@ -106,8 +111,8 @@ class EyePhysics {
         // Keep track of time, so that we can consistently update the simulation proportionally to
         // how much time has elapsed.  This makes the animation rate device-independent.  All of the
         // velocity changes below are pro-rated based on this.
-        long nowMs = SystemClock.elapsedRealtime();
-        long elapsedTimeMs = nowMs - mLastUpdateTimeMs;
+        long elapsedTimeMs = mStarted ? nowMs - mLastUpdateTimeMs : 0;
+        mStarted = true;
         float simulationRate = (float) elapsedTimeMs / TIME_PERIOD_MS;
         mLastUpdateTimeMs = nowMs;
 
@@ -125,7 +130,7 @@ class EyePhysics {
         // the iris radius to get the change in position.
         float x = mIrisPosition.x + (vx * mIrisRadius * simulationRate);
         float y = mIrisPosition.y + (vy * mIrisRadius * simulationRate);
-        mIrisPosition = new PointF(x, y);
+        mIrisPosition = new Point(x, y);
 
         // Correct the position and velocity of the iris if it has gone out of bounds, guaranteeing
         // that the returned result is at a valid position within the eye.
@@ -187,7 +192,7 @@ class EyePhysics {
         float dy = y - mIrisPosition.y;
         vy = applyBounce(vy, dy, simulationRate) / mConsecutiveBounces;
 
-        mIrisPosition = new PointF(x, y);
+        mIrisPosition = new Point(x, y);
     }
 
     /**
@@ -0,0 +1,540 @@
+package com.icam.helpers;
+
+import java.util.Arrays;
+
+/**
+ * Crops a face box straight out of the luma (Y) plane of an NV21 camera frame and area-resamples
+ * it into a square model input.<p>
+ *
+ * NV21 stores the full resolution grayscale plane first, so the first {@code width * height}
+ * bytes of {@code Frame.getGrayscaleImageData()} are exactly the
+ * pixels the CNN wants.  Reading them directly avoids the Bitmap / JPEG round trip entirely.<p>
+ *
+ * Every output pixel is the coverage-weighted mean of the source pixels under it, which is what
+ * {@code createScaledBitmap(..., true)} approximates when shrinking, but without any allocation:
+ * the sampling tables are sized once for the output and rebuilt in place for each crop.  An
+ * instance is not thread safe; give each worker its own.<p>
+ *
+ * Tilted heads can instead be cropped upright: {@link #cropAligned} maps the output square onto
+ * the frame with a similarity transform (rotation, scale and shift) that puts the eyes at fixed
+ * positions, and {@link #cropRotated} does the same from the face box and its roll angle.  The
+ * transform is applied while sampling, so no rotated copy of the frame is ever made.  To crop from
+ * a copy of part of the frame instead, {@link #alignedBounds} and {@link #rotatedBounds} tell
+ * which part these read.<p>
+ *
+ * Uint8 crops can also count their levels while writing them, see {@link #setHistogram}, so that
+ * equalizing the crop afterwards doesn't need another pass over it.
+ */
+public class FaceCropper {
+
+    // Where cropAligned puts the eyes, as fractions of the output size.  This frames the face
+    // about like the detector's box does, which is what the model was trained on.
+    public static final float EYE_Y = 0.4f;
+    public static final float LEFT_EYE_X = 0.3f;
+    public static final float RIGHT_EYE_X = 0.7f;
+    // A bilinear tap averages about two source pixels per axis, so the warp takes one tap per two
+    // pixels of shrinking and reads about as many pixels as the area resample does.  The cap only
+    // keeps the fixed point sum of a pixel's taps in an int; it is reached at 128x shrinking.
+    private static final int MAX_TAPS = 64;
+    // The warp's fixed point: 16 fraction bits for frame positions, 8 for bilinear weights.
+    private static final int FIX_SHIFT = 16;
+    private static final float FIX_ONE = 1 << FIX_SHIFT;
+
+    private final int mSize;
+
+    // Per-axis sampling tables: the first and last source pixel that an output pixel covers, and
+    // how much of those two edge pixels falls inside it.  Pixels in between are fully covered.
+    private final int[] mStartX;
+    private final int[] mEndX;
+    private final float[] mFirstWeightX;
+    private final float[] mLastWeightX;
+    private final int[] mStartY;
+    private final int[] mEndY;
+    private final float[] mFirstWeightY;
+    private final float[] mLastWeightY;
+
+    // Accumulates one output row while walking the source rows it covers.
+    private final float[] mRow;
+    // The output -> frame transform of the current upright crop: a, b, tx, ty as in warp().
+    private final float[] mTransform = new float[4];
+    // Counts the levels of uint8 crops, or null.
+    private int[] mHistogram;
+
+    public FaceCropper(int size) {
+        mSize = size;
+        mStartX = new int[size];
+        mEndX = new int[size];
+        mFirstWeightX = new float[size];
+        mLastWeightX = new float[size];
+        mStartY = new int[size];
+        mEndY = new int[size];
+        mFirstWeightY = new float[size];
+        mLastWeightY = new float[size];
+        mRow = new float[size];
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Count the levels of every uint8 crop from now on into this 256-entry histogram, cleared at
+     * the start of each crop, e.g. for {@link LumaNormalizer}; or stop with null.  Float crops
+     * are not counted.
+     */
+    public void setHistogram(int[] histogram) {
+        mHistogram = histogram;
+    }
+
+    /**
+     * Crop the box at ({@code left}, {@code top}) of the given size out of the luma plane and
+     * write {@code size * size} grayscale values (0 - 255) into {@code out}.  The box is clipped
+     * to the frame, so faces partially outside of the picture are still usable.
+     *
+     * @return false if nothing of the box lies inside the frame, in which case {@code out} is
+     * left untouched
+     */
+    public boolean crop(byte[] luma, int offset, int frameWidth, int frameHeight,
+                        float left, float top, float width, float height, float[] out) {
+        return crop(luma, offset, frameWidth, frameHeight, left, top, width, height, out, 0);
+    }
+
+    /**
+     * Same as above, writing the crop at {@code outOffset} so that several faces can be packed
+     * into one batch buffer.
+     */
+    public boolean crop(byte[] luma, int offset, int frameWidth, int frameHeight,
+                        float left, float top, float width, float height, float[] out, int outOffset) {
+        return crop(luma, offset, frameWidth, frameHeight, left, top, width, height,
+                out, null, outOffset);
+    }
+
+    /**
+     * Same as above, writing rounded uint8 luma for models that take quantized input.
+     */
+    public boolean crop(byte[] luma, int offset, int frameWidth, int frameHeight,
+                        float left, float top, float width, float height, byte[] out, int outOffset) {
+        return crop(luma, offset, frameWidth, frameHeight, left, top, width, height,
+                null, out, outOffset);
+    }
+
+    /**
+     * Crop the face upright, with the eye on the left of the picture at ({@code leftEyeX},
+     * {@code leftEyeY}) and the other one at ({@code rightEyeX}, {@code rightEyeY}), both in frame
+     * pixels.  Parts of the crop outside the frame repeat the frame's edge.
+     *
+     * @return false if the eyes are less than two pixels apart, leaving {@code out} untouched
+     */
+    public boolean cropAligned(byte[] luma, int offset, int frameWidth, int frameHeight,
+                               float leftEyeX, float leftEyeY, float rightEyeX, float rightEyeY,
+                               float[] out, int outOffset) {
+        return cropAligned(luma, offset, frameWidth, frameHeight,
+                leftEyeX, leftEyeY, rightEyeX, rightEyeY, out, null, outOffset);
+    }
+
+    /**
+     * Same as above, writing rounded uint8 luma for models that take quantized input.
+     */
+    public boolean cropAligned(byte[] luma, int offset, int frameWidth, int frameHeight,
+                               float leftEyeX, float leftEyeY, float rightEyeX, float rightEyeY,
+                               byte[] out, int outOffset) {
+        return cropAligned(luma, offset, frameWidth, frameHeight,
+                leftEyeX, leftEyeY, rightEyeX, rightEyeY, null, out, outOffset);
+    }
+
+    /**
+     * Crop the box at ({@code left}, {@code top}) rotated by {@code rollDegrees} about its centre,
+     * so that a head rolled by that angle comes out upright.  The angle is counter-clockwise in the
+     * picture, like {@code Face.getEulerZ()}.
+     *
+     * @return false if the box is less than a pixel wide, leaving {@code out} untouched
+     */
+    public boolean cropRotated(byte[] luma, int offset, int frameWidth, int frameHeight,
+                               float left, float top, float width, float height, float rollDegrees,
+                               float[] out, int outOffset) {
+        return cropRotated(luma, offset, frameWidth, frameHeight, left, top, width, height,
+                rollDegrees, out, null, outOffset);
+    }
+
+    /**
+     * Same as above, writing rounded uint8 luma for models that take quantized input.
+     */
+    public boolean cropRotated(byte[] luma, int offset, int frameWidth, int frameHeight,
+                               float left, float top, float width, float height, float rollDegrees,
+                               byte[] out, int outOffset) {
+        return cropRotated(luma, offset, frameWidth, frameHeight, left, top, width, height,
+                rollDegrees, null, out, outOffset);
+    }
+
+    /**
+     * The part of the frame {@link #cropAligned} reads for these eyes, clipped to the frame, as
+     * {left, top, right, bottom} with right and bottom exclusive.
+     *
+     * @return false if the crop would fail
+     */
+    public boolean alignedBounds(float leftEyeX, float leftEyeY, float rightEyeX, float rightEyeY,
+                                 int frameWidth, int frameHeight, int[] bounds) {
+        return alignedTransform(leftEyeX, leftEyeY, rightEyeX, rightEyeY)
+                && bounds(frameWidth, frameHeight, bounds);
+    }
+
+    /**
+     * The part of the frame {@link #cropRotated} reads for this box, like {@link #alignedBounds}.
+     */
+    public boolean rotatedBounds(float left, float top, float width, float height,
+                                 float rollDegrees, int frameWidth, int frameHeight, int[] bounds) {
+        return rotatedTransform(left, top, width, height, rollDegrees)
+                && bounds(frameWidth, frameHeight, bounds);
+    }
+
+    private boolean cropAligned(byte[] luma, int offset, int frameWidth, int frameHeight,
+                                float leftEyeX, float leftEyeY, float rightEyeX, float rightEyeY,
+                                float[] floatOut, byte[] byteOut, int outOffset) {
+        if (!alignedTransform(leftEyeX, leftEyeY, rightEyeX, rightEyeY)) {
+            return false;
+        }
+        warp(luma, offset, frameWidth, frameHeight, mTransform[0], mTransform[1],
+                mTransform[2], mTransform[3], floatOut, byteOut, outOffset);
+        return true;
+    }
+
+    private boolean cropRotated(byte[] luma, int offset, int frameWidth, int frameHeight,
+                                float left, float top, float width, float height, float rollDegrees,
+                                float[] floatOut, byte[] byteOut, int outOffset) {
+        if (!rotatedTransform(left, top, width, height, rollDegrees)) {
+            return false;
+        }
+        warp(luma, offset, frameWidth, frameHeight, mTransform[0], mTransform[1],
+                mTransform[2], mTransform[3], floatOut, byteOut, outOffset);
+        return true;
+    }
+
+    private boolean alignedTransform(float leftEyeX, float leftEyeY, float rightEyeX,
+                                     float rightEyeY) {
+        float dx = rightEyeX - leftEyeX;
+        float dy = rightEyeY - leftEyeY;
+        if (dx * dx + dy * dy < 4.0f) {
+            return false;
+        }
+        // The output eyes lie on one row, so the output -> frame transform is just the frame's
+        // eye vector over the output's eye distance, then shifted to land on the left eye.
+        float eyeDistance = (RIGHT_EYE_X - LEFT_EYE_X) * mSize;
+        float a = dx / eyeDistance;
+        float b = dy / eyeDistance;
+        float u = LEFT_EYE_X * mSize;
+        float v = EYE_Y * mSize;
+        mTransform[0] = a;
+        mTransform[1] = b;
+        mTransform[2] = leftEyeX - (a * u - b * v);
+        mTransform[3] = leftEyeY - (b * u + a * v);
+        return true;
+    }
+
+    private boolean rotatedTransform(float left, float top, float width, float height,
+                                     float rollDegrees) {
+        if (width < 1.0f || height < 1.0f) {
+            return false;
+        }
+        float scale = Math.max(width, height) / mSize;
+        // counter-clockwise in the picture, whose y axis points down
+        double angle = Math.toRadians(rollDegrees);
+        float a = (float) (scale * Math.cos(angle));
+        float b = (float) (-scale * Math.sin(angle));
+        float half = mSize / 2.0f;
+        float centerX = left + width / 2.0f;
+        float centerY = top + height / 2.0f;
+        mTransform[0] = a;
+        mTransform[1] = b;
+        mTransform[2] = centerX - (a * half - b * half);
+        mTransform[3] = centerY - (b * half + a * half);
+        return true;
+    }
+
+    // The frame pixels under the current transform's output square, one more on every side for
+    // the bilinear taps, clipped to the frame.
+    private boolean bounds(int frameWidth, int frameHeight, int[] bounds) {
+        float a = mTransform[0];
+        float b = mTransform[1];
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for (int corner = 0; corner < 4; corner++) {
+            float u = (corner & 1) * mSize;
+            float v = (corner >> 1) * mSize;
+            float x = a * u - b * v + mTransform[2];
+            float y = b * u + a * v + mTransform[3];
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        bounds[0] = Math.max(0, Math.min(frameWidth - 1, (int) Math.floor(minX) - 1));
+        bounds[1] = Math.max(0, Math.min(frameHeight - 1, (int) Math.floor(minY) - 1));
+        bounds[2] = Math.min(frameWidth, Math.max(bounds[0] + 1, (int) Math.ceil(maxX) + 1));
+        bounds[3] = Math.min(frameHeight, Math.max(bounds[1] + 1, (int) Math.ceil(maxY) + 1));
+        return true;
+    }
+
+    /**
+     * Fill the output with the frame seen through the similarity transform
+     * x = a * u - b * v + tx, y = b * u + a * v + ty from output to frame coordinates (pixel
+     * edges at whole numbers).  Each output pixel averages a grid of bilinear taps, enough of them
+     * to cover the source pixels under it when shrinking.  Crops wholly inside the frame, nearly
+     * all of them, are sampled in fixed point without clamping each tap to the frame.
+     */
+    private void warp(byte[] luma, int offset, int frameWidth, int frameHeight,
+                      float a, float b, float tx, float ty,
+                      float[] floatOut, byte[] byteOut, int outOffset) {
+        if (byteOut != null && mHistogram != null) {
+            Arrays.fill(mHistogram, 0);
+        }
+        float scale = (float) Math.sqrt(a * a + b * b);
+        // less a hair, so that rounding in the transform doesn't add a whole row of taps
+        int taps = Math.max(1, Math.min(MAX_TAPS, (int) Math.ceil(scale / 2.0f - 0.001f)));
+        if (inside(a, b, tx, ty, frameWidth, frameHeight)) {
+            warpInside(luma, offset, frameWidth, a, b, tx, ty, taps, floatOut, byteOut, outOffset);
+            return;
+        }
+        final int[] histogram = mHistogram;
+        float step = 1.0f / taps;
+        float norm = step * step;
+        // one tap step along the output row and column, in frame coordinates
+        float stepUX = a * step;
+        float stepUY = b * step;
+        float stepVX = -b * step;
+        float stepVY = a * step;
+        int maxX = frameWidth - 1;
+        int maxY = frameHeight - 1;
+
+        for (int oy = 0; oy < mSize; oy++) {
+            int base = outOffset + oy * mSize;
+            for (int ox = 0; ox < mSize; ox++) {
+                // the first tap, half a step in from the output pixel's corner, moved to sample at
+                // pixel centres
+                float u = ox + step * 0.5f;
+                float v = oy + step * 0.5f;
+                float rowX = a * u - b * v + tx - 0.5f;
+                float rowY = b * u + a * v + ty - 0.5f;
+                float sum = 0.0f;
+                for (int j = 0; j < taps; j++) {
+                    float x = rowX;
+                    float y = rowY;
+                    for (int i = 0; i < taps; i++) {
+                        sum += bilinear(luma, offset, frameWidth, maxX, maxY, x, y);
+                        x += stepUX;
+                        y += stepUY;
+                    }
+                    rowX += stepVX;
+                    rowY += stepVY;
+                }
+                float value = sum * norm;
+                if (floatOut != null) {
+                    floatOut[base + ox] = value;
+                } else {
+                    int rounded = (int) (value + 0.5f);
+                    if (rounded > 255) {
+                        rounded = 255;
+                    }
+                    byteOut[base + ox] = (byte) rounded;
+                    if (histogram != null) {
+                        histogram[rounded]++;
+                    }
+                }
+            }
+        }
+    }
+
+    // Whether every tap of the output square, at pixel centres, has its right and lower
+    // neighbour inside the frame too.
+    private boolean inside(float a, float b, float tx, float ty, int frameWidth, int frameHeight) {
+        for (int corner = 0; corner < 4; corner++) {
+            float u = (corner & 1) * mSize;
+            float v = (corner >> 1) * mSize;
+            float x = a * u - b * v + tx - 0.5f;
+            float y = b * u + a * v + ty - 0.5f;
+            if (x < 0.0f || y < 0.0f || x >= frameWidth - 1 || y >= frameHeight - 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // warp() for a crop inside the frame: each tap is an integer bilinear with 8 bit weights,
+    // worth 256 times its luma.  Every position steps in 16.16 fixed point from one origin, so the
+    // same crop out of a snapshot of the region lands on the same weights.
+    private void warpInside(byte[] luma, int offset, int stride, float a, float b, float tx,
+                            float ty, int taps, float[] floatOut, byte[] byteOut, int outOffset) {
+        float step = 1.0f / taps;
+        int stepUX = Math.round(a * step * FIX_ONE);
+        int stepUY = Math.round(b * step * FIX_ONE);
+        // and from one output pixel to the next, so the taps stay evenly spaced across pixels
+        int pixelUX = stepUX * taps;
+        int pixelUY = stepUY * taps;
+        // the first tap, half a step in from the first output pixel's corner, at pixel centres
+        double first = step * 0.5;
+        int originX = (int) Math.floor((a * first - b * first + tx - 0.5) * FIX_ONE);
+        int originY = (int) Math.floor((b * first + a * first + ty - 0.5) * FIX_ONE);
+        int divisor = taps * taps << 8;
+        float norm = 1.0f / divisor;
+        final int[] histogram = mHistogram;
+
+        for (int oy = 0; oy < mSize; oy++) {
+            int base = outOffset + oy * mSize;
+            int pixelX = originX - oy * pixelUY;
+            int pixelY = originY + oy * pixelUX;
+            for (int ox = 0; ox < mSize; ox++) {
+                int rowX = pixelX;
+                int rowY = pixelY;
+                int sum = 0;
+                for (int j = 0; j < taps; j++) {
+                    int x = rowX;
+                    int y = rowY;
+                    for (int i = 0; i < taps; i++) {
+                        int index = offset + (y >> FIX_SHIFT) * stride + (x >> FIX_SHIFT);
+                        int wx = (x >> 8) & 0xff;
+                        int wy = (y >> 8) & 0xff;
+                        int p00 = luma[index] & 0xff;
+                        int p01 = luma[index + 1] & 0xff;
+                        int p10 = luma[index + stride] & 0xff;
+                        int p11 = luma[index + stride + 1] & 0xff;
+                        int top = (p00 << 8) + wx * (p01 - p00);
+                        int bottom = (p10 << 8) + wx * (p11 - p10);
+                        sum += top + ((wy * (bottom - top)) >> 8);
+                        x += stepUX;
+                        y += stepUY;
+                    }
+                    rowX -= stepUY;
+                    rowY += stepUX;
+                }
+                if (floatOut != null) {
+                    floatOut[base + ox] = sum * norm;
+                } else {
+                    int rounded = (sum + (divisor >> 1)) / divisor;
+                    if (rounded > 255) {
+                        rounded = 255;
+                    }
+                    byteOut[base + ox] = (byte) rounded;
+                    if (histogram != null) {
+                        histogram[rounded]++;
+                    }
+                }
+                pixelX += pixelUX;
+                pixelY += pixelUY;
+            }
+        }
+    }
+
+    private static float bilinear(byte[] luma, int offset, int stride, int maxX, int maxY,
+                                  float x, float y) {
+        x = x < 0.0f ? 0.0f : (x > maxX ? maxX : x);
+        y = y < 0.0f ? 0.0f : (y > maxY ? maxY : y);
+        int x0 = (int) x;
+        int y0 = (int) y;
+        int x1 = x0 < maxX ? x0 + 1 : x0;
+        int y1 = y0 < maxY ? y0 + 1 : y0;
+        float fx = x - x0;
+        float fy = y - y0;
+        int row0 = offset + y0 * stride;
+        int row1 = offset + y1 * stride;
+        float top = (luma[row0 + x0] & 0xff) + fx * ((luma[row0 + x1] & 0xff) - (luma[row0 + x0] & 0xff));
+        float bottom = (luma[row1 + x0] & 0xff) + fx * ((luma[row1 + x1] & 0xff) - (luma[row1 + x0] & 0xff));
+        return top + fy * (bottom - top);
+    }
+
+    private boolean crop(byte[] luma, int offset, int frameWidth, int frameHeight,
+                         float left, float top, float width, float height,
+                         float[] floatOut, byte[] byteOut, int outOffset) {
+        float right = Math.min(left + width, frameWidth);
+        float bottom = Math.min(top + height, frameHeight);
+        left = Math.max(left, 0.0f);
+        top = Math.max(top, 0.0f);
+        if (right - left < 1.0f || bottom - top < 1.0f) {
+            return false;
+        }
+
+        float scaleX = (right - left) / mSize;
+        float scaleY = (bottom - top) / mSize;
+        buildAxis(left, scaleX, frameWidth, mStartX, mEndX, mFirstWeightX, mLastWeightX);
+        buildAxis(top, scaleY, frameHeight, mStartY, mEndY, mFirstWeightY, mLastWeightY);
+        float norm = 1.0f / (scaleX * scaleY);
+        final int[] histogram = byteOut != null ? mHistogram : null;
+        if (histogram != null) {
+            Arrays.fill(histogram, 0);
+        }
+
+        final float[] row = mRow;
+        for (int oy = 0; oy < mSize; oy++) {
+            for (int ox = 0; ox < mSize; ox++) {
+                row[ox] = 0.0f;
+            }
+
+            int startY = mStartY[oy];
+            int endY = mEndY[oy];
+            for (int sy = startY; sy <= endY; sy++) {
+                float wy = sy == startY ? mFirstWeightY[oy] : (sy == endY ? mLastWeightY[oy] : 1.0f);
+                int rowOffset = offset + sy * frameWidth;
+                for (int ox = 0; ox < mSize; ox++) {
+                    int startX = mStartX[ox];
+                    int endX = mEndX[ox];
+                    float sum = (luma[rowOffset + startX] & 0xff) * mFirstWeightX[ox];
+                    for (int sx = startX + 1; sx < endX; sx++) {
+                        sum += luma[rowOffset + sx] & 0xff;
+                    }
+                    if (endX > startX) {
+                        sum += (luma[rowOffset + endX] & 0xff) * mLastWeightX[ox];
+                    }
+                    row[ox] += wy * sum;
+                }
+            }
+
+            int base = outOffset + oy * mSize;
+            if (floatOut != null) {
+                for (int ox = 0; ox < mSize; ox++) {
+                    floatOut[base + ox] = row[ox] * norm;
+                }
+            } else if (histogram == null) {
+                for (int ox = 0; ox < mSize; ox++) {
+                    int value = (int) (row[ox] * norm + 0.5f);
+                    byteOut[base + ox] = (byte) (value > 255 ? 255 : value);
+                }
+            } else {
+                for (int ox = 0; ox < mSize; ox++) {
+                    int value = (int) (row[ox] * norm + 0.5f);
+                    if (value > 255) {
+                        value = 255;
+                    }
+                    byteOut[base + ox] = (byte) value;
+                    histogram[value]++;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Work out which source pixels each output pixel covers along one axis.  Output pixel i spans
+     * [origin + i * scale, origin + (i + 1) * scale) in source coordinates.
+     */
+    private void buildAxis(float origin, float scale, int limit,
+                           int[] start, int[] end, float[] firstWeight, float[] lastWeight) {
+        for (int i = 0; i < mSize; i++) {
+            float a = origin + i * scale;
+            float b = a + scale;
+            int s = Math.min((int) a, limit - 1);
+            int e = Math.min((int) Math.ceil(b) - 1, limit - 1);
+            if (e < s) {
+                e = s;
+            }
+            start[i] = s;
+            end[i] = e;
+            if (s == e) {
+                firstWeight[i] = b - a;
+                lastWeight[i] = 0.0f;
+            } else {
+                firstWeight[i] = (s + 1) - a;
+                lastWeight[i] = Math.min(1.0f, b - e);
+            }
+        }
+    }
+}
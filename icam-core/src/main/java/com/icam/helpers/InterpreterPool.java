@@ -0,0 +1,82 @@
+package com.icam.helpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed set of model interpreters handed out to one caller at a time.<p>
+ *
+ * Neither TensorFlow's inference interface nor a TF Lite interpreter may be used by two threads at
+ * once, so each classifier keeps several and lends them out.  The pool also keeps track of how
+ * long callers waited for a free interpreter, which tells us whether it is sized right for the
+ * number of faces we see.
+ */
+public class InterpreterPool<T> {
+
+    private final BlockingQueue<T> mIdle;
+    private final List<T> mAll;
+
+    private final AtomicLong mWaitNanos = new AtomicLong();
+    private final AtomicLong mMaxWaitNanos = new AtomicLong();
+    private final AtomicLong mBorrowCount = new AtomicLong();
+
+    public InterpreterPool(int capacity) {
+        mIdle = new ArrayBlockingQueue<>(capacity);
+        mAll = new ArrayList<>(capacity);
+    }
+
+    public void add(T interpreter) {
+        mAll.add(interpreter);
+        mIdle.add(interpreter);
+    }
+
+    /**
+     * Take an idle interpreter, waiting for one if they are all busy.  Must be paired with
+     * {@link #release(Object)}.
+     */
+    public T borrow() throws InterruptedException {
+        T interpreter = mIdle.poll();
+        if (interpreter == null) {
+            long start = System.nanoTime();
+            interpreter = mIdle.take();
+            long waited = System.nanoTime() - start;
+            mWaitNanos.addAndGet(waited);
+            long max = mMaxWaitNanos.get();
+            while (waited > max && !mMaxWaitNanos.compareAndSet(max, waited)) {
+                max = mMaxWaitNanos.get();
+            }
+        }
+        mBorrowCount.incrementAndGet();
+        return interpreter;
+    }
+
+    public void release(T interpreter) {
+        mIdle.add(interpreter);
+    }
+
+    /**
+     * Every interpreter in the pool, busy or not.
+     */
+    public List<T> all() {
+        return mAll;
+    }
+
+    public int size() {
+        return mAll.size();
+    }
+
+    public long getTotalWaitNanos() {
+        return mWaitNanos.get();
+    }
+
+    public long getMaxWaitNanos() {
+        return mMaxWaitNanos.get();
+    }
+
+    public long getBorrowCount() {
+        return mBorrowCount.get();
+    }
+}
@@ -0,0 +1,475 @@
+package com.icam.helpers;
+
+import com.icam.interfaces.Classifier;
+import com.icam.models.Classification;
+import com.icam.models.Emotion;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The emotion CNN (see ML/cnn.py) implemented in plain Java.<p>
+ *
+ * It needs no native library, so it runs on any JVM: we use it to unit test and benchmark the
+ * emotion path on build machines, and as a fallback on devices where the TensorFlow runtime does
+ * not load.  Given the same weights it computes the same function as the TensorFlow graph, and it
+ * is deterministic: every output channel is always summed in the same order.<p>
+ *
+ * Weights come from the flat file written by ML/export_weights.py, little endian:
+ * <pre>
+ * "EMCN"  int version  int dtype (0 = float32, 1 = float16)  int inputSize  int layerCount
+ * per layer: int kind  int inChannels  int outChannels  int kernelSize
+ *            weights[kernelSize * kernelSize * inChannels * outChannels]  bias[outChannels]
+ * </pre>
+ * Convolution kernels are stored as TensorFlow keeps them, [kh][kw][in][out], dense kernels as
+ * [in][out], and activations are laid out height, width, channel like TensorFlow's NHWC, so the
+ * flatten before the first dense layer needs no reordering.<p>
+ *
+ * Convolutions are done as im2col followed by a matrix product; both the convolution and the
+ * dense products are split across output channels and run in parallel.
+ */
+public class JavaCnnClassifier implements Classifier {
+
+    // 3x3 'same' convolution + ReLU, then 2x2 max pooling with stride 2
+    static final int CONV_RELU_POOL = 1;
+    // fully connected + ReLU
+    static final int DENSE_RELU = 2;
+    // fully connected, no activation: the logits, softmax is applied at the end
+    static final int DENSE = 3;
+
+    static final int DTYPE_FLOAT32 = 0;
+    static final int DTYPE_FLOAT16 = 1;
+
+    private static final int MAGIC = 'E' | ('M' << 8) | ('C' << 16) | ('N' << 24);
+    private static final int VERSION = 1;
+    private static final float THRESHOLD = 0.1f;
+    // Don't bother splitting products with fewer output channels than this per block.
+    private static final int MIN_CHANNELS_PER_BLOCK = 16;
+
+    private String name;
+    private int inputSize;
+    private Layer[] layers;
+    // the weights file is in FER2013 label order, which is Emotion's order
+    private Emotion[] emotions;
+    private InterpreterPool<Workspace> workspaces;
+    private int parallelism;
+    private ExecutorService executor;
+
+    static class Layer {
+        final int kind;
+        final int in;
+        final int out;
+        final int kernel;
+        final float[] weights;
+        final float[] bias;
+
+        Layer(int kind, int in, int out, int kernel, float[] weights, float[] bias) {
+            this.kind = kind;
+            this.in = in;
+            this.out = out;
+            this.kernel = kernel;
+            this.weights = weights;
+            this.bias = bias;
+        }
+    }
+
+    /**
+     * Scratch space for one forward pass: two activation buffers used in turn, and the im2col
+     * matrix of the convolution being computed.
+     */
+    private static class Workspace {
+        final float[] a;
+        final float[] b;
+        final float[] columns;
+
+        Workspace(int activationSize, int columnsSize) {
+            a = new float[activationSize];
+            b = new float[activationSize];
+            columns = new float[columnsSize];
+        }
+    }
+
+    /**
+     * Read a weights file.
+     *
+     * @param poolSize    how many faces can be classified at the same time
+     * @param parallelism how many threads one forward pass is split over
+     */
+    public static JavaCnnClassifier load(InputStream in, String name, int poolSize,
+                                         int parallelism) throws IOException {
+        WeightsReader reader = new WeightsReader(in);
+        if (reader.readInt() != MAGIC) {
+            throw new IOException("Not an emotion CNN weights file");
+        }
+        int version = reader.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported weights file version " + version);
+        }
+        int dtype = reader.readInt();
+        if (dtype != DTYPE_FLOAT32 && dtype != DTYPE_FLOAT16) {
+            throw new IOException("Unsupported weights dtype " + dtype);
+        }
+
+        JavaCnnClassifier c = new JavaCnnClassifier();
+        c.name = name;
+        c.inputSize = reader.readInt();
+        c.layers = new Layer[reader.readInt()];
+
+        // Walk the shapes while reading, so a file that doesn't fit together fails here rather
+        // than half way through a forward pass.
+        int size = c.inputSize;
+        int channels = 1;
+        int maxActivation = size * size;
+        int maxColumns = 0;
+        for (int i = 0; i < c.layers.length; i++) {
+            int kind = reader.readInt();
+            int inChannels = reader.readInt();
+            int outChannels = reader.readInt();
+            int kernel = reader.readInt();
+            if (kind == CONV_RELU_POOL) {
+                if (inChannels != channels || kernel % 2 == 0) {
+                    throw new IOException("Layer " + i + " does not fit its input");
+                }
+                maxActivation = Math.max(maxActivation, size * size * outChannels);
+                maxColumns = Math.max(maxColumns, size * size * kernel * kernel * inChannels);
+                size = (size + 1) / 2;
+                channels = outChannels;
+            } else if (kind == DENSE_RELU || kind == DENSE) {
+                if (inChannels != size * size * channels) {
+                    throw new IOException("Layer " + i + " does not fit its input");
+                }
+                kernel = 1;
+                size = 1;
+                channels = outChannels;
+                maxActivation = Math.max(maxActivation, outChannels);
+            } else {
+                throw new IOException("Unknown layer kind " + kind);
+            }
+            float[] weights = reader.readFloats(kernel * kernel * inChannels * outChannels, dtype);
+            float[] bias = reader.readFloats(outChannels, dtype);
+            c.layers[i] = new Layer(kind, inChannels, outChannels, kernel, weights, bias);
+        }
+        if (size != 1 || channels != Emotion.COUNT) {
+            throw new IOException("Model must end in " + Emotion.COUNT + " outputs");
+        }
+
+        c.emotions = new Emotion[Emotion.COUNT];
+        for (int i = 0; i < Emotion.COUNT; i++) {
+            c.emotions[i] = Emotion.fromIndex(i);
+        }
+        c.workspaces = new InterpreterPool<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            c.workspaces.add(new Workspace(maxActivation, maxColumns));
+        }
+        c.parallelism = Math.max(1, parallelism);
+        if (c.parallelism > 1) {
+            c.executor = Executors.newFixedThreadPool(c.parallelism - 1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "java-cnn");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return c;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public Classification recognize(final float[] pixels) {
+        Classification[] results = new Classification[] { new Classification() };
+        recognizeBatch(pixels, 1, results);
+        return results[0];
+    }
+
+    @Override
+    public void recognizeBatch(final float[] pixels, int count, Classification[] results) {
+        Workspace workspace;
+        try {
+            workspace = workspaces.borrow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (int i = 0; i < count; i++) {
+                results[i].reset();
+            }
+            return;
+        }
+        try {
+            int inputElements = inputSize * inputSize;
+            for (int i = 0; i < count; i++) {
+                float[] scores = forward(workspace, pixels, i * inputElements);
+                results[i].update(scores, 0, emotions, THRESHOLD);
+            }
+        } finally {
+            workspaces.release(workspace);
+        }
+    }
+
+    /**
+     * Run one image through the network.  Returns the workspace buffer that holds the class
+     * probabilities in its first {@link Emotion#COUNT} entries.
+     */
+    private float[] forward(Workspace workspace, float[] pixels, int offset) {
+        float[] input = workspace.a;
+        float[] output = workspace.b;
+        int size = inputSize;
+        System.arraycopy(pixels, offset, input, 0, size * size);
+
+        for (Layer layer : layers) {
+            if (layer.kind == CONV_RELU_POOL) {
+                int rows = size * size;
+                int depth = layer.kernel * layer.kernel * layer.in;
+                im2col(input, size, layer.in, layer.kernel, workspace.columns);
+                multiply(workspace.columns, rows, depth, layer, output, true);
+                // pool back into the input buffer, which is free again
+                size = maxPool(output, size, layer.out, input);
+            } else {
+                multiply(input, 1, layer.in, layer, output, layer.kind == DENSE_RELU);
+                float[] swap = input;
+                input = output;
+                output = swap;
+                size = 1;
+            }
+        }
+        softmax(input, Emotion.COUNT);
+        return input;
+    }
+
+    /**
+     * Unfold every kernel-sized neighbourhood of the (zero padded) input into one row, in the
+     * [ky][kx][channel] order the kernel weights are stored in.
+     */
+    static void im2col(float[] input, int size, int channels, int kernel, float[] columns) {
+        int pad = kernel / 2;
+        int index = 0;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                for (int ky = 0; ky < kernel; ky++) {
+                    int sy = y + ky - pad;
+                    for (int kx = 0; kx < kernel; kx++) {
+                        int sx = x + kx - pad;
+                        if (sy < 0 || sy >= size || sx < 0 || sx >= size) {
+                            for (int c = 0; c < channels; c++) {
+                                columns[index++] = 0.0f;
+                            }
+                        } else {
+                            System.arraycopy(input, (sy * size + sx) * channels, columns, index, channels);
+                            index += channels;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * out[rows][layer.out] = a[rows][depth] x layer.weights[depth][layer.out] + bias, split across
+     * output channel blocks that run in parallel.
+     */
+    private void multiply(final float[] a, final int rows, final int depth, final Layer layer,
+                          final float[] out, final boolean relu) {
+        int blocks = Math.min(parallelism, layer.out / MIN_CHANNELS_PER_BLOCK);
+        if (blocks <= 1 || executor == null) {
+            multiplyBlock(a, rows, depth, layer, out, relu, 0, layer.out);
+            return;
+        }
+
+        final CountDownLatch done = new CountDownLatch(blocks - 1);
+        int perBlock = (layer.out + blocks - 1) / blocks;
+        for (int b = 1; b < blocks; b++) {
+            final int from = b * perBlock;
+            final int to = Math.min(layer.out, from + perBlock);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        multiplyBlock(a, rows, depth, layer, out, relu, from, to);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        multiplyBlock(a, rows, depth, layer, out, relu, 0, Math.min(layer.out, perBlock));
+
+        // The other blocks write into our workspace, so they must finish before we go on, even
+        // if we get interrupted in the meantime.
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static void multiplyBlock(float[] a, int rows, int depth, Layer layer, float[] out,
+                              boolean relu, int from, int to) {
+        final float[] w = layer.weights;
+        final int cols = layer.out;
+        for (int r = 0; r < rows; r++) {
+            int outRow = r * cols;
+            System.arraycopy(layer.bias, from, out, outRow + from, to - from);
+            int aRow = r * depth;
+            for (int k = 0; k < depth; k++) {
+                float value = a[aRow + k];
+                if (value == 0.0f) {
+                    // ReLU and zero padding leave plenty of these
+                    continue;
+                }
+                int wRow = k * cols;
+                for (int c = from; c < to; c++) {
+                    out[outRow + c] += value * w[wRow + c];
+                }
+            }
+            if (relu) {
+                for (int c = from; c < to; c++) {
+                    if (out[outRow + c] < 0.0f) {
+                        out[outRow + c] = 0.0f;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 2x2 max pooling with stride 2 and 'same' padding.  Returns the new size.
+     */
+    static int maxPool(float[] input, int size, int channels, float[] output) {
+        int pooled = (size + 1) / 2;
+        for (int y = 0; y < pooled; y++) {
+            for (int x = 0; x < pooled; x++) {
+                int outBase = (y * pooled + x) * channels;
+                for (int c = 0; c < channels; c++) {
+                    float max = Float.NEGATIVE_INFINITY;
+                    for (int dy = 0; dy < 2; dy++) {
+                        int sy = y * 2 + dy;
+                        if (sy >= size) {
+                            continue;
+                        }
+                        for (int dx = 0; dx < 2; dx++) {
+                            int sx = x * 2 + dx;
+                            if (sx >= size) {
+                                continue;
+                            }
+                            float v = input[(sy * size + sx) * channels + c];
+                            if (v > max) {
+                                max = v;
+                            }
+                        }
+                    }
+                    output[outBase + c] = max;
+                }
+            }
+        }
+        return pooled;
+    }
+
+    static void softmax(float[] values, int count) {
+        float max = values[0];
+        for (int i = 1; i < count; i++) {
+            max = Math.max(max, values[i]);
+        }
+        float sum = 0.0f;
+        for (int i = 0; i < count; i++) {
+            values[i] = (float) Math.exp(values[i] - max);
+            sum += values[i];
+        }
+        for (int i = 0; i < count; i++) {
+            values[i] /= sum;
+        }
+    }
+
+    /**
+     * Reads little endian ints and float arrays in chunks, so that a large weights file never
+     * needs to be held in memory twice.
+     */
+    private static class WeightsReader {
+        private final InputStream in;
+        private final byte[] chunk = new byte[64 * 1024];
+        private final ByteBuffer buffer = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN);
+
+        WeightsReader(InputStream in) {
+            this.in = in;
+        }
+
+        int readInt() throws IOException {
+            fill(4);
+            return buffer.getInt(0);
+        }
+
+        float[] readFloats(int count, int dtype) throws IOException {
+            float[] values = new float[count];
+            int bytesPerValue = dtype == DTYPE_FLOAT16 ? 2 : 4;
+            int perChunk = chunk.length / bytesPerValue;
+            for (int start = 0; start < count; start += perChunk) {
+                int n = Math.min(perChunk, count - start);
+                fill(n * bytesPerValue);
+                for (int i = 0; i < n; i++) {
+                    values[start + i] = dtype == DTYPE_FLOAT16
+                            ? halfToFloat(buffer.getShort(i * 2))
+                            : buffer.getFloat(i * 4);
+                }
+            }
+            return values;
+        }
+
+        private void fill(int length) throws IOException {
+            int read = 0;
+            while (read < length) {
+                int n = in.read(chunk, read, length - read);
+                if (n < 0) {
+                    throw new EOFException("Weights file is truncated");
+                }
+                read += n;
+            }
+        }
+    }
+
+    /**
+     * IEEE 754 half precision to float.
+     */
+    static float halfToFloat(short half) {
+        int bits = half & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+        if (exponent == 0) {
+            // zero or subnormal
+            float value = mantissa * (1.0f / (1 << 24));
+            return sign == 0 ? value : -value;
+        }
+        if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+}
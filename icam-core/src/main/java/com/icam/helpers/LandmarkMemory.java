@@ -0,0 +1,70 @@
+package com.icam.helpers;
+
+import com.icam.models.Point;
+
+/**
+ * Remembers where each landmark of a tracked face sat within the face box, so that a landmark the
+ * detector misses in one frame can still be placed from where it was in earlier ones.<p>
+ *
+ * Positions are kept as fractions of the face box, in flat arrays indexed by landmark type, so
+ * remembering a frame's landmarks allocates nothing.  The face detector's landmark types are
+ * small ints, 0 to 11; others are ignored.  Not thread safe: give each tracker its own.
+ */
+public class LandmarkMemory {
+
+    public static final int MAX_TYPES = 16;
+
+    private final float[] mX = new float[MAX_TYPES];
+    private final float[] mY = new float[MAX_TYPES];
+    private final boolean[] mKnown = new boolean[MAX_TYPES];
+
+    /**
+     * Remember a landmark seen at (x, y) on a face whose box is at (left, top) and of the given
+     * size, all in frame pixels.
+     */
+    public void remember(int type, float x, float y,
+                         float left, float top, float width, float height) {
+        if (type < 0 || type >= MAX_TYPES || width <= 0 || height <= 0) {
+            return;
+        }
+        mX[type] = (x - left) / width;
+        mY[type] = (y - top) / height;
+        mKnown[type] = true;
+    }
+
+    public boolean isKnown(int type) {
+        return type >= 0 && type < MAX_TYPES && mKnown[type];
+    }
+
+    /**
+     * Where the landmark would be on a face box at (left, top) of the given size, going by where
+     * it was last seen, or null if it never was.
+     */
+    public Point recall(int type, float left, float top, float width, float height) {
+        if (!isKnown(type)) {
+            return null;
+        }
+        return new Point(left + mX[type] * width, top + mY[type] * height);
+    }
+
+    /**
+     * Like {@link #recall(int, float, float, float, float)}, but moves the given point there
+     * instead of allocating one.
+     *
+     * @return false, leaving the point as it was, if the landmark was never seen
+     */
+    public boolean recall(int type, float left, float top, float width, float height,
+                          Point into) {
+        if (!isKnown(type)) {
+            return false;
+        }
+        into.set(left + mX[type] * width, top + mY[type] * height);
+        return true;
+    }
+
+    public void clear() {
+        for (int i = 0; i < MAX_TYPES; i++) {
+            mKnown[i] = false;
+        }
+    }
+}
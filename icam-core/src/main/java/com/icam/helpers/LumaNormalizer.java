@@ -0,0 +1,360 @@
+package com.icam.helpers;
+
+import java.util.Arrays;
+
+/**
+ * Turns a square uint8 luma crop into model input, evening out lighting on the way.<p>
+ *
+ * The front and back cameras expose faces very differently, and a face lit from one side looks
+ * like another face to the CNN.  Histogram equalization spreads the crop's grey levels over the
+ * whole 0 - 255 range, either over the whole crop ({@link #GLOBAL}) or per tile with a limit on
+ * how much any one level may be stretched ({@link #CLAHE}, contrast limited adaptive histogram
+ * equalization), which also fixes uneven lighting within the face.<p>
+ *
+ * Everything goes through 256-entry lookup tables built from the crop's histogram, so the per-pixel
+ * work is one table lookup, or four and a fixed point blend for CLAHE, and the output is written
+ * straight into the caller's batch buffer.  GLOBAL can take a histogram the {@link FaceCropper}
+ * counted while cropping, which spares it a pass over the crop.  Not thread safe: the histograms
+ * and tables are reused between calls, so give each worker its own.
+ */
+public class LumaNormalizer {
+
+    // Levels are passed through unchanged.
+    public static final int NONE = 0;
+    // One equalization over the whole crop.
+    public static final int GLOBAL = 1;
+    // Equalization per tile, clipped and blended between tiles.
+    public static final int CLAHE = 2;
+
+    // 3x3 tiles of a 48x48 crop hold 256 pixels each, one per grey level on average.
+    public static final int DEFAULT_TILES = 3;
+    // How many times the average count one histogram bin may hold before it is clipped.
+    public static final float DEFAULT_CLIP_LIMIT = 3.0f;
+
+    private static final int LEVELS = 256;
+    // CLAHE tables hold levels with 4 fraction bits and blend with 8 bit weights, so a blended
+    // level has 12 fraction bits.
+    private static final int LUT_BITS = 4;
+    private static final int WEIGHT_BITS = 8;
+    private static final int BLEND_BITS = LUT_BITS + WEIGHT_BITS;
+
+    private final int mSize;
+    private final int mMode;
+    private final int mTiles;
+    private final float mClipLimit;
+    private final float mScale;
+    private final float mOffset;
+
+    // one histogram per tile for CLAHE, a single one otherwise
+    private final int[] mHistograms;
+    // NONE and GLOBAL into floats, and GLOBAL into uint8
+    private final float[] mLut = new float[LEVELS];
+    private final byte[] mByteLut = new byte[LEVELS];
+    // CLAHE, one table per tile, in fixed point
+    private final int[] mTileLuts;
+
+    // CLAHE, per row / column (the crop is square, so one set serves both axes): the tile the
+    // pixel is in, where the tables of the two tiles blended for it start, and the weight of the
+    // second out of 256.
+    private final int[] mTileOf;
+    private final int[] mLut0;
+    private final int[] mLut1;
+    private final int[] mWeight;
+    private final int[] mTilePixels;
+
+    public LumaNormalizer(int size, int mode) {
+        this(size, mode, DEFAULT_TILES, DEFAULT_CLIP_LIMIT, 1.0f, 0.0f);
+    }
+
+    /**
+     * @param size      width and height of the crops
+     * @param mode      {@link #NONE}, {@link #GLOBAL} or {@link #CLAHE}
+     * @param tiles     CLAHE tiles per axis
+     * @param clipLimit CLAHE clip limit, in multiples of the average bin count
+     * @param scale     float output is {@code level * scale + offset}, with level in 0 - 255
+     */
+    public LumaNormalizer(int size, int mode, int tiles, float clipLimit, float scale, float offset) {
+        if (mode != NONE && mode != GLOBAL && mode != CLAHE) {
+            throw new IllegalArgumentException("Unknown normalization mode " + mode);
+        }
+        mSize = size;
+        mMode = mode;
+        mTiles = mode == CLAHE ? Math.max(1, Math.min(tiles, size)) : 1;
+        mClipLimit = clipLimit;
+        mScale = scale;
+        mOffset = offset;
+        mHistograms = new int[mTiles * mTiles * LEVELS];
+        mTileLuts = new int[mode == CLAHE ? mTiles * mTiles * LEVELS : 0];
+
+        mTileOf = new int[size];
+        mTilePixels = new int[mTiles * mTiles];
+        for (int i = 0; i < size; i++) {
+            mTileOf[i] = i * mTiles / size;
+        }
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                mTilePixels[mTileOf[y] * mTiles + mTileOf[x]]++;
+            }
+        }
+        mLut0 = new int[size];
+        mLut1 = new int[size];
+        mWeight = new int[size];
+        float tileSize = (float) size / mTiles;
+        for (int i = 0; i < size; i++) {
+            // position relative to the tile centres
+            float f = (i + 0.5f) / tileSize - 0.5f;
+            int t0 = (int) Math.floor(f);
+            int t1;
+            float weight;
+            if (t0 < 0) {
+                t0 = 0;
+                t1 = 0;
+                weight = 0.0f;
+            } else if (t0 >= mTiles - 1) {
+                t0 = mTiles - 1;
+                t1 = mTiles - 1;
+                weight = 0.0f;
+            } else {
+                t1 = t0 + 1;
+                weight = f - t0;
+            }
+            mLut0[i] = t0 * LEVELS;
+            mLut1[i] = t1 * LEVELS;
+            mWeight[i] = Math.round(weight * (1 << WEIGHT_BITS));
+        }
+
+        if (mode == NONE) {
+            for (int level = 0; level < LEVELS; level++) {
+                mLut[level] = level * scale + offset;
+            }
+        }
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    /**
+     * Normalize the crop at {@code inOffset} into {@code size * size} floats at {@code outOffset}.
+     */
+    public void normalize(byte[] in, int inOffset, float[] out, int outOffset) {
+        normalize(in, inOffset, count(in, inOffset), out, outOffset);
+    }
+
+    /**
+     * Same as above, with the crop's levels already counted into a 256-entry histogram, as
+     * {@link FaceCropper#setHistogram} does while cropping.  Only GLOBAL uses it; CLAHE counts
+     * per tile itself.
+     */
+    public void normalize(byte[] in, int inOffset, int[] histogram, float[] out, int outOffset) {
+        int count = mSize * mSize;
+        if (mMode == CLAHE) {
+            buildTileLuts(in, inOffset);
+            blend(in, inOffset, out, outOffset);
+            return;
+        }
+        if (mMode == GLOBAL) {
+            buildGlobalLut(histogram, mScale, mOffset);
+        }
+        final float[] lut = mLut;
+        for (int i = 0; i < count; i++) {
+            out[outOffset + i] = lut[in[inOffset + i] & 0xff];
+        }
+    }
+
+    /**
+     * Normalize into uint8 levels, for models that take quantized input.  The float scale and
+     * offset don't apply here.  {@code in} and {@code out} may be the same buffer.
+     */
+    public void normalize(byte[] in, int inOffset, byte[] out, int outOffset) {
+        normalize(in, inOffset, count(in, inOffset), out, outOffset);
+    }
+
+    /**
+     * Same as above, with the crop's levels already counted, like the float variant.
+     */
+    public void normalize(byte[] in, int inOffset, int[] histogram, byte[] out, int outOffset) {
+        int count = mSize * mSize;
+        if (mMode == NONE) {
+            if (in != out || inOffset != outOffset) {
+                System.arraycopy(in, inOffset, out, outOffset, count);
+            }
+            return;
+        }
+        if (mMode == CLAHE) {
+            buildTileLuts(in, inOffset);
+            blend(in, inOffset, out, outOffset);
+            return;
+        }
+        final byte[] lut = mByteLut;
+        buildGlobalLut(histogram, lut);
+        for (int i = 0; i < count; i++) {
+            out[outOffset + i] = lut[in[inOffset + i] & 0xff];
+        }
+    }
+
+    // GLOBAL's histogram when the caller has none; null for the other modes, which don't use it
+    private int[] count(byte[] in, int inOffset) {
+        if (mMode != GLOBAL) {
+            return null;
+        }
+        final int[] histogram = mHistograms;
+        Arrays.fill(histogram, 0);
+        int count = mSize * mSize;
+        for (int i = 0; i < count; i++) {
+            histogram[in[inOffset + i] & 0xff]++;
+        }
+        return histogram;
+    }
+
+    // every pixel through the tables of the four nearest tile centres, weighted by distance
+    private void blend(byte[] in, int inOffset, float[] out, int outOffset) {
+        final int[] luts = mTileLuts;
+        final int[] lut0 = mLut0;
+        final int[] lut1 = mLut1;
+        final int[] weight = mWeight;
+        final float scale = mScale / (1 << BLEND_BITS);
+        final float offset = mOffset;
+        for (int y = 0; y < mSize; y++) {
+            int top = lut0[y] * mTiles;
+            int bottom = lut1[y] * mTiles;
+            int wy = weight[y];
+            int row = y * mSize;
+            for (int x = 0; x < mSize; x++) {
+                int level = in[inOffset + row + x] & 0xff;
+                int left = lut0[x] + level;
+                int right = lut1[x] + level;
+                int wx = weight[x];
+                int topLeft = luts[top + left];
+                int bottomLeft = luts[bottom + left];
+                int upper = (topLeft << WEIGHT_BITS) + wx * (luts[top + right] - topLeft);
+                int lower = (bottomLeft << WEIGHT_BITS) + wx * (luts[bottom + right] - bottomLeft);
+                int value = upper + ((wy * (lower - upper)) >> WEIGHT_BITS);
+                out[outOffset + row + x] = value * scale + offset;
+            }
+        }
+    }
+
+    // the same as above into uint8; kept apart so neither loop branches per pixel
+    private void blend(byte[] in, int inOffset, byte[] out, int outOffset) {
+        final int[] luts = mTileLuts;
+        final int[] lut0 = mLut0;
+        final int[] lut1 = mLut1;
+        final int[] weight = mWeight;
+        final int half = 1 << (BLEND_BITS - 1);
+        for (int y = 0; y < mSize; y++) {
+            int top = lut0[y] * mTiles;
+            int bottom = lut1[y] * mTiles;
+            int wy = weight[y];
+            int row = y * mSize;
+            for (int x = 0; x < mSize; x++) {
+                int level = in[inOffset + row + x] & 0xff;
+                int left = lut0[x] + level;
+                int right = lut1[x] + level;
+                int wx = weight[x];
+                int topLeft = luts[top + left];
+                int bottomLeft = luts[bottom + left];
+                int upper = (topLeft << WEIGHT_BITS) + wx * (luts[top + right] - topLeft);
+                int lower = (bottomLeft << WEIGHT_BITS) + wx * (luts[bottom + right] - bottomLeft);
+                int value = upper + ((wy * (lower - upper)) >> WEIGHT_BITS);
+                out[outOffset + row + x] = (byte) ((value + half) >> BLEND_BITS);
+            }
+        }
+    }
+
+    private void buildGlobalLut(int[] histogram, float scale, float offset) {
+        final float[] lut = mLut;
+        int count = mSize * mSize;
+        // the darkest level present maps to 0 and the brightest to 255
+        int first = 0;
+        while (first < LEVELS - 1 && histogram[first] == 0) {
+            first++;
+        }
+        int cdfMin = histogram[first];
+        int range = count - cdfMin;
+        if (range <= 0) {
+            // a single level: nothing to spread
+            for (int level = 0; level < LEVELS; level++) {
+                lut[level] = level * scale + offset;
+            }
+            return;
+        }
+        for (int level = 0; level < first; level++) {
+            lut[level] = offset;
+        }
+        float step = 255.0f * scale / range;
+        int cdf = 0;
+        for (int level = first; level < LEVELS; level++) {
+            cdf += histogram[level];
+            lut[level] = (cdf - cdfMin) * step + offset;
+        }
+    }
+
+    // the same table for uint8 output, rounded to the nearest level in integers
+    private void buildGlobalLut(int[] histogram, byte[] lut) {
+        int count = mSize * mSize;
+        int first = 0;
+        while (first < LEVELS - 1 && histogram[first] == 0) {
+            first++;
+        }
+        int cdfMin = histogram[first];
+        int range = count - cdfMin;
+        if (range <= 0) {
+            for (int level = 0; level < LEVELS; level++) {
+                lut[level] = (byte) level;
+            }
+            return;
+        }
+        for (int level = 0; level < first; level++) {
+            lut[level] = 0;
+        }
+        int half = range >> 1;
+        int cdf = 0;
+        for (int level = first; level < LEVELS; level++) {
+            cdf += histogram[level];
+            lut[level] = (byte) (((cdf - cdfMin) * 255 + half) / range);
+        }
+    }
+
+    private void buildTileLuts(byte[] in, int inOffset) {
+        // all tiles' histograms in one pass over the crop
+        final int[] histograms = mHistograms;
+        final int[] tileOf = mTileOf;
+        Arrays.fill(histograms, 0);
+        for (int y = 0; y < mSize; y++) {
+            int rowTile = tileOf[y] * mTiles;
+            int row = inOffset + y * mSize;
+            for (int x = 0; x < mSize; x++) {
+                histograms[(rowTile + tileOf[x]) * LEVELS + (in[row + x] & 0xff)]++;
+            }
+        }
+
+        final int[] luts = mTileLuts;
+        final int max = 255 << LUT_BITS;
+        for (int tile = 0; tile < mTiles * mTiles; tile++) {
+            int pixels = mTilePixels[tile];
+            int base = tile * LEVELS;
+
+            // clip the tall bins and hand what was cut off out evenly to all of them
+            int limit = Math.max(1, (int) (mClipLimit * pixels / LEVELS));
+            int excess = 0;
+            for (int level = 0; level < LEVELS; level++) {
+                int count = histograms[base + level];
+                if (count > limit) {
+                    excess += count - limit;
+                    histograms[base + level] = limit;
+                }
+            }
+
+            // the running sum in fixed point, 16 bits below the table's own fraction bits
+            int norm = Math.round((255 << LUT_BITS) * 65536.0f / pixels);
+            int step = Math.round(excess * (float) norm / LEVELS);
+            long value = 1 << 15;
+            for (int level = 0; level < LEVELS; level++) {
+                value += (long) histograms[base + level] * norm + step;
+                int entry = (int) (value >> 16);
+                luts[base + level] = entry < max ? entry : max;
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.icam.helpers;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free map from tracking id to a per-face value, sized once for the most faces we will ever
+ * track at the same time.<p>
+ *
+ * Ids are spread over a fixed power-of-two table and found by probing at most {@link #MAX_PROBE}
+ * slots.  Every slot holds an immutable (id, value) pair that is swapped in and out with
+ * compare-and-set, so readers never block and never see a half-written entry.  Removing an entry
+ * just empties its slot; lookups always scan the whole probe window, so the hole does not hide
+ * entries after it.<p>
+ *
+ * Any thread may look values up and remove them.  Inserts must all come from one thread (the
+ * detector thread), which is what guarantees an id is never stored twice.
+ */
+public class TrackStore<V> {
+
+    public static final int DEFAULT_CAPACITY = 64;
+    static final int MAX_PROBE = 8;
+
+    private final AtomicReferenceArray<Slot<V>> mSlots;
+    private final int mMask;
+    private final int mShift;
+
+    private static final class Slot<V> {
+        final int id;
+        final V value;
+
+        Slot(int id, V value) {
+            this.id = id;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Decides, for each stored entry, whether {@link #sweep} should remove it.
+     */
+    public interface Evictor<V> {
+        boolean shouldEvict(int id, V value);
+    }
+
+    public TrackStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity rounded up to a power of two, and at least {@link #MAX_PROBE}
+     */
+    public TrackStore(int capacity) {
+        int size = MAX_PROBE;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mSlots = new AtomicReferenceArray<>(size);
+        mMask = size - 1;
+        mShift = 32 - Integer.numberOfTrailingZeros(size);
+    }
+
+    public V get(int id) {
+        int start = hash(id);
+        for (int i = 0; i < MAX_PROBE; i++) {
+            Slot<V> slot = mSlots.get((start + i) & mMask);
+            if (slot != null && slot.id == id) {
+                return slot.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Store a value for an id that isn't in the store yet.  Inserting thread only.
+     *
+     * @return false if all slots the id may go in are taken, in which case the face simply goes
+     * without a stored value
+     */
+    public boolean insert(int id, V value) {
+        Slot<V> slot = new Slot<>(id, value);
+        int start = hash(id);
+        for (int i = 0; i < MAX_PROBE; i++) {
+            // only removals race with us, and they only ever empty slots
+            if (mSlots.compareAndSet((start + i) & mMask, null, slot)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove the id's entry, whatever it holds.
+     *
+     * @return the removed value, or null if there was none
+     */
+    public V remove(int id) {
+        int start = hash(id);
+        for (int i = 0; i < MAX_PROBE; i++) {
+            int index = (start + i) & mMask;
+            Slot<V> slot = mSlots.get(index);
+            if (slot != null && slot.id == id && mSlots.compareAndSet(index, slot, null)) {
+                return slot.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove every entry the evictor picks.  Returns how many were removed.
+     */
+    public int sweep(Evictor<V> evictor) {
+        int removed = 0;
+        for (int index = 0; index <= mMask; index++) {
+            Slot<V> slot = mSlots.get(index);
+            if (slot != null && evictor.shouldEvict(slot.id, slot.value)
+                    && mSlots.compareAndSet(index, slot, null)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public int size() {
+        int size = 0;
+        for (int index = 0; index <= mMask; index++) {
+            if (mSlots.get(index) != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (int index = 0; index <= mMask; index++) {
+            mSlots.set(index, null);
+        }
+    }
+
+    // tracking ids count up from 0; Fibonacci hashing spreads consecutive ids over the table
+    private int hash(int id) {
+        return (id * 0x9E3779B1) >>> mShift;
+    }
+}
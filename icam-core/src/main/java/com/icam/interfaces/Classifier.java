@@ -0,0 +1,22 @@
+package com.icam.interfaces;
+
+import com.icam.models.Classification;
+
+//public interface for the classifer
+    //exposes its name and the recognize function
+    //which given some drawn pixels as input
+    //classifies what it sees as an MNIST image
+public interface Classifier {
+    String name();
+
+    //pixels are 8 bit luma / 255, 0 to 1, the way the models were trained
+    Classification recognize(final float[] pixels);
+
+    //classifies count images at once, packed one after the other in pixels
+    //writes one classification per image into results, in the same order
+    //results are reused, so a steady stream of calls allocates nothing
+    void recognizeBatch(final float[] pixels, int count, Classification[] results);
+
+    //frees the model and its sessions, the classifier can't be used afterwards
+    void close();
+}
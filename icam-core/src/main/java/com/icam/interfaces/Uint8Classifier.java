@@ -0,0 +1,15 @@
+package com.icam.interfaces;
+
+import com.icam.models.Classification;
+
+//a classifier that can also take raw 8 bit grayscale pixels
+    //quantized models consume these as is, which saves converting
+    //every pixel to a float on the way in
+public interface Uint8Classifier extends Classifier {
+
+    //true if the model itself takes uint8 input, i.e. the byte path is the cheap one
+    boolean hasUint8Input();
+
+    //same as recognizeBatch(float[], ...) with one unsigned byte per pixel
+    void recognizeBatch(final byte[] pixels, int count, Classification[] results);
+}
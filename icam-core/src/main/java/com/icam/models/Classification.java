@@ -0,0 +1,59 @@
+package com.icam.models;
+
+public class Classification {
+
+    //conf is the output
+    private float conf;
+    //input label
+    private String label;
+    private Emotion emotion;
+    //every class probability, not just the winning one
+    private final EmotionVector predictions = new EmotionVector();
+
+    public Classification() {
+        reset();
+    }
+
+    //make the instance ready for reuse by the next recognize call
+    public void reset() {
+        this.conf = -1.0F;
+        this.label = null;
+        this.emotion = null;
+        this.predictions.clear();
+    }
+
+    public void update(float conf, Emotion emotion) {
+        this.conf = conf;
+        this.emotion = emotion;
+        this.label = emotion.getLabel();
+    }
+
+    //take over one row of raw classifier output
+    //order says which emotion each column stands for; the best one wins if above threshold
+    public void update(float[] output, int offset, Emotion[] order, float threshold) {
+        reset();
+        for (int i = 0; i < order.length; ++i) {
+            float conf = output[offset + i];
+            predictions.set(order[i], conf);
+            if (conf > threshold && conf > this.conf) {
+                update(conf, order[i]);
+            }
+        }
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public Emotion getEmotion() {
+        return emotion;
+    }
+
+    public float getConf() {
+        return conf;
+    }
+
+    public EmotionVector getPredictions(){
+        return predictions;
+    }
+}
@@ -0,0 +1,46 @@
+package com.icam.models;
+
+/**
+ * The seven expressions the CNN was trained on, in the order of the FER2013 labels
+ * ({@code 0=Angry, 1=Disgust, 2=Fear, 3=Happy, 4=Sad, 5=Surprise, 6=Neutral}).
+ */
+public enum Emotion {
+    ANGRY("Angry"),
+    DISGUST("Disgust"),
+    FEAR("Fear"),
+    HAPPY("Happy"),
+    SAD("Sad"),
+    SURPRISE("Surprise"),
+    NEUTRAL("Neutral");
+
+    public static final int COUNT = 7;
+
+    // values() hands out a fresh copy on every call, keep one around for index lookups.
+    private static final Emotion[] VALUES = values();
+
+    private final String label;
+
+    Emotion(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public static Emotion fromIndex(int index) {
+        return VALUES[index];
+    }
+
+    /**
+     * Look up an emotion by its label, as found in labels.txt.  Returns null for unknown labels.
+     */
+    public static Emotion fromLabel(String label) {
+        for (Emotion emotion : VALUES) {
+            if (emotion.label.equalsIgnoreCase(label.trim())) {
+                return emotion;
+            }
+        }
+        return null;
+    }
+}
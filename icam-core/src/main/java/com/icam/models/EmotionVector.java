@@ -0,0 +1,97 @@
+package com.icam.models;
+
+/**
+ * One score per {@link Emotion}, indexed by {@link Emotion#ordinal()}.<p>
+ *
+ * Backed by a plain float array so that results can be copied from the classifier output and on
+ * to the overlay without boxing or allocating anything.
+ */
+public class EmotionVector {
+
+    private final float[] scores = new float[Emotion.COUNT];
+
+    public float get(Emotion emotion) {
+        return scores[emotion.ordinal()];
+    }
+
+    public float get(int index) {
+        return scores[index];
+    }
+
+    public void set(Emotion emotion, float score) {
+        scores[emotion.ordinal()] = score;
+    }
+
+    public void set(int index, float score) {
+        scores[index] = score;
+    }
+
+    public void clear() {
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = 0.0f;
+        }
+    }
+
+    public void copyFrom(EmotionVector other) {
+        System.arraycopy(other.scores, 0, scores, 0, scores.length);
+    }
+
+    /**
+     * Copy {@link Emotion#COUNT} scores starting at {@code offset}, e.g. one row of a batch output.
+     */
+    public void copyFrom(float[] src, int offset) {
+        System.arraycopy(src, offset, scores, 0, scores.length);
+    }
+
+    /**
+     * Index of the highest score.
+     */
+    public int argmax() {
+        int best = 0;
+        for (int i = 1; i < scores.length; i++) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    public Emotion top() {
+        return Emotion.fromIndex(argmax());
+    }
+
+    public float max() {
+        return scores[argmax()];
+    }
+
+    /**
+     * Fill {@code out} with the indices of the {@code k} highest scores, best first.
+     *
+     * @return the number of indices written, which is at most {@link Emotion#COUNT}
+     */
+    public int top(int k, int[] out) {
+        int n = Math.min(Math.min(k, out.length), scores.length);
+        for (int i = 0; i < n; i++) {
+            int best = -1;
+            for (int j = 0; j < scores.length; j++) {
+                if (isTaken(out, i, j)) {
+                    continue;
+                }
+                if (best < 0 || scores[j] > scores[best]) {
+                    best = j;
+                }
+            }
+            out[i] = best;
+        }
+        return n;
+    }
+
+    private static boolean isTaken(int[] picked, int count, int index) {
+        for (int i = 0; i < count; i++) {
+            if (picked[i] == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -29,10 +29,6 @@
  */
 package com.icam.models;
 
-import android.graphics.PointF;
-
-import java.util.Map;
-
 public class FaceData {
 
     private static final String TAG = "FaceData";
@@ -40,7 +36,7 @@ public class FaceData {
     private int mId;
 
     // Face dimensions
-    private PointF mPosition;
+    private Point mPosition;
     private float mWidth;
     private float mHeight;
 
@@ -54,23 +50,23 @@ public class FaceData {
     private boolean mSmiling;
 
     // Facial landmarks
-    private PointF mLeftEyePosition;
-    private PointF mRightEyePosition;
-    private PointF mLeftCheekPosition;
-    private PointF mRightCheekPosition;
-    private PointF mNoseBasePosition;
-    private PointF mLeftEarPosition;
-    private PointF mLeftEarTipPosition;
-    private PointF mRightEarPosition;
-    private PointF mRightEarTipPosition;
-    private PointF mMouthLeftPosition;
-    private PointF mMouthBottomPosition;
-    private PointF mMouthRightPosition;
+    private Point mLeftEyePosition;
+    private Point mRightEyePosition;
+    private Point mLeftCheekPosition;
+    private Point mRightCheekPosition;
+    private Point mNoseBasePosition;
+    private Point mLeftEarPosition;
+    private Point mLeftEarTipPosition;
+    private Point mRightEarPosition;
+    private Point mRightEarTipPosition;
+    private Point mMouthLeftPosition;
+    private Point mMouthBottomPosition;
+    private Point mMouthRightPosition;
     private boolean hasEmotionData;
 
-    private String emotion;
+    private Emotion emotion;
     private float emotionCoef;
-    private Map<String, Float> predictions;
+    private final EmotionVector predictions = new EmotionVector();
 
     public int getId() {
         return mId;
@@ -80,11 +76,11 @@ public class FaceData {
         mId = id;
     }
 
-    public PointF getPosition() {
+    public Point getPosition() {
         return mPosition;
     }
 
-    public void setPosition(PointF position) {
+    public void setPosition(Point position) {
         mPosition = position;
     }
 
@@ -144,99 +140,99 @@ public class FaceData {
         this.mSmiling = smiling;
     }
 
-    public PointF getLeftEyePosition() {
+    public Point getLeftEyePosition() {
         return mLeftEyePosition;
     }
 
-    public void setLeftEyePosition(PointF leftEyePosition) {
+    public void setLeftEyePosition(Point leftEyePosition) {
         this.mLeftEyePosition = leftEyePosition;
     }
 
-    public PointF getRightEyePosition() {
+    public Point getRightEyePosition() {
         return mRightEyePosition;
     }
 
-    public void setRightEyePosition(PointF rightEyePosition) {
+    public void setRightEyePosition(Point rightEyePosition) {
         this.mRightEyePosition = rightEyePosition;
     }
 
-    public PointF getLeftCheekPosition() {
+    public Point getLeftCheekPosition() {
         return mLeftCheekPosition;
     }
 
-    public void setLeftCheekPosition(PointF leftCheekPosition) {
+    public void setLeftCheekPosition(Point leftCheekPosition) {
         mLeftCheekPosition = leftCheekPosition;
     }
 
-    public PointF getRightCheekPosition() {
+    public Point getRightCheekPosition() {
         return mRightCheekPosition;
     }
 
-    public void setRightCheekPosition(PointF rightCheekPosition) {
+    public void setRightCheekPosition(Point rightCheekPosition) {
         mRightCheekPosition = rightCheekPosition;
     }
 
-    public PointF getNoseBasePosition() {
+    public Point getNoseBasePosition() {
         return mNoseBasePosition;
     }
 
-    public void setNoseBasePosition(PointF noseBasePosition) {
+    public void setNoseBasePosition(Point noseBasePosition) {
         this.mNoseBasePosition = noseBasePosition;
     }
 
-    public PointF getLeftEarPosition() {
+    public Point getLeftEarPosition() {
         return mLeftEarPosition;
     }
 
-    public void setLeftEarPosition(PointF leftEarPosition) {
+    public void setLeftEarPosition(Point leftEarPosition) {
         mLeftEarPosition = leftEarPosition;
     }
 
-    public PointF getLeftEarTipPosition() {
+    public Point getLeftEarTipPosition() {
         return mLeftEarTipPosition;
     }
 
-    public void setLeftEarTipPosition(PointF leftEarTipPosition) {
+    public void setLeftEarTipPosition(Point leftEarTipPosition) {
         mLeftEarTipPosition = leftEarTipPosition;
     }
 
-    public PointF getRightEarPosition() {
+    public Point getRightEarPosition() {
         return mRightEarPosition;
     }
 
-    public void setRightEarPosition(PointF rightEarPosition) {
+    public void setRightEarPosition(Point rightEarPosition) {
         mRightEarPosition = rightEarPosition;
     }
 
-    public PointF getRightEarTipPosition() {
+    public Point getRightEarTipPosition() {
         return mRightEarTipPosition;
     }
 
-    public void setRightEarTipPosition(PointF rightEarTipPosition) {
+    public void setRightEarTipPosition(Point rightEarTipPosition) {
         mRightEarTipPosition = rightEarTipPosition;
     }
 
-    public PointF getMouthLeftPosition() {
+    public Point getMouthLeftPosition() {
         return mMouthLeftPosition;
     }
 
-    public void setMouthLeftPosition(PointF mouthLeftPosition) {
+    public void setMouthLeftPosition(Point mouthLeftPosition) {
         this.mMouthLeftPosition = mouthLeftPosition;
     }
 
-    public PointF getMouthBottomPosition() {
+    public Point getMouthBottomPosition() {
         return mMouthBottomPosition;
     }
 
-    public void setMouthBottomPosition(PointF mouthBottomPosition) {
+    public void setMouthBottomPosition(Point mouthBottomPosition) {
         this.mMouthBottomPosition = mouthBottomPosition;
     }
 
-    public PointF getMouthRightPosition() {
+    public Point getMouthRightPosition() {
         return mMouthRightPosition;
     }
 
-    public void setMouthRightPosition(PointF mouthRightPosition) {
+    public void setMouthRightPosition(Point mouthRightPosition) {
         this.mMouthRightPosition = mouthRightPosition;
     }
 
@@ -248,11 +244,11 @@ public class FaceData {
         return hasEmotionData;
     }
 
-    public String getEmotion() {
+    public Emotion getEmotion() {
         return emotion;
     }
 
-    public void setEmotion(String emotion) {
+    public void setEmotion(Emotion emotion) {
         this.emotion = emotion;
     }
 
@@ -264,11 +260,7 @@ public class FaceData {
         this.emotionCoef = emotionCoef;
     }
 
-    public void setPredictions(Map<String, Float> predictions) {
-        this.predictions = predictions;
-    }
-
-    public Map<String, Float> getPredictions() {
+    public EmotionVector getPredictions() {
         return predictions;
     }
 }
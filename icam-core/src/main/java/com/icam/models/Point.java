@@ -0,0 +1,54 @@
+package com.icam.models;
+
+/**
+ * A position in frame or view pixels.  Stands in for {@code android.graphics.PointF} in the core
+ * module, with the same x and y fields, so that landmark math and physics run on a plain JVM.
+ * Like PointF it can be moved with {@link #set}, which is how the trackers keep one per landmark
+ * instead of allocating them every frame.
+ */
+public final class Point {
+
+    public float x;
+    public float y;
+
+    public Point() {
+    }
+
+    public Point(float x, float y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    public void set(float x, float y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    public float distanceTo(Point other) {
+        float dx = other.x - x;
+        float dy = other.y - y;
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Point)) {
+            return false;
+        }
+        Point other = (Point) o;
+        return Float.compare(x, other.x) == 0 && Float.compare(y, other.y) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Float.floatToIntBits(x) + Float.floatToIntBits(y);
+    }
+
+    @Override
+    public String toString() {
+        return "Point(" + x + ", " + y + ")";
+    }
+}
@@ -0,0 +1,116 @@
+package com.icam.perf;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bytes allocated per item by something that runs once per frame, such as a pipeline stage or
+ * drawing the overlay: the last {@link #SIZE} items one by one, and running totals over all of
+ * them.<p>
+ *
+ * Like {@link LatencyHistogram}, recording never blocks or allocates.  A snapshot taken while
+ * items are recorded may hold a sample that was just overwritten in place of the newest one.
+ */
+public class AllocationWindow {
+
+    public static final int SIZE = 128;
+
+    private final AtomicLongArray mSamples = new AtomicLongArray(SIZE);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalBytes = new AtomicLong();
+
+    public void record(long bytes) {
+        if (bytes < 0) {
+            bytes = 0;
+        }
+        long index = mCount.getAndIncrement();
+        mSamples.set((int) (index % SIZE), bytes);
+        mTotalBytes.addAndGet(bytes);
+    }
+
+    public Snapshot snapshot() {
+        long count = mCount.get();
+        int size = (int) Math.min(count, SIZE);
+        long[] samples = new long[size];
+        for (int i = 0; i < size; i++) {
+            // oldest first
+            samples[i] = mSamples.get((int) ((count - size + i) % SIZE));
+        }
+        return new Snapshot(samples, count, mTotalBytes.get());
+    }
+
+    /**
+     * A window at one point in time.
+     */
+    public static final class Snapshot {
+
+        private final long[] mSamples;
+        private final long mCount;
+        private final long mTotalBytes;
+
+        Snapshot(long[] samples, long count, long totalBytes) {
+            mSamples = samples;
+            mCount = count;
+            mTotalBytes = totalBytes;
+        }
+
+        /**
+         * The totals recorded between an earlier snapshot of the same window and this one.  The
+         * samples stay those of this snapshot.
+         */
+        public Snapshot minus(Snapshot earlier) {
+            return new Snapshot(mSamples, Math.max(0, mCount - earlier.mCount),
+                    Math.max(0, mTotalBytes - earlier.mTotalBytes));
+        }
+
+        /**
+         * Items recorded, in total.
+         */
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getTotalBytes() {
+            return mTotalBytes;
+        }
+
+        /**
+         * Average bytes per item over the totals, not just the window.
+         */
+        public float getBytesPerItem() {
+            return mCount == 0 ? 0 : (float) mTotalBytes / mCount;
+        }
+
+        /**
+         * The samples in the window, oldest first.
+         */
+        public long[] getSamples() {
+            return mSamples.clone();
+        }
+
+        public float getWindowMeanBytes() {
+            if (mSamples.length == 0) {
+                return 0;
+            }
+            long sum = 0;
+            for (long sample : mSamples) {
+                sum += sample;
+            }
+            return (float) sum / mSamples.length;
+        }
+
+        public long getWindowMaxBytes() {
+            long max = 0;
+            for (long sample : mSamples) {
+                max = Math.max(max, sample);
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.0f B/item, max %d B of last %d (%d)", getBytesPerItem(),
+                    getWindowMaxBytes(), mSamples.length, mCount);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.icam.perf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What happened to the last few thousand frames, for working out after the fact why emotions
+ * lagged: when each frame was detected and how many faces it had, when each face was classified
+ * and as what, and when the overlay was drawn.<p>
+ *
+ * Events go into a ring of fixed size records outside the Java heap, the oldest overwritten
+ * first.  Recording one claims a slot with an atomic increment and writes the fields into it, so
+ * it never locks or allocates and is always on.  {@link #dump} writes the ring to a file, which
+ * {@link FrameTraceReader} turns into timelines and percentiles on the build machine.<p>
+ *
+ * A record is 32 bytes, little endian:
+ * <pre>
+ *  0  byte   type: {@link #TYPE_FRAME}, {@link #TYPE_INFERENCE} or {@link #TYPE_DRAW}
+ *  1  byte   emotion index of an inference result, -1 for none
+ *  2  short  faces in the frame, or in the inference batch
+ *  4  int    frame id, as numbered by the camera
+ *  8  long   start, System.nanoTime()
+ * 16  int    duration, in microseconds
+ * 20  int    face id of an inference
+ * 24  float  confidence of an inference result
+ * 28  int    camera timestamp of a frame, in milliseconds
+ * </pre>
+ * A dump starts with a 24 byte header: the magic number, the format version, the record size,
+ * the number of records that follow, oldest first, and the number ever recorded.
+ */
+public class FrameTrace {
+
+    public static final int TYPE_FRAME = 1;
+    public static final int TYPE_INFERENCE = 2;
+    public static final int TYPE_DRAW = 3;
+
+    // "ICTR"
+    static final int MAGIC = 0x49435452;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    public static final int RECORD_SIZE = 32;
+    // About a minute of frames with a couple of faces at 30 fps, in 256 KB.
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private static final FrameTrace DEFAULT = new FrameTrace(DEFAULT_CAPACITY);
+
+    private final int mCapacity;
+    private final ByteBuffer mRecords;
+    private final AtomicLong mRecorded = new AtomicLong();
+
+    public static FrameTrace getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param capacity records kept before the oldest are overwritten
+     */
+    public FrameTrace(int capacity) {
+        mCapacity = capacity;
+        mRecords = ByteBuffer.allocateDirect(capacity * RECORD_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Records ever written, including the ones overwritten since.
+     */
+    public long getRecordedCount() {
+        return mRecorded.get();
+    }
+
+    /**
+     * A camera frame went through face detection.
+     */
+    public void frame(long frameId, long cameraMillis, long startNanos, long durationNanos,
+                      int faceCount) {
+        write(TYPE_FRAME, -1, faceCount, frameId, 0, startNanos, durationNanos, 0, cameraMillis);
+    }
+
+    /**
+     * A face of a frame was classified, in a batch of {@code batchSize} faces.
+     *
+     * @param emotion the index of the emotion it was classified as, or -1 if none was sure enough
+     */
+    public void inference(long frameId, int faceId, long startNanos, long durationNanos,
+                          int batchSize, int emotion, float confidence) {
+        write(TYPE_INFERENCE, emotion, batchSize, frameId, faceId, startNanos, durationNanos,
+                confidence, 0);
+    }
+
+    /**
+     * The overlay was drawn.
+     */
+    public void draw(long startNanos, long durationNanos) {
+        write(TYPE_DRAW, -1, 0, 0, 0, startNanos, durationNanos, 0, 0);
+    }
+
+    /**
+     * Write the records to a file, replacing it in one go once they are all written.  Records
+     * made while dumping may or may not be in it, and one being written at that moment may come
+     * out torn.
+     */
+    public void dump(File file) throws IOException {
+        File partial = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(partial);
+        try {
+            writeTo(out.getChannel());
+        } finally {
+            out.close();
+        }
+        if (!partial.renameTo(file)) {
+            partial.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        long recorded = mRecorded.get();
+        int count = (int) Math.min(recorded, mCapacity);
+        int first = (int) ((recorded - count) % mCapacity);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(count).putLong(recorded);
+        header.flip();
+        writeFully(channel, header);
+
+        // oldest first: from the oldest slot to the end of the ring, then round from its start
+        int tail = Math.min(count, mCapacity - first);
+        writeFully(channel, slice(first, tail));
+        writeFully(channel, slice(0, count - tail));
+    }
+
+    private void write(int type, int label, int count, long frameId, int faceId,
+                       long startNanos, long durationNanos, float confidence, long cameraMillis) {
+        int at = (int) (mRecorded.getAndIncrement() % mCapacity) * RECORD_SIZE;
+        ByteBuffer records = mRecords;
+        records.put(at, (byte) type);
+        records.put(at + 1, (byte) label);
+        records.putShort(at + 2, (short) Math.min(count, Short.MAX_VALUE));
+        records.putInt(at + 4, (int) frameId);
+        records.putLong(at + 8, startNanos);
+        records.putInt(at + 16, (int) Math.min(Math.max(durationNanos / 1000, 0),
+                Integer.MAX_VALUE));
+        records.putInt(at + 20, faceId);
+        records.putFloat(at + 24, confidence);
+        records.putInt(at + 28, (int) cameraMillis);
+    }
+
+    // A view of some records that doesn't move the ring's own position.
+    private ByteBuffer slice(int first, int count) {
+        ByteBuffer view = mRecords.duplicate();
+        view.limit((first + count) * RECORD_SIZE);
+        view.position(first * RECORD_SIZE);
+        return view;
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
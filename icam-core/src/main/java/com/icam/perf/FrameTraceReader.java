@@ -0,0 +1,202 @@
+package com.icam.perf;
+
+import com.icam.models.Emotion;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a {@link FrameTrace} dump on the build machine and prints percentiles of detection,
+ * inference, the time from detecting a frame to a face's result, drawing and the gaps between
+ * draws, then every record on one timeline:
+ * <pre>
+ *   ./gradlew :icam-core:traceReport -Ptrace=frames.trace
+ * </pre>
+ */
+public class FrameTraceReader {
+
+    /**
+     * One record of the trace.
+     */
+    public static final class Record {
+        public final int type;
+        // emotion index, or -1
+        public final int emotion;
+        public final int count;
+        public final int frameId;
+        public final long startNanos;
+        public final long durationNanos;
+        public final int faceId;
+        public final float confidence;
+        public final int cameraMillis;
+
+        Record(ByteBuffer buffer, int at) {
+            type = buffer.get(at);
+            emotion = buffer.get(at + 1);
+            count = buffer.getShort(at + 2);
+            frameId = buffer.getInt(at + 4);
+            startNanos = buffer.getLong(at + 8);
+            durationNanos = buffer.getInt(at + 16) * 1000L;
+            faceId = buffer.getInt(at + 20);
+            confidence = buffer.getFloat(at + 24);
+            cameraMillis = buffer.getInt(at + 28);
+        }
+
+        public long getEndNanos() {
+            return startNanos + durationNanos;
+        }
+
+        public String getEmotionLabel() {
+            return emotion >= 0 && emotion < Emotion.COUNT
+                    ? Emotion.fromIndex(emotion).getLabel() : "none";
+        }
+    }
+
+    /**
+     * The records of a dump, oldest first.
+     */
+    public static List<Record> read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(chunk)) > 0) {
+            bytes.write(chunk, 0, read);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < FrameTrace.HEADER_SIZE
+                || buffer.getInt(0) != FrameTrace.MAGIC) {
+            throw new IOException("Not a frame trace");
+        }
+        if (buffer.getInt(4) != FrameTrace.VERSION) {
+            throw new IOException("Unknown frame trace version " + buffer.getInt(4));
+        }
+        int recordSize = buffer.getInt(8);
+        int count = buffer.getInt(12);
+        if (recordSize < FrameTrace.RECORD_SIZE
+                || buffer.remaining() < FrameTrace.HEADER_SIZE + (long) count * recordSize) {
+            throw new IOException("Truncated frame trace");
+        }
+        List<Record> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            records.add(new Record(buffer, FrameTrace.HEADER_SIZE + i * recordSize));
+        }
+        return records;
+    }
+
+    public static List<Record> read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Latency percentiles over the whole trace.
+     */
+    public static void printSummary(List<Record> records, PrintStream out) {
+        LatencyHistogram detect = new LatencyHistogram();
+        LatencyHistogram inference = new LatencyHistogram();
+        LatencyHistogram result = new LatencyHistogram();
+        LatencyHistogram draw = new LatencyHistogram();
+        LatencyHistogram drawGap = new LatencyHistogram();
+        Map<Integer, Record> frames = new HashMap<>();
+        long lastDraw = -1;
+        for (Record record : records) {
+            if (record.type == FrameTrace.TYPE_FRAME) {
+                detect.record(record.durationNanos);
+                frames.put(record.frameId, record);
+            } else if (record.type == FrameTrace.TYPE_INFERENCE) {
+                inference.record(record.durationNanos);
+                Record frame = frames.get(record.frameId);
+                if (frame != null) {
+                    result.record(record.getEndNanos() - frame.startNanos);
+                }
+            } else if (record.type == FrameTrace.TYPE_DRAW) {
+                draw.record(record.durationNanos);
+                if (lastDraw >= 0) {
+                    drawGap.record(record.startNanos - lastDraw);
+                }
+                lastDraw = record.startNanos;
+            }
+        }
+        out.println(records.size() + " records over "
+                + String.format("%.1f s", span(records) / 1e9));
+        out.println("detect      " + detect.snapshot());
+        out.println("inference   " + inference.snapshot());
+        out.println("to result   " + result.snapshot());
+        out.println("draw        " + draw.snapshot());
+        out.println("draw gap    " + drawGap.snapshot());
+    }
+
+    /**
+     * Every record in the order it started, timed from the first.
+     */
+    public static void printTimeline(List<Record> records, PrintStream out) {
+        if (records.isEmpty()) {
+            return;
+        }
+        List<Record> sorted = new ArrayList<>(records);
+        Collections.sort(sorted, new Comparator<Record>() {
+            @Override
+            public int compare(Record a, Record b) {
+                return a.startNanos < b.startNanos ? -1 : a.startNanos > b.startNanos ? 1 : 0;
+            }
+        });
+        long origin = sorted.get(0).startNanos;
+        Map<Integer, Record> frames = new HashMap<>();
+        for (Record record : sorted) {
+            String at = String.format("%10.1f ms  ", (record.startNanos - origin) / 1e6);
+            if (record.type == FrameTrace.TYPE_FRAME) {
+                frames.put(record.frameId, record);
+                out.println(at + String.format("frame %d (camera %d ms): detect %.1f ms, %d faces",
+                        record.frameId, record.cameraMillis, record.durationNanos / 1e6,
+                        record.count));
+            } else if (record.type == FrameTrace.TYPE_INFERENCE) {
+                Record frame = frames.get(record.frameId);
+                String after = frame == null ? "" : String.format(", %.1f ms after detection",
+                        (record.getEndNanos() - frame.startNanos) / 1e6);
+                out.println(at + String.format("  face %d of frame %d: %s %.2f, infer %.1f ms"
+                                + " in a batch of %d%s", record.faceId, record.frameId,
+                        record.getEmotionLabel(), record.confidence, record.durationNanos / 1e6,
+                        record.count, after));
+            } else if (record.type == FrameTrace.TYPE_DRAW) {
+                out.println(at + String.format("draw %.1f ms", record.durationNanos / 1e6));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: FrameTraceReader <trace file>");
+            System.exit(2);
+        }
+        List<Record> records = read(new File(args[0]));
+        printSummary(records, System.out);
+        System.out.println();
+        printTimeline(records, System.out);
+    }
+
+    private static long span(List<Record> records) {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (Record record : records) {
+            first = Math.min(first, record.startNanos);
+            last = Math.max(last, record.getEndNanos());
+        }
+        return records.isEmpty() ? 0 : last - first;
+    }
+}
@@ -0,0 +1,60 @@
+package com.icam.perf;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+/**
+ * {@link RuntimeStats} from the management beans of a desktop JVM, for tests and benchmarks;
+ * Android has no java.lang.management.  Allocated bytes need a HotSpot based JVM, which all the
+ * usual ones are.  Collections are not told apart by whether they stopped the application, so
+ * the blocking time is unknown.
+ */
+public class JvmRuntimeStats implements RuntimeStats {
+
+    // null when the JVM can't count allocations per thread
+    private final com.sun.management.ThreadMXBean mThreads;
+    private final List<GarbageCollectorMXBean> mCollectors;
+
+    public JvmRuntimeStats() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            mThreads = (com.sun.management.ThreadMXBean) threads;
+            mThreads.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            mThreads = null;
+        }
+        mCollectors = ManagementFactory.getGarbageCollectorMXBeans();
+    }
+
+    @Override
+    public long getThreadAllocatedBytes() {
+        return mThreads == null
+                ? -1 : mThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Override
+    public long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : mCollectors) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    @Override
+    public long getGcTimeMs() {
+        long time = 0;
+        for (GarbageCollectorMXBean collector : mCollectors) {
+            time += Math.max(0, collector.getCollectionTime());
+        }
+        return time;
+    }
+
+    @Override
+    public long getBlockingGcTimeMs() {
+        return -1;
+    }
+}
@@ -0,0 +1,134 @@
+package com.icam.perf;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how long something took, in buckets that grow with the latency, so that percentiles can
+ * be read off at any time without keeping the samples.<p>
+ *
+ * Latencies are counted in microseconds.  Below 8 us every value has its own bucket; above, each
+ * power of two is split into 8 buckets, so a percentile is off by at most an eighth of its value.
+ * The 240 buckets reach past an hour, and anything longer lands in the last one.  Recording is two
+ * atomic adds and never blocks or allocates, so it can sit on any thread of the frame path; the
+ * memory used is fixed when the histogram is created.
+ */
+public class LatencyHistogram {
+
+    // Buckets per power of two, as a power of two.
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // Powers of two up to 2^32 us.
+    public static final int BUCKET_COUNT = (32 - SUB_BITS + 1) * SUB_COUNT;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mSumNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mCounts.incrementAndGet(bucketOf(nanos / 1000));
+        mSumNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Copy the counts so far.  Samples recorded while copying may or may not be in it.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mCounts.get(i);
+            count += counts[i];
+        }
+        return new Snapshot(counts, count, mSumNanos.get());
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_COUNT) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int index = (exponent - SUB_BITS + 1) * SUB_COUNT
+                + (int) ((micros >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1));
+        return Math.min(index, BUCKET_COUNT - 1);
+    }
+
+    // smallest value in the bucket, in us
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+        return (long) (SUB_COUNT + bucket % SUB_COUNT) << (exponent - SUB_BITS);
+    }
+
+    static long width(int bucket) {
+        return bucket < SUB_COUNT ? 1 : 1L << (bucket / SUB_COUNT - 1);
+    }
+
+    /**
+     * The counts of a histogram at one point in time.
+     */
+    public static final class Snapshot {
+
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mSumNanos;
+
+        Snapshot(long[] counts, long count, long sumNanos) {
+            mCounts = counts;
+            mCount = count;
+            mSumNanos = sumNanos;
+        }
+
+        /**
+         * What was recorded between an earlier snapshot of the same histogram and this one.
+         */
+        public Snapshot minus(Snapshot earlier) {
+            long[] counts = new long[BUCKET_COUNT];
+            long count = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] = Math.max(0, mCounts[i] - earlier.mCounts[i]);
+                count += counts[i];
+            }
+            return new Snapshot(counts, count, Math.max(0, mSumNanos - earlier.mSumNanos));
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public float getMeanMs() {
+            return mCount == 0 ? 0 : mSumNanos / 1e6f / mCount;
+        }
+
+        /**
+         * The latency that the given fraction of samples took at most, in milliseconds, as the
+         * middle of the bucket it falls in, or 0 without samples.
+         *
+         * @param fraction 0.5 for the median, 0.99 for the 99th percentile
+         */
+        public float getPercentileMs(double fraction) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * mCount));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    return (lowerBound(i) + (width(i) - 1) / 2.0f) / 1000.0f;
+                }
+            }
+            return lowerBound(BUCKET_COUNT - 1) / 1000.0f;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("p50 %.1f, p95 %.1f, p99 %.1f ms (%d)", getPercentileMs(0.5),
+                    getPercentileMs(0.95), getPercentileMs(0.99), mCount);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.icam.perf;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The latency histograms and event counters of the app, by name.  Probes look theirs up once,
+ * when they are created, and then only touch the histogram or counter itself; {@link #snapshot}
+ * reads them all for the performance HUD or a log line.<p>
+ *
+ * Every pipeline stage gets a histogram named after the stage.  The other probes use the names
+ * below.  Stages and drawing also count the bytes they allocate, into an {@link AllocationWindow}
+ * of the same name, once allocations can be counted: see {@link #setRuntimeStats}.
+ */
+public class PerfRegistry {
+
+    // One classifier call, for a whole batch of faces.
+    public static final String LATENCY_INFERENCE = "inference";
+    // One tracker update, turning a face into what is drawn for it.
+    public static final String LATENCY_TRACKER = "tracker";
+    // Drawing the overlay.
+    public static final String LATENCY_DRAW = "draw";
+
+    // Camera frames handed to the pipeline.
+    public static final String COUNT_FRAMES = "frames";
+    // Faces run through a classifier.
+    public static final String COUNT_INFERENCES = "inferences";
+
+    private static final PerfRegistry DEFAULT = new PerfRegistry();
+
+    private final long mStartNanos = System.nanoTime();
+    // Only grow, in the order names are first asked for.
+    private final Map<String, LatencyHistogram> mLatencies = new LinkedHashMap<>();
+    private final Map<String, AtomicLong> mCounters = new LinkedHashMap<>();
+    private final Map<String, AllocationWindow> mAllocations = new LinkedHashMap<>();
+    private volatile RuntimeStats mRuntimeStats = RuntimeStats.NONE;
+
+    public static PerfRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * The histogram with the given name, created the first time it is asked for.
+     */
+    public synchronized LatencyHistogram latency(String name) {
+        LatencyHistogram histogram = mLatencies.get(name);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            mLatencies.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * The counter with the given name, created the first time it is asked for.
+     */
+    public synchronized AtomicLong counter(String name) {
+        AtomicLong counter = mCounters.get(name);
+        if (counter == null) {
+            counter = new AtomicLong();
+            mCounters.put(name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * The allocation window with the given name, created the first time it is asked for.
+     */
+    public synchronized AllocationWindow allocations(String name) {
+        AllocationWindow window = mAllocations.get(name);
+        if (window == null) {
+            window = new AllocationWindow();
+            mAllocations.put(name, window);
+        }
+        return window;
+    }
+
+    /**
+     * Where probes read allocated bytes and collections from.  Until this is called nothing is
+     * counted: counting allocations slows every one of them down on Android, so only debug
+     * builds turn it on.
+     */
+    public void setRuntimeStats(RuntimeStats stats) {
+        mRuntimeStats = stats == null ? RuntimeStats.NONE : stats;
+    }
+
+    public RuntimeStats getRuntimeStats() {
+        return mRuntimeStats;
+    }
+
+    /**
+     * Everything recorded since the registry was created.  Take two and use
+     * {@link PerfSnapshot#since} for what happened in between.
+     */
+    public PerfSnapshot snapshot() {
+        List<String> latencyNames;
+        List<LatencyHistogram> latencies;
+        List<String> counterNames;
+        List<AtomicLong> counters;
+        List<String> allocationNames;
+        List<AllocationWindow> allocations;
+        synchronized (this) {
+            latencyNames = new ArrayList<>(mLatencies.keySet());
+            latencies = new ArrayList<>(mLatencies.values());
+            counterNames = new ArrayList<>(mCounters.keySet());
+            counters = new ArrayList<>(mCounters.values());
+            allocationNames = new ArrayList<>(mAllocations.keySet());
+            allocations = new ArrayList<>(mAllocations.values());
+        }
+        long now = System.nanoTime();
+        Map<String, LatencyHistogram.Snapshot> latencySnapshots = new LinkedHashMap<>();
+        for (int i = 0; i < latencies.size(); i++) {
+            latencySnapshots.put(latencyNames.get(i), latencies.get(i).snapshot());
+        }
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i < counters.size(); i++) {
+            counts.put(counterNames.get(i), counters.get(i).get());
+        }
+        Map<String, AllocationWindow.Snapshot> allocationSnapshots = new LinkedHashMap<>();
+        for (int i = 0; i < allocations.size(); i++) {
+            allocationSnapshots.put(allocationNames.get(i), allocations.get(i).snapshot());
+        }
+        RuntimeStats stats = mRuntimeStats;
+        return new PerfSnapshot(now, now - mStartNanos, latencySnapshots, counts,
+                allocationSnapshots, stats.getGcCount(), stats.getGcTimeMs(),
+                stats.getBlockingGcTimeMs());
+    }
+}
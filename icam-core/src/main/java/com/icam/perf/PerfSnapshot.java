@@ -0,0 +1,155 @@
+package com.icam.perf;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The latency histograms, counters and allocation windows of a {@link PerfRegistry} over some
+ * period, with the garbage collections in it: since the registry was created, or between two
+ * snapshots.  GC figures are -1 where the runtime doesn't report them.
+ */
+public final class PerfSnapshot {
+
+    private final long mTakenNanos;
+    private final long mElapsedNanos;
+    private final Map<String, LatencyHistogram.Snapshot> mLatencies;
+    private final Map<String, Long> mCounts;
+    private final Map<String, AllocationWindow.Snapshot> mAllocations;
+    private final long mGcCount;
+    private final long mGcTimeMs;
+    private final long mBlockingGcTimeMs;
+
+    PerfSnapshot(long takenNanos, long elapsedNanos,
+                 Map<String, LatencyHistogram.Snapshot> latencies, Map<String, Long> counts,
+                 Map<String, AllocationWindow.Snapshot> allocations, long gcCount, long gcTimeMs,
+                 long blockingGcTimeMs) {
+        mTakenNanos = takenNanos;
+        mElapsedNanos = elapsedNanos;
+        mLatencies = Collections.unmodifiableMap(latencies);
+        mCounts = Collections.unmodifiableMap(counts);
+        mAllocations = Collections.unmodifiableMap(allocations);
+        mGcCount = gcCount;
+        mGcTimeMs = gcTimeMs;
+        mBlockingGcTimeMs = blockingGcTimeMs;
+    }
+
+    /**
+     * What was recorded between an earlier snapshot and this one.
+     */
+    public PerfSnapshot since(PerfSnapshot earlier) {
+        Map<String, LatencyHistogram.Snapshot> latencies = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram.Snapshot> entry : mLatencies.entrySet()) {
+            LatencyHistogram.Snapshot before = earlier.mLatencies.get(entry.getKey());
+            latencies.put(entry.getKey(),
+                    before == null ? entry.getValue() : entry.getValue().minus(before));
+        }
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : mCounts.entrySet()) {
+            Long before = earlier.mCounts.get(entry.getKey());
+            counts.put(entry.getKey(), entry.getValue() - (before == null ? 0 : before));
+        }
+        Map<String, AllocationWindow.Snapshot> allocations = new LinkedHashMap<>();
+        for (Map.Entry<String, AllocationWindow.Snapshot> entry : mAllocations.entrySet()) {
+            AllocationWindow.Snapshot before = earlier.mAllocations.get(entry.getKey());
+            allocations.put(entry.getKey(),
+                    before == null ? entry.getValue() : entry.getValue().minus(before));
+        }
+        return new PerfSnapshot(mTakenNanos, mTakenNanos - earlier.mTakenNanos, latencies, counts,
+                allocations, minus(mGcCount, earlier.mGcCount),
+                minus(mGcTimeMs, earlier.mGcTimeMs),
+                minus(mBlockingGcTimeMs, earlier.mBlockingGcTimeMs));
+    }
+
+    public long getElapsedNanos() {
+        return mElapsedNanos;
+    }
+
+    public Set<String> getLatencyNames() {
+        return mLatencies.keySet();
+    }
+
+    /**
+     * The named histogram, or null if nothing by that name was ever recorded.
+     */
+    public LatencyHistogram.Snapshot getLatency(String name) {
+        return mLatencies.get(name);
+    }
+
+    public long getCount(String name) {
+        Long count = mCounts.get(name);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * How many times per second the named counter went up over the period.
+     */
+    public float getRate(String name) {
+        return mElapsedNanos <= 0 ? 0 : getCount(name) * 1e9f / mElapsedNanos;
+    }
+
+    public Set<String> getAllocationNames() {
+        return mAllocations.keySet();
+    }
+
+    /**
+     * The named allocation window, or null if it was never asked for.
+     */
+    public AllocationWindow.Snapshot getAllocations(String name) {
+        return mAllocations.get(name);
+    }
+
+    public long getGcCount() {
+        return mGcCount;
+    }
+
+    public long getGcTimeMs() {
+        return mGcTimeMs;
+    }
+
+    public long getBlockingGcTimeMs() {
+        return mBlockingGcTimeMs;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, LatencyHistogram.Snapshot> entry : mLatencies.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append("; ");
+            }
+            builder.append(entry.getKey()).append(' ').append(entry.getValue());
+        }
+        for (String name : mCounts.keySet()) {
+            if (builder.length() > 0) {
+                builder.append("; ");
+            }
+            builder.append(name).append(' ').append(String.format("%.1f/s", getRate(name)));
+        }
+        for (Map.Entry<String, AllocationWindow.Snapshot> entry : mAllocations.entrySet()) {
+            if (entry.getValue().getCount() == 0) {
+                continue;
+            }
+            if (builder.length() > 0) {
+                builder.append("; ");
+            }
+            builder.append(entry.getKey()).append(' ').append(entry.getValue());
+        }
+        if (mGcCount >= 0) {
+            if (builder.length() > 0) {
+                builder.append("; ");
+            }
+            builder.append("gc ").append(mGcCount).append(", ").append(mGcTimeMs).append(" ms");
+            if (mBlockingGcTimeMs >= 0) {
+                builder.append(" (").append(mBlockingGcTimeMs).append(" ms blocking)");
+            }
+        }
+        return builder.toString();
+    }
+
+    // -1 stays unknown
+    private static long minus(long now, long before) {
+        return now < 0 || before < 0 ? -1 : Math.max(0, now - before);
+    }
+}
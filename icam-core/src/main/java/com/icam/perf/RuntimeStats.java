@@ -0,0 +1,52 @@
+package com.icam.perf;
+
+/**
+ * What the runtime tells about memory: bytes allocated by a thread and the garbage collections
+ * so far.  Each value is a running total, so probes read it before and after the work they
+ * measure; -1 means the runtime doesn't say.
+ */
+public interface RuntimeStats {
+
+    /**
+     * Reports nothing, for when counting allocations would cost too much.
+     */
+    RuntimeStats NONE = new RuntimeStats() {
+        @Override
+        public long getThreadAllocatedBytes() {
+            return -1;
+        }
+
+        @Override
+        public long getGcCount() {
+            return -1;
+        }
+
+        @Override
+        public long getGcTimeMs() {
+            return -1;
+        }
+
+        @Override
+        public long getBlockingGcTimeMs() {
+            return -1;
+        }
+    };
+
+    /**
+     * Bytes allocated by the calling thread.  It is read around every stage of every frame, so it
+     * should not allocate itself.
+     */
+    long getThreadAllocatedBytes();
+
+    long getGcCount();
+
+    /**
+     * Time spent collecting garbage, on any thread.
+     */
+    long getGcTimeMs();
+
+    /**
+     * Time that collections held up threads that were trying to allocate.
+     */
+    long getBlockingGcTimeMs();
+}
@@ -0,0 +1,122 @@
+package com.icam.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A chain of typed stages, each behind its own bounded queue and run by its own threads, so that
+ * consecutive frames overlap: while one stage works on frame N + 1, the next still works on
+ * frame N.<p>
+ *
+ * Pipelines are built front to back, and a pipeline may be continued by another one, so the
+ * stages the art and emotion screens have in common are written once:
+ *
+ * <pre>
+ * Pipeline&lt;Frame, FrameDetections&lt;Face&gt;&gt; detect = Pipeline.of("detect", detectStage, 0, 0);
+ * Pipeline&lt;Frame, ?&gt; art = detect.then("track", trackStage, 0, 0);
+ * </pre>
+ *
+ * Every stage reports its queue depth, throughput and drops; {@link #toString} lists them all.
+ */
+public class Pipeline<I, O> {
+
+    private final Sink<I> mHead;
+    private final StageRunner<?, O> mTail;
+    private final List<StageRunner<?, ?>> mRunners;
+
+    private Pipeline(Sink<I> head, StageRunner<?, O> tail, List<StageRunner<?, ?>> runners) {
+        mHead = head;
+        mTail = tail;
+        mRunners = runners;
+    }
+
+    /**
+     * Start a pipeline with one stage.
+     *
+     * @param concurrency worker threads, or 0 to run on the thread that submits
+     * @param capacity    items that may wait for a worker before the oldest is dropped
+     */
+    public static <I, O> Pipeline<I, O> of(String name, Stage<? super I, ? extends O> stage,
+                                           int concurrency, int capacity) {
+        StageRunner<I, O> runner = new StageRunner<>(name, stage, concurrency, capacity);
+        return new Pipeline<I, O>(runner, runner,
+                Collections.<StageRunner<?, ?>>singletonList(runner));
+    }
+
+    /**
+     * Continue with another stage fed by the last one.
+     */
+    public <P> Pipeline<I, P> then(String name, Stage<? super O, ? extends P> stage,
+                                   int concurrency, int capacity) {
+        return then(Pipeline.<O, P>of(name, stage, concurrency, capacity));
+    }
+
+    /**
+     * Continue with another pipeline, fed by the last stage of this one.
+     */
+    public <P> Pipeline<I, P> then(Pipeline<O, P> next) {
+        mTail.setDownstream(next.mHead);
+        List<StageRunner<?, ?>> runners = new ArrayList<>(mRunners);
+        runners.addAll(next.mRunners);
+        return new Pipeline<>(mHead, next.mTail, Collections.unmodifiableList(runners));
+    }
+
+    /**
+     * Send what the last stage produces somewhere other than another stage.
+     */
+    public Pipeline<I, O> into(Sink<? super O> sink) {
+        mTail.setDownstream(sink);
+        return this;
+    }
+
+    public void submit(I item) {
+        mHead.accept(item);
+    }
+
+    public List<StageRunner<?, ?>> getStages() {
+        return mRunners;
+    }
+
+    /**
+     * The stage with the given name, or null.
+     */
+    public StageRunner<?, ?> getStage(String name) {
+        for (StageRunner<?, ?> runner : mRunners) {
+            if (runner.getName().equals(name)) {
+                return runner;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stop every stage, front to back, releasing what was still queued.
+     */
+    public void shutdown() {
+        for (StageRunner<?, ?> runner : mRunners) {
+            runner.shutdown();
+        }
+    }
+
+    /**
+     * Wait until no stage is processing anything any more, after {@link #shutdown}.
+     */
+    public void awaitTermination() throws InterruptedException {
+        for (StageRunner<?, ?> runner : mRunners) {
+            runner.awaitTermination();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (StageRunner<?, ?> runner : mRunners) {
+            if (builder.length() > 0) {
+                builder.append("; ");
+            }
+            builder.append(runner);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,90 @@
+package com.icam.pipeline;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A copy of a rectangle of a frame's luma plane, taken on the camera thread so that stages on
+ * other threads can read the pixels after the camera has reused the frame's buffer.<p>
+ *
+ * Snapshots come from a {@link SnapshotPool} with one reference, held by whoever took the
+ * snapshot.  Anyone else who keeps it must {@link #retain} it, and everybody lets go with
+ * {@link #release}; the last release hands the buffer back to the pool.  The pixels must not be
+ * read after that.
+ */
+public class RegionSnapshot implements Releasable {
+
+    private final SnapshotPool mPool;
+    private final AtomicInteger mRefCount = new AtomicInteger();
+    private byte[] mPixels = new byte[0];
+    private int mLeft;
+    private int mTop;
+    private int mWidth;
+    private int mHeight;
+
+    RegionSnapshot(SnapshotPool pool) {
+        mPool = pool;
+    }
+
+    // Copy the rectangle [left, right) x [top, bottom) of a luma plane with the given row stride,
+    // growing the buffer only if this region is larger than any before it.
+    void copy(byte[] luma, int offset, int stride, int left, int top, int right, int bottom) {
+        mLeft = left;
+        mTop = top;
+        mWidth = right - left;
+        mHeight = bottom - top;
+        if (mPixels.length < mWidth * mHeight) {
+            mPixels = new byte[mWidth * mHeight];
+        }
+        for (int y = 0; y < mHeight; y++) {
+            System.arraycopy(luma, offset + (top + y) * stride + left, mPixels, y * mWidth, mWidth);
+        }
+        mRefCount.set(1);
+    }
+
+    /**
+     * The copied pixels, {@link #getWidth} per row.  The array may be longer than the region.
+     */
+    public byte[] getPixels() {
+        return mPixels;
+    }
+
+    // Where the region's first pixel was in the frame.
+    public int getLeft() {
+        return mLeft;
+    }
+
+    public int getTop() {
+        return mTop;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Take another reference, to be given back with {@link #release}.
+     */
+    public void retain() {
+        if (mRefCount.getAndIncrement() <= 0) {
+            throw new IllegalStateException("Snapshot retained after it was released");
+        }
+    }
+
+    @Override
+    public void release() {
+        int count = mRefCount.decrementAndGet();
+        if (count == 0) {
+            mPool.recycle(this);
+        } else if (count < 0) {
+            throw new IllegalStateException("Snapshot released more often than retained");
+        }
+    }
+
+    int getRefCount() {
+        return mRefCount.get();
+    }
+}
@@ -0,0 +1,11 @@
+package com.icam.pipeline;
+
+/**
+ * Something holding buffers or other resources that must be handed back once it is no longer
+ * needed.  Items that a pipeline drops because a queue overflowed, or because it shut down, are
+ * released by the pipeline.
+ */
+public interface Releasable {
+
+    void release();
+}
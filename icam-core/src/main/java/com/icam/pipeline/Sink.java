@@ -0,0 +1,9 @@
+package com.icam.pipeline;
+
+/**
+ * Where a stage's output goes: the next stage's queue, or the end of the pipeline.
+ */
+public interface Sink<T> {
+
+    void accept(T item);
+}
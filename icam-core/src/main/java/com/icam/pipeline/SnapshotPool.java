@@ -0,0 +1,66 @@
+package com.icam.pipeline;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recycled {@link RegionSnapshot}s, so that copying the face regions of every frame allocates
+ * nothing once the pool has warmed up: a released snapshot keeps its buffer and is handed out
+ * again.  Snapshots released while the pool is full are left to the garbage collector.<p>
+ *
+ * Any thread may take and release snapshots.
+ */
+public class SnapshotPool {
+
+    public static final int DEFAULT_CAPACITY = 16;
+
+    private final ArrayBlockingQueue<RegionSnapshot> mFree;
+    private final AtomicLong mCreated = new AtomicLong();
+    private final AtomicLong mReused = new AtomicLong();
+
+    public SnapshotPool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity snapshots kept for reuse, about the most that are in use at once
+     */
+    public SnapshotPool(int capacity) {
+        mFree = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    /**
+     * Copy the rectangle [left, right) x [top, bottom) of a luma plane with the given row stride.
+     * The caller holds the one reference to the snapshot.
+     */
+    public RegionSnapshot snapshot(byte[] luma, int offset, int stride,
+                                   int left, int top, int right, int bottom) {
+        RegionSnapshot snapshot = mFree.poll();
+        if (snapshot == null) {
+            snapshot = new RegionSnapshot(this);
+            mCreated.incrementAndGet();
+        } else {
+            mReused.incrementAndGet();
+        }
+        snapshot.copy(luma, offset, stride, left, top, right, bottom);
+        return snapshot;
+    }
+
+    void recycle(RegionSnapshot snapshot) {
+        mFree.offer(snapshot);
+    }
+
+    public long getCreatedCount() {
+        return mCreated.get();
+    }
+
+    public long getReusedCount() {
+        return mReused.get();
+    }
+
+    @Override
+    public String toString() {
+        return "created " + getCreatedCount() + ", reused " + getReusedCount()
+                + ", free " + mFree.size();
+    }
+}
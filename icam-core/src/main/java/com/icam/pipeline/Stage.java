@@ -0,0 +1,17 @@
+package com.icam.pipeline;
+
+/**
+ * One step of a {@link Pipeline}: turns each item it is given into an item for the next step.<p>
+ *
+ * A stage owns the items it is given.  If it holds pooled buffers or other resources, it either
+ * passes them on in its output or lets go of them itself, unless it throws: then the item is
+ * released for it, so it must not have let go of it already.  A stage that holds resources of its own
+ * may implement {@link Releasable}; it is released when its pipeline shuts down.
+ */
+public interface Stage<I, O> {
+
+    /**
+     * @return the item for the next stage, or null if nothing goes on from this one
+     */
+    O process(I input);
+}
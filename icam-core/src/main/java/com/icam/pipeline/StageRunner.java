@@ -0,0 +1,280 @@
+package com.icam.pipeline;
+
+import com.icam.perf.AllocationWindow;
+import com.icam.perf.LatencyHistogram;
+import com.icam.perf.PerfRegistry;
+import com.icam.perf.RuntimeStats;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs one {@link Stage} of a pipeline: a bounded queue in front of it and its own worker threads
+ * behind it, or no threads at all, in which case items are processed on the thread that hands
+ * them over.<p>
+ *
+ * When the queue is full, the oldest waiting item is dropped to make room for the newest, and
+ * released if it is {@link Releasable}: work for a frame several frames back is not worth doing.
+ * With a capacity of one, that makes the queue a single slot where the latest frame wins.  The
+ * runner counts what it received, processed and dropped, and how long the stage took, also into
+ * the {@link PerfRegistry} histogram named after the stage.  When the registry can count
+ * allocations, the bytes the stage allocated per item go into its window of the same name.<p>
+ *
+ * An item the stage throws on, an error as much as an exception, is counted as failed and
+ * released, and the worker goes on to the next one.
+ */
+public class StageRunner<I, O> implements Sink<I> {
+
+    private static final Logger LOG = Logger.getLogger("StageRunner");
+    // Below normal, to stay out of the way of the UI and camera threads.  Android maps Java
+    // priority 4 to nice 10, which is Process.THREAD_PRIORITY_BACKGROUND.
+    private static final int WORKER_PRIORITY = 4;
+
+    private final String mName;
+    private final Stage<? super I, ? extends O> mStage;
+    private final int mCapacity;
+    // null when the stage runs on the caller's thread
+    private final ArrayBlockingQueue<I> mQueue;
+    private final Thread[] mWorkers;
+    private volatile Sink<? super O> mDownstream;
+    private volatile boolean mShutdown;
+
+    private final long mStartNanos = System.nanoTime();
+    private final AtomicLong mReceived = new AtomicLong();
+    private final AtomicLong mProcessed = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mFailed = new AtomicLong();
+    private final AtomicLong mBusyNanos = new AtomicLong();
+    private final PerfRegistry mRegistry;
+    private final LatencyHistogram mLatency;
+    private final AllocationWindow mAllocations;
+
+    /**
+     * @param name        for thread names and stats
+     * @param concurrency worker threads, or 0 to process items on the thread that submits them
+     * @param capacity    items that may wait for a worker; ignored without workers
+     */
+    public StageRunner(String name, Stage<? super I, ? extends O> stage, int concurrency,
+                       int capacity) {
+        mName = name;
+        mStage = stage;
+        mRegistry = PerfRegistry.getDefault();
+        mLatency = mRegistry.latency(name);
+        mAllocations = mRegistry.allocations(name);
+        if (concurrency <= 0) {
+            mCapacity = 0;
+            mQueue = null;
+            mWorkers = new Thread[0];
+            return;
+        }
+        mCapacity = Math.max(1, capacity);
+        mQueue = new ArrayBlockingQueue<>(mCapacity);
+        mWorkers = new Thread[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            mWorkers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, name + "-" + (i + 1));
+            mWorkers[i].setPriority(WORKER_PRIORITY);
+            mWorkers[i].setDaemon(true);
+            mWorkers[i].start();
+        }
+    }
+
+    void setDownstream(Sink<? super O> downstream) {
+        mDownstream = downstream;
+    }
+
+    @Override
+    public void accept(I item) {
+        if (mShutdown) {
+            release(item);
+            return;
+        }
+        mReceived.incrementAndGet();
+        if (mQueue == null) {
+            run(item);
+            return;
+        }
+        while (!mQueue.offer(item)) {
+            I oldest = mQueue.poll();
+            if (oldest != null) {
+                mDropped.incrementAndGet();
+                release(oldest);
+            }
+        }
+        // shut down while offering: the queue may already have been drained
+        if (mShutdown && mQueue.remove(item)) {
+            release(item);
+        }
+    }
+
+    /**
+     * Stop the workers and release what is still queued.  Items being processed are finished;
+     * they are not waited for.
+     */
+    public void shutdown() {
+        mShutdown = true;
+        for (Thread worker : mWorkers) {
+            worker.interrupt();
+        }
+        if (mQueue != null) {
+            I item;
+            while ((item = mQueue.poll()) != null) {
+                release(item);
+            }
+        }
+        if (mStage instanceof Releasable) {
+            ((Releasable) mStage).release();
+        }
+    }
+
+    /**
+     * Wait for the workers to stop after {@link #shutdown}, including any item they were still
+     * processing.  Returns at once for a stage without workers.
+     */
+    public void awaitTermination() throws InterruptedException {
+        for (Thread worker : mWorkers) {
+            worker.join();
+        }
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getConcurrency() {
+        return mWorkers.length;
+    }
+
+    public int getQueueDepth() {
+        return mQueue == null ? 0 : mQueue.size();
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public long getReceivedCount() {
+        return mReceived.get();
+    }
+
+    public long getProcessedCount() {
+        return mProcessed.get();
+    }
+
+    /**
+     * Items thrown away because the queue was full.
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * Items the stage threw an exception on.
+     */
+    public long getFailedCount() {
+        return mFailed.get();
+    }
+
+    /**
+     * Items processed per second since the runner was created.
+     */
+    public float getThroughput() {
+        long elapsed = System.nanoTime() - mStartNanos;
+        return elapsed <= 0 ? 0 : mProcessed.get() * 1e9f / elapsed;
+    }
+
+    /**
+     * Average time the stage took per item, in milliseconds.
+     */
+    public float getAverageMs() {
+        long processed = mProcessed.get();
+        return processed == 0 ? 0 : mBusyNanos.get() / 1e6f / processed;
+    }
+
+    /**
+     * How long the stage took per item.
+     */
+    public LatencyHistogram getLatency() {
+        return mLatency;
+    }
+
+    /**
+     * How many bytes the stage allocated per item; empty unless allocations are counted.
+     */
+    public AllocationWindow getAllocations() {
+        return mAllocations;
+    }
+
+    @Override
+    public String toString() {
+        return mName + ": depth " + getQueueDepth() + "/" + mCapacity
+                + ", processed " + getProcessedCount() + ", dropped " + getDroppedCount()
+                + ", failed " + getFailedCount()
+                + ", " + String.format("%.1f", getThroughput()) + "/s"
+                + ", " + String.format("%.2f", getAverageMs()) + " ms each";
+    }
+
+    private void work() {
+        while (!mShutdown) {
+            I item;
+            try {
+                item = mQueue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            run(item);
+        }
+    }
+
+    private void run(I item) {
+        RuntimeStats stats = mRegistry.getRuntimeStats();
+        long allocated = stats.getThreadAllocatedBytes();
+        long start = System.nanoTime();
+        O output = null;
+        boolean failed = true;
+        try {
+            output = mStage.process(item);
+            failed = false;
+        } catch (Throwable e) {
+            // errors too, a native backend failing must not take the worker down with it
+            mFailed.incrementAndGet();
+            LOG.log(Level.SEVERE, "Stage " + mName + " failed", e);
+        } finally {
+            if (failed) {
+                // the stage never got to pass the item on or let go of it
+                release(item);
+            }
+        }
+        if (failed) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        if (allocated >= 0) {
+            mAllocations.record(stats.getThreadAllocatedBytes() - allocated);
+        }
+        mBusyNanos.addAndGet(elapsed);
+        mLatency.record(elapsed);
+        mProcessed.incrementAndGet();
+        if (output == null) {
+            return;
+        }
+        Sink<? super O> downstream = mDownstream;
+        if (downstream != null) {
+            downstream.accept(output);
+        } else {
+            release(output);
+        }
+    }
+
+    private static void release(Object item) {
+        if (item instanceof Releasable) {
+            ((Releasable) item).release();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.icam.helpers;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CropFingerprintCacheTest {
+
+    private static final int FACE = 3;
+
+    @Test
+    public void faceStaysAMissUntilItsResultIsCommitted() {
+        CropFingerprintCache cache = new CropFingerprintCache();
+        byte[] signature = new byte[CropFingerprintCache.SIGNATURE_LENGTH];
+
+        // the first inference was lost, e.g. dropped from a full queue
+        assertTrue(cache.shouldClassify(FACE, signature, 0, 0, 0));
+        assertTrue(cache.shouldClassify(FACE, signature, 0, 0, 33));
+        assertEquals(2, cache.getNewMissCount());
+
+        cache.commit(FACE, signature, 0, 0, 33);
+        assertFalse(cache.shouldClassify(FACE, signature, 0, 0, 66));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void olderResultDoesNotReplaceANewerOne() {
+        CropFingerprintCache cache = new CropFingerprintCache();
+        byte[] older = new byte[CropFingerprintCache.SIGNATURE_LENGTH];
+        byte[] newer = new byte[CropFingerprintCache.SIGNATURE_LENGTH];
+        Arrays.fill(newer, (byte) 100);
+
+        cache.commit(FACE, newer, 0, 0, 500);
+        cache.commit(FACE, older, 0, 0, 400);
+        assertFalse(cache.shouldClassify(FACE, newer, 0, 0, 600));
+        assertTrue(cache.shouldClassify(FACE, older, 0, 0, 600));
+        assertEquals(1, cache.getChangedMissCount());
+    }
+}
@@ -0,0 +1,56 @@
+package com.icam.helpers;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CropQualityGateTest {
+
+    private static final int SIZE = 48;
+
+    @Test
+    public void rejectsBlurredAndBadlyExposedCrops() {
+        CropQualityGate gate = new CropQualityGate();
+
+        // a fine checkerboard around mid grey is sharp and well exposed
+        byte[] sharp = new byte[SIZE * SIZE];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                sharp[y * SIZE + x] = (byte) (((x / 2 + y / 2) & 1) == 0 ? 80 : 170);
+            }
+        }
+        assertTrue(gate.acceptsCrop(sharp, 0, SIZE));
+
+        // a smooth ramp has no edges at all
+        byte[] ramp = new byte[SIZE * SIZE];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                ramp[y * SIZE + x] = (byte) (60 + 2 * x);
+            }
+        }
+        assertFalse(gate.acceptsCrop(ramp, 0, SIZE));
+
+        byte[] dark = new byte[SIZE * SIZE + 10];
+        Arrays.fill(dark, (byte) 10);
+        assertFalse(gate.acceptsCrop(dark, 10, SIZE));
+
+        assertEquals(1, gate.getPassedCount());
+        assertEquals(1, gate.getBlurRejectCount());
+        assertEquals(1, gate.getExposureRejectCount());
+    }
+
+    @Test
+    public void rejectsTurnedAndSmallFaces() {
+        CropQualityGate gate = new CropQualityGate();
+        assertTrue(gate.acceptsFace(-20.0f, 120.0f, 140.0f));
+        assertFalse(gate.acceptsFace(50.0f, 120.0f, 140.0f));
+        assertFalse(gate.acceptsFace(0.0f, 20.0f, 30.0f));
+        assertEquals(1, gate.getPoseRejectCount());
+        assertEquals(1, gate.getSizeRejectCount());
+        assertEquals(2, gate.getRejectedCount());
+    }
+}
@@ -0,0 +1,78 @@
+package com.icam.helpers;
+
+import com.icam.models.Classification;
+import com.icam.models.Emotion;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExpressionGeometryTest {
+
+    // what the emotion cascade needs to skip the CNN
+    private static final float CONFIDENT = 0.8f;
+
+    @Test
+    public void measuresTheSameOnARolledHead() {
+        // eyes 100 px apart, mouth corners 90 px apart and 110 px lower, bottom lip 22 px below
+        float[] upright = {
+                100, 100, 200, 100,
+                105, 210, 195, 210,
+                150, 232,
+        };
+        float[] features = new float[ExpressionGeometry.FEATURE_COUNT];
+        assertTrue(ExpressionGeometry.measure(upright, 0.9f, 0.1f, features));
+        assertEquals(0.9f, features[ExpressionGeometry.MOUTH_WIDTH], 1e-4f);
+        assertEquals(0.22f, features[ExpressionGeometry.MOUTH_DEPTH], 1e-4f);
+
+        // the same face rolled a quarter turn clockwise about the left eye
+        float[] rolled = new float[upright.length];
+        for (int i = 0; i < upright.length; i += 2) {
+            rolled[i] = 100 - (upright[i + 1] - 100);
+            rolled[i + 1] = 100 + (upright[i] - 100);
+        }
+        float[] rolledFeatures = new float[ExpressionGeometry.FEATURE_COUNT];
+        assertTrue(ExpressionGeometry.measure(rolled, 0.9f, 0.1f, rolledFeatures));
+        assertEquals(features[ExpressionGeometry.MOUTH_WIDTH],
+                rolledFeatures[ExpressionGeometry.MOUTH_WIDTH], 1e-4f);
+        assertEquals(Math.abs(features[ExpressionGeometry.MOUTH_DEPTH]),
+                Math.abs(rolledFeatures[ExpressionGeometry.MOUTH_DEPTH]), 1e-4f);
+    }
+
+    @Test
+    public void tellsClearExpressionsApart() {
+        Classification result = new Classification();
+
+        ExpressionGeometry.classify(features(1.05f, 0.3f, 0.9f, 0.95f), result);
+        assertEquals(Emotion.HAPPY, result.getEmotion());
+        assertTrue(result.getConf() > CONFIDENT);
+
+        // wide open mouth, eyes open, no smile
+        ExpressionGeometry.classify(features(0.8f, 0.6f, 0.95f, 0.02f), result);
+        assertEquals(Emotion.SURPRISE, result.getEmotion());
+
+        ExpressionGeometry.classify(features(0.85f, 0.22f, 0.95f, 0.05f), result);
+        assertEquals(Emotion.NEUTRAL, result.getEmotion());
+
+        ExpressionGeometry.classify(features(0.8f, 0.05f, 0.8f, 0.0f), result);
+        assertEquals(Emotion.SAD, result.getEmotion());
+    }
+
+    @Test
+    public void leavesUnclearFacesToTheCnn() {
+        Classification result = new Classification();
+        // half a smile, mouth between neutral and open
+        ExpressionGeometry.classify(features(0.9f, 0.35f, 0.5f, 0.5f), result);
+        assertTrue(result.getConf() < CONFIDENT);
+    }
+
+    private static float[] features(float mouthWidth, float mouthDepth, float eyesOpen, float smile) {
+        float[] features = new float[ExpressionGeometry.FEATURE_COUNT];
+        features[ExpressionGeometry.MOUTH_WIDTH] = mouthWidth;
+        features[ExpressionGeometry.MOUTH_DEPTH] = mouthDepth;
+        features[ExpressionGeometry.EYES_OPEN] = eyesOpen;
+        features[ExpressionGeometry.SMILE] = smile;
+        return features;
+    }
+}
@@ -0,0 +1,33 @@
+package com.icam.helpers;
+
+import com.icam.models.Point;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EyePhysicsTest {
+
+    @Test
+    public void irisFallsAndStaysInsideTheEye() {
+        EyePhysics physics = new EyePhysics();
+        Point eye = new Point(100.0f, 100.0f);
+        float eyeRadius = 20.0f;
+        float irisRadius = 10.0f;
+
+        // the first update only starts the clock
+        Point iris = physics.nextIrisPosition(eye, eyeRadius, irisRadius, 5000);
+        assertEquals(eye, iris);
+
+        long now = 5000;
+        for (int i = 0; i < 100; i++) {
+            now += 33;
+            iris = physics.nextIrisPosition(eye, eyeRadius, irisRadius, now);
+            assertTrue(eye.distanceTo(iris) <= eyeRadius - irisRadius + 1e-3f);
+        }
+        // gravity has pulled it to the bottom of the eye
+        assertEquals(eye.x, iris.x, 0.5f);
+        assertEquals(eye.y + eyeRadius - irisRadius, iris.y, 0.5f);
+    }
+}
@@ -0,0 +1,101 @@
+package com.icam.helpers;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FaceCropperTest {
+
+    private static final int SIZE = 48;
+
+    @Test
+    public void alignedCropMatchesTheAreaCropOfTheSameBox() {
+        int width = 320;
+        int height = 240;
+        byte[] luma = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                luma[y * width + x] = (byte) (x / 2 + y / 3);
+            }
+        }
+        FaceCropper cropper = new FaceCropper(SIZE);
+        float[] area = new float[SIZE * SIZE];
+        float[] aligned = new float[SIZE * SIZE];
+        cropper.crop(luma, 0, width, height, 100.0f, 50.0f, 96.0f, 96.0f, area, 0);
+        // level eyes where the box would put them
+        cropper.cropAligned(luma, 0, width, height, 100.0f + FaceCropper.LEFT_EYE_X * 96.0f,
+                50.0f + FaceCropper.EYE_Y * 96.0f, 100.0f + FaceCropper.RIGHT_EYE_X * 96.0f,
+                50.0f + FaceCropper.EYE_Y * 96.0f, aligned, 0);
+        for (int i = 0; i < area.length; i++) {
+            assertEquals(area[i], aligned[i], 0.5f);
+        }
+    }
+
+    @Test
+    public void alignedCropAveragesAsMuchAsTheAreaCropWhenShrinkingFar() {
+        // a face 16 times the model input, on noise: too few taps would alias it into a noisier
+        // crop than the area resample makes
+        int width = 1024;
+        byte[] luma = new byte[width * width];
+        new Random(7).nextBytes(luma);
+        FaceCropper cropper = new FaceCropper(SIZE);
+        float[] area = new float[SIZE * SIZE];
+        float[] aligned = new float[SIZE * SIZE];
+        float size = 16 * SIZE;
+        cropper.crop(luma, 0, width, width, 128.0f, 128.0f, size, size, area, 0);
+        cropper.cropAligned(luma, 0, width, width, 128.0f + FaceCropper.LEFT_EYE_X * size,
+                128.0f + FaceCropper.EYE_Y * size, 128.0f + FaceCropper.RIGHT_EYE_X * size,
+                128.0f + FaceCropper.EYE_Y * size, aligned, 0);
+        assertTrue(deviation(aligned) < 1.25 * deviation(area));
+    }
+
+    @Test
+    public void countedHistogramEqualizesLikeTheNormalizersOwnCount() {
+        int width = 320;
+        int height = 240;
+        byte[] luma = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                luma[y * width + x] = (byte) (60 + x / 8 + y / 6);
+            }
+        }
+        FaceCropper cropper = new FaceCropper(SIZE);
+        LumaNormalizer normalizer = new LumaNormalizer(SIZE, LumaNormalizer.GLOBAL);
+        int[] histogram = new int[256];
+        byte[] crop = new byte[SIZE * SIZE];
+        cropper.setHistogram(histogram);
+        // twice, so a histogram left over from the first crop would show
+        cropper.crop(luma, 0, width, height, 0.0f, 0.0f, 96.0f, 96.0f, crop, 0);
+        cropper.crop(luma, 0, width, height, 120.0f, 80.0f, 96.0f, 96.0f, crop, 0);
+        byte[] counted = new byte[SIZE * SIZE];
+        byte[] own = new byte[SIZE * SIZE];
+        normalizer.normalize(crop, 0, histogram, counted, 0);
+        normalizer.normalize(crop, 0, own, 0);
+        int min = 255;
+        int max = 0;
+        for (int i = 0; i < crop.length; i++) {
+            assertEquals(own[i], counted[i]);
+            min = Math.min(min, counted[i] & 0xff);
+            max = Math.max(max, counted[i] & 0xff);
+        }
+        // the narrow band of levels is stretched over the whole range
+        assertEquals(0, min);
+        assertEquals(255, max);
+    }
+
+    private static double deviation(float[] values) {
+        double mean = 0;
+        for (float value : values) {
+            mean += value;
+        }
+        mean /= values.length;
+        double squares = 0;
+        for (float value : values) {
+            squares += (value - mean) * (value - mean);
+        }
+        return Math.sqrt(squares / values.length);
+    }
+}
@@ -0,0 +1,181 @@
+package com.icam.helpers;
+
+import com.icam.models.Classification;
+import com.icam.models.Emotion;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the Java CNN against a direct, loop-by-loop implementation of the same network on a
+ * small model with random weights.
+ */
+public class JavaCnnClassifierTest {
+
+    private static final int SIZE = 8;
+    // kind, in, out, kernel
+    private static final int[][] LAYERS = {
+            { JavaCnnClassifier.CONV_RELU_POOL, 1, 32, 3 },
+            { JavaCnnClassifier.CONV_RELU_POOL, 32, 16, 3 },
+            { JavaCnnClassifier.DENSE_RELU, 2 * 2 * 16, 20, 0 },
+            { JavaCnnClassifier.DENSE, 20, Emotion.COUNT, 0 },
+    };
+
+    @Test
+    public void matchesReferenceForwardPass() throws IOException {
+        Random random = new Random(42);
+        float[][] weights = new float[LAYERS.length][];
+        float[][] biases = new float[LAYERS.length][];
+        for (int i = 0; i < LAYERS.length; i++) {
+            int kernel = Math.max(1, LAYERS[i][3]);
+            weights[i] = randomArray(random, kernel * kernel * LAYERS[i][1] * LAYERS[i][2]);
+            biases[i] = randomArray(random, LAYERS[i][2]);
+        }
+        float[] pixels = new float[2 * SIZE * SIZE];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextFloat();
+        }
+
+        byte[] file = writeWeights(weights, biases);
+        JavaCnnClassifier serial = JavaCnnClassifier.load(new ByteArrayInputStream(file), "serial", 1, 1);
+        JavaCnnClassifier parallel = JavaCnnClassifier.load(new ByteArrayInputStream(file), "parallel", 1, 4);
+        Classification[] serialResults = { new Classification(), new Classification() };
+        Classification[] parallelResults = { new Classification(), new Classification() };
+        serial.recognizeBatch(pixels, 2, serialResults);
+        parallel.recognizeBatch(pixels, 2, parallelResults);
+        parallel.close();
+
+        for (int face = 0; face < 2; face++) {
+            float[] expected = reference(weights, biases, pixels, face * SIZE * SIZE);
+            for (int i = 0; i < Emotion.COUNT; i++) {
+                assertEquals(expected[i], serialResults[face].getPredictions().get(i), 1e-5f);
+                // splitting across channels must not change a single bit
+                assertEquals(serialResults[face].getPredictions().get(i),
+                        parallelResults[face].getPredictions().get(i), 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void decodesHalfFloats() {
+        assertEquals(1.0f, JavaCnnClassifier.halfToFloat((short) 0x3c00), 0.0f);
+        assertEquals(-2.0f, JavaCnnClassifier.halfToFloat((short) 0xc000), 0.0f);
+        assertEquals(0.333251953125f, JavaCnnClassifier.halfToFloat((short) 0x3555), 0.0f);
+        assertEquals(65504.0f, JavaCnnClassifier.halfToFloat((short) 0x7bff), 0.0f);
+        assertEquals(5.9604645e-8f, JavaCnnClassifier.halfToFloat((short) 0x0001), 0.0f);
+        assertEquals(Float.NEGATIVE_INFINITY, JavaCnnClassifier.halfToFloat((short) 0xfc00), 0.0f);
+    }
+
+    private static float[] randomArray(Random random, int length) {
+        float[] values = new float[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = (float) random.nextGaussian() * 0.5f;
+        }
+        return values;
+    }
+
+    private static byte[] writeWeights(float[][] weights, float[][] biases) {
+        int floats = 0;
+        for (int i = 0; i < LAYERS.length; i++) {
+            floats += weights[i].length + biases[i].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(20 + LAYERS.length * 16 + floats * 4)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(new byte[] { 'E', 'M', 'C', 'N' });
+        buffer.putInt(1).putInt(JavaCnnClassifier.DTYPE_FLOAT32).putInt(SIZE).putInt(LAYERS.length);
+        for (int i = 0; i < LAYERS.length; i++) {
+            for (int value : LAYERS[i]) {
+                buffer.putInt(value);
+            }
+            for (float w : weights[i]) {
+                buffer.putFloat(w);
+            }
+            for (float b : biases[i]) {
+                buffer.putFloat(b);
+            }
+        }
+        return buffer.array();
+    }
+
+    // activations as [y][x][channel], weights as [ky][kx][in][out] and [in][out]
+    private static float[] reference(float[][] weights, float[][] biases, float[] pixels, int offset) {
+        int size = SIZE;
+        float[] activation = new float[size * size];
+        System.arraycopy(pixels, offset, activation, 0, activation.length);
+        for (int l = 0; l < LAYERS.length; l++) {
+            int in = LAYERS[l][1];
+            int out = LAYERS[l][2];
+            if (LAYERS[l][0] == JavaCnnClassifier.CONV_RELU_POOL) {
+                float[] conv = new float[size * size * out];
+                for (int y = 0; y < size; y++) {
+                    for (int x = 0; x < size; x++) {
+                        for (int o = 0; o < out; o++) {
+                            double sum = biases[l][o];
+                            for (int ky = 0; ky < 3; ky++) {
+                                for (int kx = 0; kx < 3; kx++) {
+                                    int sy = y + ky - 1;
+                                    int sx = x + kx - 1;
+                                    if (sy < 0 || sy >= size || sx < 0 || sx >= size) {
+                                        continue;
+                                    }
+                                    for (int c = 0; c < in; c++) {
+                                        sum += activation[(sy * size + sx) * in + c]
+                                                * weights[l][((ky * 3 + kx) * in + c) * out + o];
+                                    }
+                                }
+                            }
+                            conv[(y * size + x) * out + o] = (float) Math.max(0, sum);
+                        }
+                    }
+                }
+                int pooled = size / 2;
+                activation = new float[pooled * pooled * out];
+                for (int y = 0; y < pooled; y++) {
+                    for (int x = 0; x < pooled; x++) {
+                        for (int o = 0; o < out; o++) {
+                            float max = Float.NEGATIVE_INFINITY;
+                            for (int d = 0; d < 4; d++) {
+                                int sy = y * 2 + d / 2;
+                                int sx = x * 2 + d % 2;
+                                max = Math.max(max, conv[(sy * size + sx) * out + o]);
+                            }
+                            activation[(y * pooled + x) * out + o] = max;
+                        }
+                    }
+                }
+                size = pooled;
+            } else {
+                float[] dense = new float[out];
+                for (int o = 0; o < out; o++) {
+                    double sum = biases[l][o];
+                    for (int c = 0; c < in; c++) {
+                        sum += activation[c] * weights[l][c * out + o];
+                    }
+                    dense[o] = LAYERS[l][0] == JavaCnnClassifier.DENSE_RELU
+                            ? (float) Math.max(0, sum) : (float) sum;
+                }
+                activation = dense;
+            }
+        }
+        double max = Double.NEGATIVE_INFINITY;
+        for (float v : activation) {
+            max = Math.max(max, v);
+        }
+        double total = 0;
+        for (float v : activation) {
+            total += Math.exp(v - max);
+        }
+        float[] probabilities = new float[activation.length];
+        for (int i = 0; i < activation.length; i++) {
+            probabilities[i] = (float) (Math.exp(activation[i] - max) / total);
+        }
+        return probabilities;
+    }
+}
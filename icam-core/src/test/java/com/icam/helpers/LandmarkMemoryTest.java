@@ -0,0 +1,35 @@
+package com.icam.helpers;
+
+import com.icam.models.Point;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LandmarkMemoryTest {
+
+    @Test
+    public void placesMissedLandmarksOnTheMovedFace() {
+        LandmarkMemory memory = new LandmarkMemory();
+        assertNull(memory.recall(4, 0, 0, 100, 100));
+
+        // seen a quarter of the way across a 100 px face at (50, 50)
+        memory.remember(4, 75.0f, 100.0f, 50.0f, 50.0f, 100.0f, 100.0f);
+        // the face moved and doubled in size
+        Point recalled = memory.recall(4, 200.0f, 100.0f, 200.0f, 200.0f);
+        assertEquals(250.0f, recalled.x, 1e-4f);
+        assertEquals(200.0f, recalled.y, 1e-4f);
+        Point into = new Point();
+        assertTrue(memory.recall(4, 200.0f, 100.0f, 200.0f, 200.0f, into));
+        assertEquals(recalled, into);
+        assertFalse(memory.recall(5, 200.0f, 100.0f, 200.0f, 200.0f, into));
+
+        memory.remember(LandmarkMemory.MAX_TYPES, 0, 0, 0, 0, 10, 10);
+        assertFalse(memory.isKnown(LandmarkMemory.MAX_TYPES));
+        memory.clear();
+        assertFalse(memory.isKnown(4));
+    }
+}
@@ -0,0 +1,50 @@
+package com.icam.helpers;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TrackStoreTest {
+
+    @Test
+    public void findsEntriesAcrossRemovedSlots() {
+        TrackStore<String> store = new TrackStore<>(8);
+        for (int id = 0; id < 8; id++) {
+            assertTrue(store.insert(id, "face " + id));
+        }
+        // every slot is taken now
+        assertFalse(store.insert(100, "face 100"));
+
+        assertEquals("face 3", store.remove(3));
+        assertNull(store.get(3));
+        for (int id = 0; id < 8; id++) {
+            if (id != 3) {
+                assertEquals("face " + id, store.get(id));
+            }
+        }
+        assertTrue(store.insert(100, "face 100"));
+        assertEquals("face 100", store.get(100));
+        assertEquals(8, store.size());
+    }
+
+    @Test
+    public void sweepRemovesPickedEntries() {
+        TrackStore<Integer> store = new TrackStore<>();
+        for (int id = 0; id < 20; id++) {
+            store.insert(id, id);
+        }
+        int removed = store.sweep(new TrackStore.Evictor<Integer>() {
+            @Override
+            public boolean shouldEvict(int id, Integer value) {
+                return id % 2 == 0;
+            }
+        });
+        assertEquals(10, removed);
+        assertEquals(10, store.size());
+        assertNull(store.get(4));
+        assertEquals(Integer.valueOf(5), store.get(5));
+    }
+}
@@ -0,0 +1,102 @@
+package com.icam.perf;
+
+import com.icam.helpers.FaceCropper;
+import com.icam.helpers.LumaNormalizer;
+import com.icam.pipeline.Pipeline;
+import com.icam.pipeline.Stage;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AllocationWindowTest {
+
+    private static final int FRAME_WIDTH = 640;
+    private static final int FRAME_HEIGHT = 480;
+    private static final int SIZE = 48;
+    private static final int FRAMES = 2000;
+
+    @Test
+    public void windowKeepsTheLatestSamples() {
+        AllocationWindow window = new AllocationWindow();
+        int recorded = AllocationWindow.SIZE + 10;
+        for (int i = 0; i < recorded; i++) {
+            window.record(i);
+        }
+        AllocationWindow.Snapshot snapshot = window.snapshot();
+        long[] samples = snapshot.getSamples();
+        assertEquals(AllocationWindow.SIZE, samples.length);
+        assertEquals(10, samples[0]);
+        assertEquals(recorded - 1, samples[samples.length - 1]);
+        assertEquals(recorded - 1, snapshot.getWindowMaxBytes());
+        assertEquals(recorded, snapshot.getCount());
+        assertEquals((long) recorded * (recorded - 1) / 2, snapshot.getTotalBytes());
+
+        window.record(1000);
+        window.record(-5);
+        AllocationWindow.Snapshot recent = window.snapshot().minus(snapshot);
+        assertEquals(2, recent.getCount());
+        assertEquals(500.0f, recent.getBytesPerItem(), 1e-3f);
+        assertEquals(0, recent.getSamples()[AllocationWindow.SIZE - 1]);
+    }
+
+    /**
+     * Cropping and normalizing a face, as the crop stage does for every face of every frame,
+     * allocates nothing once warmed up: any byte over what an empty stage shows is a regression.
+     */
+    @Test
+    public void cropStageDoesNotAllocate() {
+        RuntimeStats stats = new JvmRuntimeStats();
+        if (stats.getThreadAllocatedBytes() < 0) {
+            // nothing to assert on with this JVM
+            return;
+        }
+        final byte[] frame = new byte[FRAME_WIDTH * FRAME_HEIGHT * 3 / 2];
+        new Random(1).nextBytes(frame);
+        final FaceCropper cropper = new FaceCropper(SIZE);
+        final LumaNormalizer normalizer = new LumaNormalizer(SIZE, LumaNormalizer.CLAHE);
+        final byte[] crop = new byte[SIZE * SIZE];
+        final float[] input = new float[SIZE * SIZE];
+
+        Stage<Integer, Object> nothing = new Stage<Integer, Object>() {
+            @Override
+            public Object process(Integer size) {
+                return null;
+            }
+        };
+        Stage<Integer, Object> cropAndNormalize = new Stage<Integer, Object>() {
+            @Override
+            public Object process(Integer size) {
+                cropper.crop(frame, 0, FRAME_WIDTH, FRAME_HEIGHT, 100.5f, 80.5f, size, size,
+                        crop, 0);
+                normalizer.normalize(crop, 0, input, 0);
+                return null;
+            }
+        };
+
+        PerfRegistry.getDefault().setRuntimeStats(stats);
+        try {
+            Pipeline<Integer, Object> empty = Pipeline.of("alloc-empty", nothing, 0, 0);
+            Pipeline<Integer, Object> crops = Pipeline.of("alloc-crop", cropAndNormalize, 0, 0);
+            // Boxed once here, so that submitting doesn't allocate either.
+            Integer[] sizes = { 48, 96, 192, 240 };
+            for (int i = 0; i < FRAMES; i++) {
+                empty.submit(sizes[i % sizes.length]);
+                crops.submit(sizes[i % sizes.length]);
+            }
+
+            long baseline = empty.getStage("alloc-empty").getAllocations().snapshot()
+                    .getWindowMaxBytes();
+            AllocationWindow.Snapshot cropAllocations =
+                    crops.getStage("alloc-crop").getAllocations().snapshot();
+            assertEquals(FRAMES, cropAllocations.getCount());
+            assertTrue("crop allocated " + cropAllocations,
+                    cropAllocations.getWindowMaxBytes() <= baseline);
+        } finally {
+            PerfRegistry.getDefault().setRuntimeStats(null);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.icam.perf;
+
+import com.icam.models.Emotion;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameTraceTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void dumpKeepsTheLatestRecordsOldestFirst() throws IOException {
+        FrameTrace trace = new FrameTrace(8);
+        // 5 frames of 2 records each, so the first is overwritten
+        for (int frame = 0; frame < 5; frame++) {
+            long start = frame * 33 * MS;
+            trace.frame(frame, frame * 33, start, 10 * MS, 1);
+            trace.inference(frame, 7, start + 12 * MS, 20 * MS, 1,
+                    Emotion.HAPPY.ordinal(), 0.9f);
+        }
+        assertEquals(10, trace.getRecordedCount());
+
+        List<FrameTraceReader.Record> records = read(trace);
+        assertEquals(8, records.size());
+        FrameTraceReader.Record first = records.get(0);
+        assertEquals(FrameTrace.TYPE_FRAME, first.type);
+        assertEquals(1, first.frameId);
+        assertEquals(33, first.cameraMillis);
+        assertEquals(10 * MS, first.durationNanos);
+        FrameTraceReader.Record last = records.get(7);
+        assertEquals(FrameTrace.TYPE_INFERENCE, last.type);
+        assertEquals(4, last.frameId);
+        assertEquals(7, last.faceId);
+        assertEquals("Happy", last.getEmotionLabel());
+        assertEquals(0.9f, last.confidence, 1e-6f);
+        assertEquals(4 * 33 * MS + 32 * MS, last.getEndNanos());
+    }
+
+    @Test
+    public void summaryAndTimelineCoverEveryRecord() throws IOException {
+        FrameTrace trace = new FrameTrace(16);
+        trace.frame(1, 100, 0, 5 * MS, 1);
+        trace.draw(6 * MS, 2 * MS);
+        trace.inference(1, 3, 10 * MS, 20 * MS, 1, -1, 0);
+        trace.draw(40 * MS, 2 * MS);
+
+        List<FrameTraceReader.Record> records = read(trace);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream print = new PrintStream(out, true, "UTF-8");
+        FrameTraceReader.printSummary(records, print);
+        FrameTraceReader.printTimeline(records, print);
+        String report = out.toString("UTF-8");
+        assertTrue(report, report.contains("4 records over 0.0 s"));
+        // the face's result came 30 ms after its frame was detected
+        assertTrue(report, report.contains("none 0.00, infer 20.0 ms in a batch of 1, "
+                + "30.0 ms after detection"));
+        assertTrue(report, report.contains("frame 1 (camera 100 ms): detect 5.0 ms, 1 faces"));
+    }
+
+    @Test
+    public void recordingDoesNotAllocate() {
+        RuntimeStats stats = new JvmRuntimeStats();
+        FrameTrace trace = new FrameTrace(1024);
+        // warm up, and fill the ring
+        for (int i = 0; i < 10000; i++) {
+            trace.inference(i, i, i, i, 2, i % Emotion.COUNT, 0.5f);
+        }
+        long before = stats.getThreadAllocatedBytes();
+        if (before < 0) {
+            return;
+        }
+        for (int i = 0; i < 100000; i++) {
+            trace.frame(i, i, i, i, 1);
+            trace.inference(i, i, i, i, 2, i % Emotion.COUNT, 0.5f);
+            trace.draw(i, i);
+        }
+        long allocated = stats.getThreadAllocatedBytes() - before;
+        assertTrue("recording allocated " + allocated + " bytes", allocated < 1000);
+    }
+
+    private static List<FrameTraceReader.Record> read(FrameTrace trace) throws IOException {
+        ByteArrayOutputStream dump = new ByteArrayOutputStream();
+        trace.writeTo(Channels.newChannel(dump));
+        assertEquals(24 + 32 * Math.min(trace.getRecordedCount(), trace.getCapacity()),
+                dump.size());
+        return FrameTraceReader.read(new ByteArrayInputStream(dump.toByteArray()));
+    }
+}
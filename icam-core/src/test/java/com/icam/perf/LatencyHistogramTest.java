@@ -0,0 +1,63 @@
+package com.icam.perf;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValueOnce() {
+        long expected = 0;
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT; bucket++) {
+            assertEquals(expected, LatencyHistogram.lowerBound(bucket));
+            assertEquals(bucket, LatencyHistogram.bucketOf(expected));
+            long last = expected + LatencyHistogram.width(bucket) - 1;
+            assertEquals(bucket, LatencyHistogram.bucketOf(last));
+            // never wider than an eighth of the values in it
+            assertTrue(LatencyHistogram.width(bucket) <= Math.max(1, expected / 8));
+            expected = last + 1;
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesAreWithinABucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1 ms to 100 ms, one each
+        for (int ms = 1; ms <= 100; ms++) {
+            histogram.record(ms * 1000000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(50.5f, snapshot.getMeanMs(), 1e-3f);
+        assertEquals(50.0f, snapshot.getPercentileMs(0.5), 50.0f / 8);
+        assertEquals(95.0f, snapshot.getPercentileMs(0.95), 95.0f / 8);
+        assertEquals(99.0f, snapshot.getPercentileMs(0.99), 99.0f / 8);
+
+        // only what came after the first snapshot
+        for (int i = 0; i < 10; i++) {
+            histogram.record(500000000L);
+        }
+        LatencyHistogram.Snapshot recent = histogram.snapshot().minus(snapshot);
+        assertEquals(10, recent.getCount());
+        assertEquals(500.0f, recent.getPercentileMs(0.5), 500.0f / 8);
+    }
+
+    @Test
+    public void snapshotsGiveRatesBetweenThem() {
+        PerfRegistry registry = new PerfRegistry();
+        registry.counter("frames").addAndGet(5);
+        PerfSnapshot before = registry.snapshot();
+        registry.counter("frames").addAndGet(30);
+        registry.latency("detect").record(2000000L);
+        PerfSnapshot after = registry.snapshot();
+
+        PerfSnapshot between = after.since(before);
+        assertEquals(30, between.getCount("frames"));
+        assertEquals(1, between.getLatency("detect").getCount());
+        assertEquals(between.getElapsedNanos() > 0 ? 30 * 1e9f / between.getElapsedNanos() : 0,
+                between.getRate("frames"), 1e-3f);
+    }
+}
@@ -0,0 +1,163 @@
+package com.icam.pipeline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PipelineTest {
+
+    private static class Item implements Releasable {
+        final int value;
+        boolean released;
+
+        Item(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+    }
+
+    @Test
+    public void inlineStagesRunInOrder() {
+        final List<String> seen = Collections.synchronizedList(new ArrayList<String>());
+        Pipeline<Integer, String> pipeline = Pipeline.of("double", new Stage<Integer, Integer>() {
+            @Override
+            public Integer process(Integer input) {
+                return input % 2 == 0 ? input * 2 : null;
+            }
+        }, 0, 0).then("format", new Stage<Integer, String>() {
+            @Override
+            public String process(Integer input) {
+                return "#" + input;
+            }
+        }, 0, 0).into(new Sink<String>() {
+            @Override
+            public void accept(String item) {
+                seen.add(item);
+            }
+        });
+
+        for (int i = 0; i < 5; i++) {
+            pipeline.submit(i);
+        }
+        assertEquals(5, pipeline.getStage("double").getProcessedCount());
+        assertEquals(3, pipeline.getStage("format").getProcessedCount());
+        assertEquals(3, seen.size());
+        assertEquals("#8", seen.get(2));
+    }
+
+    @Test
+    public void fullQueueDropsAndReleasesTheOldest() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final List<Integer> done = Collections.synchronizedList(new ArrayList<Integer>());
+        Pipeline<Item, Item> pipeline = Pipeline.of("slow", new Stage<Item, Item>() {
+            @Override
+            public Item process(Item input) {
+                started.countDown();
+                try {
+                    proceed.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.add(input.value);
+                return null;
+            }
+        }, 1, 1);
+
+        Item first = new Item(1);
+        pipeline.submit(first);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // the worker is busy with 1, so 2 waits and is pushed out by 3
+        Item second = new Item(2);
+        Item third = new Item(3);
+        pipeline.submit(second);
+        pipeline.submit(third);
+        StageRunner<?, ?> slow = pipeline.getStage("slow");
+        assertEquals(1, slow.getDroppedCount());
+        assertEquals(1, slow.getQueueDepth());
+        assertTrue(second.released);
+
+        proceed.countDown();
+        for (int i = 0; i < 100 && slow.getProcessedCount() < 2; i++) {
+            Thread.sleep(10);
+        }
+        pipeline.shutdown();
+        assertEquals(2, slow.getProcessedCount());
+        assertEquals(Integer.valueOf(3), done.get(1));
+    }
+
+    @Test
+    public void awaitTerminationWaitsForTheItemInProgress() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final List<Integer> done = Collections.synchronizedList(new ArrayList<Integer>());
+        Pipeline<Integer, Integer> pipeline = Pipeline.of("busy", new Stage<Integer, Integer>() {
+            @Override
+            public Integer process(Integer input) {
+                started.countDown();
+                // like a classifier call, not cut short by the shutdown's interrupt
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+                while (System.nanoTime() < end) {
+                    Thread.yield();
+                }
+                done.add(input);
+                return null;
+            }
+        }, 1, 1);
+
+        pipeline.submit(1);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        pipeline.shutdown();
+        assertTrue(done.isEmpty());
+        pipeline.awaitTermination();
+        assertEquals(1, done.size());
+    }
+
+    @Test
+    public void failingStageReleasesItsItem() {
+        Pipeline<Item, Item> pipeline = Pipeline.of("broken", new Stage<Item, Item>() {
+            @Override
+            public Item process(Item input) {
+                throw new IllegalStateException("no model");
+            }
+        }, 0, 0);
+
+        Item item = new Item(1);
+        pipeline.submit(item);
+        assertTrue(item.released);
+        assertEquals(1, pipeline.getStage("broken").getFailedCount());
+    }
+
+    @Test
+    public void workerSurvivesAnError() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        Pipeline<Item, Item> pipeline = Pipeline.of("native", new Stage<Item, Item>() {
+            @Override
+            public Item process(Item input) {
+                if (input.value == 1) {
+                    throw new UnsatisfiedLinkError("no libtensorflow_inference");
+                }
+                done.countDown();
+                return null;
+            }
+        }, 1, 2);
+
+        Item item = new Item(1);
+        pipeline.submit(item);
+        pipeline.submit(new Item(2));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(item.released);
+        assertEquals(1, pipeline.getStage("native").getFailedCount());
+        pipeline.shutdown();
+    }
+}
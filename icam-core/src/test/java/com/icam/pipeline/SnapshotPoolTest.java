@@ -0,0 +1,74 @@
+package com.icam.pipeline;
+
+import com.icam.helpers.FaceCropper;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotPoolTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Test
+    public void lastReleaseRecyclesTheSnapshot() {
+        byte[] frame = randomFrame();
+        SnapshotPool pool = new SnapshotPool(2);
+        RegionSnapshot snapshot = pool.snapshot(frame, 0, WIDTH, 10, 5, 20, 15);
+        assertEquals(10, snapshot.getWidth());
+        assertEquals(frame[7 * WIDTH + 13], snapshot.getPixels()[2 * 10 + 3]);
+
+        snapshot.retain();
+        snapshot.release();
+        assertEquals(1, snapshot.getRefCount());
+        snapshot.release();
+
+        // smaller regions reuse the buffer
+        RegionSnapshot again = pool.snapshot(frame, 0, WIDTH, 0, 0, 4, 4);
+        assertSame(snapshot, again);
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(1, pool.getReusedCount());
+    }
+
+    @Test
+    public void croppingTheSnapshotMatchesCroppingTheFrame() {
+        byte[] frame = randomFrame();
+        FaceCropper cropper = new FaceCropper(16);
+        SnapshotPool pool = new SnapshotPool();
+        int[] bounds = new int[4];
+        byte[] expected = new byte[16 * 16];
+        byte[] actual = new byte[16 * 16];
+
+        // a rolled box, partly off the right edge of the frame
+        assertTrue(cropper.rotatedBounds(40.0f, 10.0f, 30.0f, 26.0f, 20.0f, WIDTH, HEIGHT, bounds));
+        RegionSnapshot snapshot = pool.snapshot(frame, 0, WIDTH,
+                bounds[0], bounds[1], bounds[2], bounds[3]);
+        cropper.cropRotated(frame, 0, WIDTH, HEIGHT, 40.0f, 10.0f, 30.0f, 26.0f, 20.0f, expected, 0);
+        cropper.cropRotated(snapshot.getPixels(), 0, snapshot.getWidth(), snapshot.getHeight(),
+                40.0f - bounds[0], 10.0f - bounds[1], 30.0f, 26.0f, 20.0f, actual, 0);
+        assertArrayEquals(expected, actual);
+        snapshot.release();
+
+        assertTrue(cropper.alignedBounds(20.0f, 22.0f, 34.0f, 18.0f, WIDTH, HEIGHT, bounds));
+        snapshot = pool.snapshot(frame, 0, WIDTH, bounds[0], bounds[1], bounds[2], bounds[3]);
+        cropper.cropAligned(frame, 0, WIDTH, HEIGHT, 20.0f, 22.0f, 34.0f, 18.0f, expected, 0);
+        cropper.cropAligned(snapshot.getPixels(), 0, snapshot.getWidth(), snapshot.getHeight(),
+                20.0f - bounds[0], 22.0f - bounds[1], 34.0f - bounds[0], 18.0f - bounds[1],
+                actual, 0);
+        assertArrayEquals(expected, actual);
+        snapshot.release();
+    }
+
+    private static byte[] randomFrame() {
+        Random random = new Random(7);
+        byte[] frame = new byte[WIDTH * HEIGHT];
+        random.nextBytes(frame);
+        return frame;
+    }
+}